@@ -0,0 +1,73 @@
+package hmperson1.apps.hyperblobs;
+
+import android.test.AndroidTestCase;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static hmperson1.apps.hyperblobs.LevelUpdater.BLOB_RADIUS;
+import static hmperson1.apps.hyperblobs.LevelUpdater.HEIGHT;
+import static hmperson1.apps.hyperblobs.LevelUpdater.LENGTH;
+
+/**
+ * Checks that {@link AutoPlayer} finishes level 1-1, which only needs the
+ * blob to get past two spikes, and that the input it reports replays to
+ * exactly where it ended.
+ *
+ * @author HMPerson1
+ */
+public class AutoPlayerTest extends AndroidTestCase {
+
+    /**
+     * Most ticks the player gets: thirty seconds, several times what the
+     * level takes.
+     */
+    private static final int MAX_TICKS = 30 * 60;
+    /**
+     * The player being tested.
+     */
+    private AutoPlayer mPlayer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        LevelLoader.init(getContext().getResources());
+        mPlayer = new AutoPlayer(1, 1).setMaxTicks(MAX_TICKS);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mPlayer.release();
+        super.tearDown();
+    }
+
+    /**
+     * The player gets to the right end of the level, and its input replays
+     * there on the same tick.
+     *
+     * @throws Exception if the level couldn't be loaded
+     */
+    public void testCompletesAndReplays() throws Exception {
+        AutoPlayer.Report report = mPlayer.play();
+        assertTrue(report.toString(), report.isCompleted());
+        assertTrue(report.toString(), (report.ticks > 0) && (report.ticks < MAX_TICKS));
+        assertEquals(report.toString(), report.ticks, report.input.size());
+        assertTrue(report.toString(), report.rollouts > 0);
+        assertTrue(report.toString(), report.closest > 0);
+
+        ByteBuffer played = ByteBuffer.allocate(mPlayer.snapshotSize());
+        mPlayer.save(played);
+        HeadlessRunner runner = new HeadlessRunner(LevelLoader.load(1, 1), report.input.reader())
+                .setGoal(LENGTH - (2 * BLOB_RADIUS), 0, LENGTH, (int) HEIGHT);
+        try {
+            HeadlessRunner.Result result = runner.run();
+            assertEquals(HeadlessRunner.reasonName(HeadlessRunner.STOP_GOAL), HeadlessRunner.reasonName(result.reason));
+            assertEquals(report.ticks, result.ticks);
+            ByteBuffer replayed = ByteBuffer.allocate(runner.snapshotSize());
+            runner.save(replayed);
+            assertTrue("Replay ended somewhere else", Arrays.equals(played.array(), replayed.array()));
+        } finally {
+            runner.release();
+        }
+    }
+}
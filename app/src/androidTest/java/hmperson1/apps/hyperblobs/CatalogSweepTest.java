@@ -0,0 +1,117 @@
+package hmperson1.apps.hyperblobs;
+
+import android.test.AndroidTestCase;
+
+import java.util.List;
+
+/**
+ * Sweeps every level in {@link LevelLoader#catalog()} through a
+ * {@link BatchSimulator}, holding a few tilts on each, as the nightly check
+ * of the catalog does, and checks what the {@link BatchSimulator.Report}
+ * says about each job.
+ *
+ * @author HMPerson1
+ */
+public class CatalogSweepTest extends AndroidTestCase {
+
+    /**
+     * Most ticks each job runs: ten seconds.
+     */
+    private static final int MAX_TICKS = 10 * 60;
+    /**
+     * Tilts held for a whole job, as x and y velocity: flat, then along each
+     * axis.
+     */
+    private static final float[] TILTS = {0, 0, 9.8f, 0, -9.8f, 0, 0, 9.8f, 0, -9.8f};
+    /**
+     * The simulator being tested.
+     */
+    private BatchSimulator mSimulator;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        LevelLoader.init(getContext().getResources());
+        mSimulator = new BatchSimulator(Math.max(2, Runtime.getRuntime().availableProcessors()));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mSimulator.shutdown();
+        super.tearDown();
+    }
+
+    /**
+     * Every level in the catalog runs with every tilt, a level that doesn't
+     * exist fails on its own, and the same job run twice at once ends the
+     * same way.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void testSweepCatalog() throws InterruptedException {
+        List<int[]> catalog = LevelLoader.catalog();
+        assertTrue("No levels", !catalog.isEmpty());
+        for (int[] level : catalog) {
+            for (int t = 0; t < (TILTS.length / 2); t++) {
+                mSimulator.add(level[0] + "-" + level[1] + " tilt " + t,
+                        BatchSimulator.levelJob(level[0], level[1], tilt(TILTS[t * 2], TILTS[(t * 2) + 1]), MAX_TICKS));
+            }
+        }
+        int[] first = catalog.get(0);
+        mSimulator.add("again", BatchSimulator.levelJob(first[0], first[1], tilt(TILTS[2], TILTS[3]), MAX_TICKS));
+        mSimulator.add("missing", BatchSimulator.levelJob(99, 99, tilt(0, 0), MAX_TICKS));
+
+        BatchSimulator.Report report = mSimulator.run();
+        int jobs = catalog.size() * (TILTS.length / 2);
+        assertEquals(report.toString(), jobs + 2, report.outcomes.size());
+        assertEquals(report.toString(), 1, report.getFailures());
+
+        long ticks = 0;
+        for (int i = 0; i < jobs; i++) {
+            BatchSimulator.Outcome outcome = report.outcomes.get(i);
+            int[] level = catalog.get(i / (TILTS.length / 2));
+            assertEquals(level[0] + "-" + level[1] + " tilt " + (i % (TILTS.length / 2)), outcome.name);
+            assertNull(outcome.toString(), outcome.error);
+            assertNotNull(outcome.toString(), outcome.result);
+            // There is no goal, so only time running out or dying stops it
+            assertTrue(outcome.toString(), (outcome.result.reason == HeadlessRunner.STOP_TICKS)
+                    || (outcome.result.reason == HeadlessRunner.STOP_DEATH));
+            assertTrue(outcome.toString(), (outcome.result.ticks > 0) && (outcome.result.ticks <= MAX_TICKS));
+            ticks += outcome.result.ticks;
+        }
+
+        BatchSimulator.Outcome again = report.outcomes.get(jobs);
+        assertEquals("again", again.name);
+        assertNotNull(again.toString(), again.result);
+        assertEquals(report.outcomes.get(1).result.reason, again.result.reason);
+        assertEquals(report.outcomes.get(1).result.ticks, again.result.ticks);
+        ticks += again.result.ticks;
+
+        BatchSimulator.Outcome missing = report.outcomes.get(jobs + 1);
+        assertEquals("missing", missing.name);
+        assertNull(missing.result);
+        assertNotNull(missing.error);
+
+        assertEquals(ticks, report.getTotalTicks());
+        // Jobs are only run once
+        assertEquals(0, mSimulator.run().outcomes.size());
+    }
+
+    /**
+     * Returns input that holds the same tilt on every tick.
+     *
+     * @param x x velocity
+     * @param y y velocity
+     * @return the input
+     */
+    private static InputSource tilt(final float x, final float y) {
+        return new InputSource() {
+            @Override
+            public int next(float[] velocity) {
+                velocity[0] = x;
+                velocity[1] = y;
+                return TICK;
+            }
+        };
+    }
+}
@@ -0,0 +1,202 @@
+package hmperson1.apps.hyperblobs;
+
+import android.graphics.Point;
+import android.test.AndroidTestCase;
+
+import java.util.List;
+
+/**
+ * Fails if drawing a level sends more to the driver than it should. Draws
+ * into a {@link RecordingGLBackend} as the blob crosses the level, and checks
+ * each frame against a budget of draw calls and state changes, so that
+ * culling and state caching can't quietly stop working. The draw budget only
+ * counts walls and spikes that are in view, worked out here rather than asked
+ * of the drawer, so drawing anything off screen goes over it.
+ *
+ * @author HMPerson1
+ */
+public class DrawBudgetTest extends AndroidTestCase {
+
+    /**
+     * Frames drawn before measuring, for textures to be uploaded and the
+     * resolution to settle.
+     */
+    private static final int WARMUP_FRAMES = 120;
+    /**
+     * Frames measured.
+     */
+    private static final int MEASURED_FRAMES = 1200;
+    /**
+     * Size of the pretend screen, in pixels.
+     */
+    private static final int WIDTH = 1280, HEIGHT = 720;
+    /**
+     * Draw calls allowed on top of one for each wall and two for each spike
+     * in view:
+     * the blob, its ghost, three kinds of particles, scaling onto the screen
+     * and the performance overlay with its panel.
+     */
+    private static final int EXTRA_DRAWS = 8;
+    /**
+     * Most program changes in a frame: one per layer, then one each for
+     * scaling onto the screen and the overlay.
+     */
+    private static final int MAX_PROGRAM_CHANGES = 8;
+    /**
+     * Most texture binds in a frame: a texture and its alpha channel for
+     * walls, spikes and blobs, then for scaling and the overlay.
+     */
+    private static final int MAX_TEXTURE_BINDS = 12;
+    /**
+     * Most uniform updates in a frame, on top of {@link #UNIFORMS_PER_DRAW}
+     * for each draw.
+     */
+    private static final int EXTRA_UNIFORMS = 16;
+    /**
+     * Uniform updates allowed per draw: the matrix, and now and then a color.
+     */
+    private static final int UNIFORMS_PER_DRAW = 2;
+    /**
+     * Most other state changes in a frame, such as blending and vertex
+     * arrays.
+     */
+    private static final int MAX_STATE_CHANGES = 32;
+    /**
+     * Half the width of the level in view, as {@link LevelDrawer} works it
+     * out.
+     */
+    private static final float HALF_VIEW = ((LevelUpdater.HEIGHT / HEIGHT) * WIDTH) / 2;
+    /**
+     * Ledges along the top of the crowded level, each with a spike above it.
+     */
+    private static final int LEDGES = 24;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        LevelLoader.init(getContext().getResources());
+        TextureCache.init(getContext().getResources());
+    }
+
+    /**
+     * Draws level 1-1 as the blob moves across it and checks every frame.
+     *
+     * @throws Exception if the level couldn't be loaded
+     */
+    public void testLevelStaysInBudget() throws Exception {
+        drawAcross(new LevelLoader(1, 1).call());
+    }
+
+    /**
+     * Draws a level with many more walls and spikes than fit in view, so
+     * that drawing all of them would go well over budget, and checks every
+     * frame.
+     */
+    public void testCrowdedLevelStaysInBudget() {
+        LevelState.Builder builder = new LevelState.Builder()
+                .addWall(LevelUpdater.LENGTH / 2, (int) LevelUpdater.HEIGHT, LevelUpdater.LENGTH / 2, 1)
+                .addWall(LevelUpdater.LENGTH / 2, 0, LevelUpdater.LENGTH / 2, 1)
+                .addWall(0, (int) (LevelUpdater.HEIGHT / 2), 1, (int) (LevelUpdater.HEIGHT / 2))
+                .addWall(LevelUpdater.LENGTH, (int) (LevelUpdater.HEIGHT / 2), 1, (int) (LevelUpdater.HEIGHT / 2))
+                .setBlob(100, 100);
+        int spacing = LevelUpdater.LENGTH / LEDGES;
+        for (int i = 0; i < LEDGES; i++) {
+            int x = (i * spacing) + (spacing / 2);
+            builder.addWall(x, 300, spacing / 4, 4);
+            builder.addSpike(x, 340);
+        }
+        LevelState level = builder.build();
+        int all = level.getWalls().size() + (2 * level.getSpikes().size()) + EXTRA_DRAWS;
+        int most = drawAcross(level);
+        // A third of the level is always out of view
+        assertTrue("Budget of " + most + " draws wouldn't catch drawing all " + all, (all - most) >= (LEDGES / 2));
+    }
+
+    /**
+     * Draws a level as the blob moves across it and checks every frame.
+     *
+     * @param level the level
+     * @return the largest draw budget any frame had
+     */
+    private static int drawAcross(LevelState level) {
+        LevelPhysicsUpdater physics = new LevelPhysicsUpdater(level, LevelUpdater.LENGTH, true);
+        LevelDrawer drawer = null;
+        try {
+            RecordingGLBackend gl = new RecordingGLBackend();
+            drawer = new LevelDrawer(gl);
+            drawer.setParticles(physics.getParticles());
+            drawer.onSurfaceCreated(null, null);
+            drawer.onSurfaceChanged(null, WIDTH, HEIGHT);
+            // Not counting setting up
+            gl.endFrame();
+
+            int most = 0;
+            for (int i = 0; i < (WARMUP_FRAMES + MEASURED_FRAMES); i++) {
+                double t = i / 60.0;
+                physics.setBlobVelocity((float) (20 * Math.sin(t)), (float) (20 * Math.cos(t * 0.7)));
+                physics.run();
+                LevelState drawn = physics.getState();
+                LevelState free = drawer.setState(drawn);
+                if (free != null) {
+                    physics.recycle(free);
+                }
+                drawer.onDrawFrame(null);
+                RecordingGLBackend.FrameStats frame = gl.endFrame();
+                if (i < WARMUP_FRAMES) {
+                    continue;
+                }
+                int maxDraws = drawBudget(drawn);
+                most = Math.max(most, maxDraws);
+                assertTrue(frame + " has more than " + maxDraws + " draws",
+                        frame.drawCalls <= maxDraws);
+                assertTrue(frame + " has more than " + MAX_PROGRAM_CHANGES + " program changes",
+                        frame.programChanges <= MAX_PROGRAM_CHANGES);
+                assertTrue(frame + " has more than " + MAX_TEXTURE_BINDS + " texture binds",
+                        frame.textureBinds <= MAX_TEXTURE_BINDS);
+                int maxUniforms = (UNIFORMS_PER_DRAW * frame.drawCalls) + EXTRA_UNIFORMS;
+                assertTrue(frame + " has more than " + maxUniforms + " uniform updates",
+                        frame.uniformUpdates <= maxUniforms);
+                assertTrue(frame + " has more than " + MAX_STATE_CHANGES + " other state changes",
+                        frame.stateChanges <= MAX_STATE_CHANGES);
+            }
+            return most;
+        } finally {
+            if (drawer != null) {
+                drawer.release();
+            }
+            physics.release();
+        }
+    }
+
+    /**
+     * Returns the number of draws a frame of a state may take: one for each
+     * wall and two for each spike in view, and {@link #EXTRA_DRAWS}. The
+     * view is widened by a pixel on each side, so that rounding never
+     * leaves out something the drawer counts as in view.
+     *
+     * @param state the state drawn
+     * @return the budget
+     */
+    private static int drawBudget(LevelState state) {
+        float camera = Math.min(Math.max(state.getBlobX(), HALF_VIEW), LevelUpdater.LENGTH - HALF_VIEW);
+        float left = camera - HALF_VIEW - 1;
+        float right = camera + HALF_VIEW + 1;
+        int draws = EXTRA_DRAWS;
+        List<List<Point>> walls = state.getWalls();
+        for (int i = 0; i < walls.size(); i++) {
+            Point center = walls.get(i).get(0);
+            Point half = walls.get(i).get(1);
+            if (((center.x + half.x) >= left) && ((center.x - half.x) <= right)) {
+                draws++;
+            }
+        }
+        List<Point> spikes = state.getSpikes();
+        for (int i = 0; i < spikes.size(); i++) {
+            Point spike = spikes.get(i);
+            if (((spike.x + LevelUpdater.SPIKE_RADIUS) >= left) && ((spike.x - LevelUpdater.SPIKE_RADIUS) <= right)) {
+                draws += 2;
+            }
+        }
+        return draws;
+    }
+}
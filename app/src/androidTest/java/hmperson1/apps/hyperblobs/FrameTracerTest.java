@@ -0,0 +1,128 @@
+package hmperson1.apps.hyperblobs;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+/**
+ * Checks what {@link FrameTracer} writes out: every phase begins before it
+ * ends, even once the oldest events have been overwritten, and nothing is
+ * written twice. Pure Java; nothing Android is needed.
+ *
+ * @author HMPerson1
+ */
+public class FrameTracerTest extends TestCase {
+
+    /**
+     * More events than the ring holds.
+     */
+    private static final int MANY_EVENTS = (1 << 16) + 3;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        FrameTracer.setEnabled(true);
+        FrameTracer.clear();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        FrameTracer.setEnabled(false);
+        FrameTracer.clear();
+        super.tearDown();
+    }
+
+    /**
+     * An end recorded without its beginning is left out.
+     *
+     * @throws IOException never
+     */
+    public void testDropsUnmatchedEnd() throws IOException {
+        FrameTracer.end(FrameTracer.INPUT);
+        FrameTracer.begin(FrameTracer.INPUT);
+        FrameTracer.end(FrameTracer.INPUT);
+        String trace = dump();
+        assertEquals(trace, 1, count(trace, "\"ph\":\"B\""));
+        assertEquals(trace, 1, count(trace, "\"ph\":\"E\""));
+        assertTrue(trace, trace.indexOf("\"ph\":\"B\"") < trace.indexOf("\"ph\":\"E\""));
+    }
+
+    /**
+     * Once the ring wraps around in the middle of a phase, its end is left
+     * out, and every other phase still begins and ends.
+     *
+     * @throws IOException never
+     */
+    public void testWrapDropsOrphans() throws IOException {
+        // Odd, so that the oldest event kept is an end
+        for (int i = 0; i < MANY_EVENTS; i++) {
+            if ((i % 2) == 0) {
+                FrameTracer.begin(FrameTracer.WORLD_STEP);
+            } else {
+                FrameTracer.end(FrameTracer.WORLD_STEP);
+            }
+        }
+        String trace = dump();
+        int begins = count(trace, "\"ph\":\"B\"");
+        int ends = count(trace, "\"ph\":\"E\"");
+        assertTrue(trace.substring(0, 200), trace.indexOf("\"ph\":\"B\"") < trace.indexOf("\"ph\":\"E\""));
+        // The last phase never ended
+        assertEquals(ends + 1, begins);
+        assertEquals((1 << 16) - 1, begins + ends);
+    }
+
+    /**
+     * Events that were dumped or cleared aren't written again.
+     *
+     * @throws IOException never
+     */
+    public void testDumpsOnce() throws IOException {
+        FrameTracer.begin(FrameTracer.DRAW_FRAME);
+        FrameTracer.end(FrameTracer.DRAW_FRAME);
+        assertEquals(2, events(dump()));
+        assertEquals(0, events(dump()));
+        FrameTracer.begin(FrameTracer.HANDOFF);
+        FrameTracer.clear();
+        FrameTracer.begin(FrameTracer.HANDOFF);
+        FrameTracer.end(FrameTracer.HANDOFF);
+        assertEquals(2, events(dump()));
+    }
+
+    /**
+     * Writes out the events recorded since the last dump.
+     *
+     * @return the trace
+     * @throws IOException never
+     */
+    private static String dump() throws IOException {
+        StringWriter out = new StringWriter();
+        FrameTracer.dump(out);
+        return out.toString();
+    }
+
+    /**
+     * Counts the beginnings and ends in a trace.
+     *
+     * @param trace the trace
+     * @return the count
+     */
+    private static int events(String trace) {
+        return count(trace, "\"ph\":\"B\"") + count(trace, "\"ph\":\"E\"");
+    }
+
+    /**
+     * Counts how many times a string appears in another.
+     *
+     * @param s    where to look
+     * @param part what to look for
+     * @return the count
+     */
+    private static int count(String s, String part) {
+        int count = 0;
+        for (int i = s.indexOf(part); i >= 0; i = s.indexOf(part, i + 1)) {
+            count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,256 @@
+package hmperson1.apps.hyperblobs;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Checks that a {@link GhostRun} plays back exactly the positions appended to
+ * it, whether they were packed in a byte or escaped, straight away, after
+ * being copied, and after being written and read back. Pure Java; nothing
+ * Android is needed.
+ *
+ * @author HMPerson1
+ */
+public class GhostRunTest extends TestCase {
+
+    /**
+     * Bytes written before the ticks: magic, version, tick count and length.
+     */
+    private static final int HEADER_BYTES = 4 * 4;
+    /**
+     * The ghost being tested.
+     */
+    private GhostRun mGhost;
+    /**
+     * Positions appended to {@code mGhost}: x and y of each tick.
+     */
+    private int[] mExpected;
+    /**
+     * Number of ticks in {@code mExpected}.
+     */
+    private int mTicks;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mGhost = new GhostRun();
+        mExpected = new int[0];
+        mTicks = 0;
+    }
+
+    /**
+     * Moving steadily, or speeding up a little at a time, packs each tick in
+     * a byte.
+     *
+     * @throws IOException never
+     */
+    public void testPacked() throws IOException {
+        for (int i = 0; i < 1000; i++) {
+            // Speeding up slowly, and bouncing up and down
+            append((i * 3) + ((i * i) / 200), Math.abs((i % 20) - 10) - 10);
+        }
+        check(mGhost);
+        byte[] bytes = write(mGhost);
+        assertEquals(HEADER_BYTES + 1000, bytes.length);
+        check(GhostRun.readFrom(new ByteArrayInputStream(bytes)));
+    }
+
+    /**
+     * Jumps that don't fit in a byte, up to as far as an int can go, are
+     * escaped and still come back exactly, mixed in with packed ticks.
+     *
+     * @throws IOException never
+     */
+    public void testEscaped() throws IOException {
+        int[] jumps = {0, 0, 4, -4, 5, -5, 100, -100, 1 << 20, -(1 << 20), Integer.MAX_VALUE, Integer.MIN_VALUE,
+                0, Integer.MIN_VALUE, Integer.MAX_VALUE, 0, 0, 1, 2, 3};
+        for (int jump : jumps) {
+            append(jump, -jump);
+            append(jump, -jump);
+        }
+        Random random = new Random(13);
+        for (int i = 0; i < 5000; i++) {
+            int x = mExpected[(mTicks - 1) * 2];
+            int y = mExpected[((mTicks - 1) * 2) + 1];
+            if (random.nextInt(20) == 0) {
+                append(random.nextInt(), random.nextInt(2000) - 1000);
+            } else {
+                append(x + random.nextInt(7) - 3, y + random.nextInt(7) - 3);
+            }
+        }
+        check(mGhost);
+        check(GhostRun.readFrom(new ByteArrayInputStream(write(mGhost))));
+    }
+
+    /**
+     * A copy, which is exactly full, and a ghost that was read back can both
+     * be appended to. So can copies of empty ghosts.
+     *
+     * @throws IOException never
+     */
+    public void testAppendAfterCopy() throws IOException {
+        GhostRun empty = new GhostRun(mGhost);
+        assertEquals(0, empty.size());
+        mGhost = empty;
+        for (int i = 0; i < 10; i++) {
+            append(i * i, -i);
+        }
+        mGhost = new GhostRun(mGhost);
+        for (int i = 0; i < 10; i++) {
+            append(100, 1000 * i);
+        }
+        mGhost = GhostRun.readFrom(new ByteArrayInputStream(write(mGhost)));
+        for (int i = 0; i < 5000; i++) {
+            append(i, i / 3);
+        }
+        check(mGhost);
+    }
+
+    /**
+     * Clearing empties a ghost, which then records from scratch.
+     */
+    public void testClear() {
+        append(10, 10);
+        append(-50, 7);
+        mGhost.clear();
+        assertEquals(0, mGhost.size());
+        mTicks = 0;
+        append(3, 4);
+        check(mGhost);
+    }
+
+    /**
+     * A ghost is better if it got farther right, or as far sooner, and an
+     * empty ghost is never better.
+     */
+    public void testBetterThan() {
+        GhostRun empty = new GhostRun();
+        GhostRun far = new GhostRun();
+        GhostRun soon = new GhostRun();
+        GhostRun late = new GhostRun();
+        for (int x : new int[]{0, 100, 500, 400}) {
+            far.append(x, 0);
+        }
+        for (int x : new int[]{0, 300, 200, 100}) {
+            soon.append(x, 0);
+        }
+        for (int x : new int[]{0, 100, 200, 300}) {
+            late.append(x, 0);
+        }
+        assertFalse(empty.isBetterThan(far));
+        assertFalse(empty.isBetterThan(empty));
+        assertTrue(far.isBetterThan(empty));
+        assertTrue(far.isBetterThan(soon));
+        assertFalse(soon.isBetterThan(far));
+        assertTrue(soon.isBetterThan(late));
+        assertFalse(late.isBetterThan(soon));
+        assertFalse(soon.isBetterThan(new GhostRun(soon)));
+    }
+
+    /**
+     * Streams that aren't ghosts, are cut short, or don't hold as many ticks
+     * as they say, fail.
+     *
+     * @throws IOException never
+     */
+    public void testCorrupt() throws IOException {
+        append(1, 1);
+        append(1000, 1);
+        append(1001, 2);
+        byte[] good = write(mGhost);
+
+        byte[] magic = good.clone();
+        magic[0] ^= 1;
+        assertFails(magic);
+        byte[] version = good.clone();
+        version[7] = 2;
+        assertFails(version);
+        assertFails(Arrays.copyOf(good, good.length - 1));
+
+        // Fewer ticks than the bytes hold, or more
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.write(good, 0, 8);
+        out.writeInt(2);
+        out.write(good, 12, good.length - 12);
+        assertFails(bytes.toByteArray());
+        bytes.reset();
+        out.write(good, 0, 8);
+        out.writeInt(4);
+        out.write(good, 12, good.length - 12);
+        assertFails(bytes.toByteArray());
+        // A length that doesn't fit the ticks
+        bytes.reset();
+        out.write(good, 0, 8);
+        out.writeInt(1);
+        out.writeInt(Integer.MAX_VALUE);
+        assertFails(bytes.toByteArray());
+    }
+
+    /**
+     * Appends a tick to the ghost, and remembers it.
+     *
+     * @param x center x coordinate of the blob
+     * @param y center y coordinate of the blob
+     */
+    private void append(int x, int y) {
+        mGhost.append(x, y);
+        if (mExpected.length < ((mTicks + 1) * 2)) {
+            mExpected = Arrays.copyOf(mExpected, Math.max(mExpected.length * 2, 2));
+        }
+        mExpected[mTicks * 2] = x;
+        mExpected[(mTicks * 2) + 1] = y;
+        mTicks++;
+    }
+
+    /**
+     * Checks that a ghost plays back every tick that was appended, and
+     * nothing more.
+     *
+     * @param ghost the ghost
+     */
+    private void check(GhostRun ghost) {
+        assertEquals(mTicks, ghost.size());
+        GhostRun.Player player = new GhostRun.Player();
+        player.start(ghost);
+        for (int i = 0; i < mTicks; i++) {
+            assertTrue("Tick " + i, player.next());
+            assertEquals("Tick " + i, mExpected[i * 2], player.getX());
+            assertEquals("Tick " + i, mExpected[(i * 2) + 1], player.getY());
+        }
+        assertFalse(player.next());
+    }
+
+    /**
+     * Writes a ghost.
+     *
+     * @param ghost the ghost
+     * @return what was written
+     * @throws IOException never
+     */
+    private static byte[] write(GhostRun ghost) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ghost.writeTo(out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Checks that reading a ghost fails.
+     *
+     * @param bytes what to read
+     */
+    private static void assertFails(byte[] bytes) {
+        try {
+            GhostRun.readFrom(new ByteArrayInputStream(bytes));
+            fail("Read a corrupt ghost");
+        } catch (IOException expected) {
+            // Good
+        }
+    }
+}
@@ -0,0 +1,311 @@
+package hmperson1.apps.hyperblobs;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Checks that an {@link InputLog} gives back exactly what was appended to it,
+ * resets included, straight away and after being written and read back.
+ * Pure Java; nothing Android is needed.
+ *
+ * @author HMPerson1
+ */
+public class InputLogTest extends TestCase {
+
+    /**
+     * Velocities whose changes are awkward to encode: none at all, the
+     * smallest step, changes right around where varints get another byte,
+     * and swings between the largest velocities of either sign.
+     */
+    private static final float[] EDGE_VELOCITIES = {
+            0, 0, 1 / 1024f, -1 / 1024f, 0, 63 / 1024f, -64 / 1024f, 64 / 1024f, 8191 / 1024f,
+            -8192 / 1024f, 8192 / 1024f, 1e5f, -1e5f, 1e6f, -1e6f, Float.MAX_VALUE, -Float.MAX_VALUE,
+            Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY, 0, 9.80665f, -9.80665f, 0
+    };
+    /**
+     * Ticks that come right after the level was started over.
+     */
+    private static final int[] EDGE_RESETS = {0, 1, 5, 6, 16, 22};
+
+    /**
+     * The log being tested.
+     */
+    private InputLog mLog;
+    /**
+     * What each tick of {@code mLog} should give back: x, y, and 1 if the
+     * level was started over before it.
+     */
+    private float[] mExpected;
+    /**
+     * Number of ticks in {@code mExpected}.
+     */
+    private int mTicks;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mLog = new InputLog(3, 7);
+        mExpected = new float[0];
+        mTicks = 0;
+    }
+
+    /**
+     * Awkward velocities and resets come back exactly, quantized, before and
+     * after a round trip through a stream.
+     *
+     * @throws IOException never
+     */
+    public void testEdgeCases() throws IOException {
+        for (int i = 0; i < EDGE_VELOCITIES.length; i++) {
+            if (Arrays.binarySearch(EDGE_RESETS, i) >= 0) {
+                reset();
+            }
+            append(EDGE_VELOCITIES[i], EDGE_VELOCITIES[EDGE_VELOCITIES.length - 1 - i]);
+        }
+        check(mLog);
+        InputLog read = roundTrip(mLog);
+        assertEquals(3, read.getMajor());
+        assertEquals(7, read.getMinor());
+        check(read);
+    }
+
+    /**
+     * Velocities beyond what can be stored are kept at the largest that can,
+     * and rounding twice changes nothing.
+     */
+    public void testQuantize() {
+        assertEquals(InputLog.quantize(Float.MAX_VALUE), InputLog.quantize(1e9f));
+        assertEquals(-InputLog.quantize(Float.MAX_VALUE), InputLog.quantize(-1e9f));
+        assertTrue(InputLog.quantize(1e9f) > 5e5f);
+        Random random = new Random(5);
+        for (int i = 0; i < 1000; i++) {
+            float v = (random.nextFloat() - 0.5f) * 100;
+            float q = InputLog.quantize(v);
+            assertEquals(q, InputLog.quantize(q));
+            assertEquals(v, q, 1 / 2048f);
+        }
+    }
+
+    /**
+     * Resets before the first tick, and several in a row, come back as one
+     * reset each time the level was started over between ticks.
+     *
+     * @throws IOException never
+     */
+    public void testResets() throws IOException {
+        reset();
+        append(1, 1);
+        mLog.appendReset();
+        reset();
+        append(2, -2);
+        append(2, -2);
+        reset();
+        append(0, 0);
+        check(mLog);
+        check(roundTrip(mLog));
+    }
+
+    /**
+     * A long random session comes back exactly.
+     *
+     * @throws IOException never
+     */
+    public void testRandom() throws IOException {
+        Random random = new Random(11);
+        float x = 0, y = 0;
+        for (int i = 0; i < 20000; i++) {
+            if (random.nextInt(500) == 0) {
+                reset();
+            }
+            // Mostly held still, now and then tilted hard
+            if (random.nextInt(10) == 0) {
+                x = (random.nextFloat() - 0.5f) * 40;
+                y = (random.nextFloat() - 0.5f) * 40;
+            }
+            append(x, y);
+        }
+        check(roundTrip(mLog));
+    }
+
+    /**
+     * A log that was read back, which is exactly full, can be appended to,
+     * and carries on from the velocity it ended on. So can an empty one.
+     *
+     * @throws IOException never
+     */
+    public void testAppendAfterRead() throws IOException {
+        InputLog empty = roundTrip(mLog);
+        assertEquals(0, empty.size());
+        mLog = empty;
+        for (int i = 0; i < 5; i++) {
+            append(i, -i);
+        }
+        mLog = roundTrip(mLog);
+        reset();
+        for (int i = 0; i < 5000; i++) {
+            append(5, i % 3);
+        }
+        check(mLog);
+        check(roundTrip(mLog));
+    }
+
+    /**
+     * Readers that start at once each see every tick, and only the ticks
+     * appended before they started.
+     */
+    public void testReaders() {
+        append(1, 2);
+        InputLog.Reader first = mLog.reader();
+        append(3, 4);
+        InputLog.Reader second = mLog.reader();
+        float[] tick = new float[2];
+        assertEquals(InputSource.TICK, first.next(tick));
+        assertEquals(InputSource.TICK, second.next(tick));
+        assertEquals(InputSource.END, first.next(tick));
+        assertEquals(InputSource.TICK, second.next(tick));
+        assertEquals(3f, tick[0]);
+        assertEquals(4f, tick[1]);
+        assertEquals(InputSource.END, second.next(tick));
+        assertEquals(InputSource.END, second.next(tick));
+    }
+
+    /**
+     * Streams that aren't logs, or are cut short, or claim more bytes than
+     * their ticks could take, fail without allocating what they claim.
+     *
+     * @throws IOException never
+     */
+    public void testCorrupt() throws IOException {
+        append(1, 1);
+        append(-1, 1);
+        byte[] good = write(mLog);
+
+        byte[] magic = good.clone();
+        magic[0] ^= 1;
+        assertFails(magic);
+        byte[] version = good.clone();
+        version[7] = 1;
+        assertFails(version);
+        assertFails(Arrays.copyOf(good, good.length - 1));
+
+        // Two ticks that claim 2 GB, or fewer bytes than two ticks take
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.write(good, 0, 16);
+        out.writeInt(2);
+        out.writeInt(Integer.MAX_VALUE);
+        assertFails(bytes.toByteArray());
+        bytes.reset();
+        out.write(good, 0, 16);
+        out.writeInt(2);
+        out.writeInt(3);
+        out.write(good, 24, 3);
+        assertFails(bytes.toByteArray());
+        bytes.reset();
+        out.write(good, 0, 16);
+        out.writeInt(1 << 28);
+        out.writeInt(Integer.MAX_VALUE);
+        try {
+            InputLog.readFrom(new ByteArrayInputStream(bytes.toByteArray()));
+            fail("Read a log that was cut short");
+        } catch (EOFException expected) {
+            // Ran out of bytes rather than memory
+        }
+    }
+
+    /**
+     * Appends a tick to the log, and what it should give back.
+     *
+     * @param x x velocity
+     * @param y y velocity
+     */
+    private void append(float x, float y) {
+        x = InputLog.quantize(x);
+        y = InputLog.quantize(y);
+        mLog.append(x, y);
+        if (mExpected.length < ((mTicks + 1) * 3)) {
+            mExpected = Arrays.copyOf(mExpected, Math.max(mExpected.length * 2, 3));
+        }
+        mExpected[(mTicks * 3) + 0] = x;
+        mExpected[(mTicks * 3) + 1] = y;
+        mTicks++;
+    }
+
+    /**
+     * Starts the level over before the next tick appended.
+     */
+    private void reset() {
+        mLog.appendReset();
+        if (mExpected.length < ((mTicks + 1) * 3)) {
+            mExpected = Arrays.copyOf(mExpected, Math.max(mExpected.length * 2, 3));
+        }
+        mExpected[(mTicks * 3) + 2] = 1;
+    }
+
+    /**
+     * Checks that a log gives back every tick that was appended.
+     *
+     * @param log the log
+     */
+    private void check(InputLog log) {
+        assertEquals(mTicks, log.size());
+        InputLog.Reader reader = log.reader();
+        float[] tick = new float[2];
+        for (int i = 0; i < mTicks; i++) {
+            int next = reader.next(tick);
+            if (mExpected[(i * 3) + 2] != 0) {
+                assertEquals("Tick " + i, InputSource.RESET, next);
+                next = reader.next(tick);
+            }
+            assertEquals("Tick " + i, InputSource.TICK, next);
+            assertEquals("Tick " + i, mExpected[i * 3], tick[0]);
+            assertEquals("Tick " + i, mExpected[(i * 3) + 1], tick[1]);
+        }
+        assertEquals(InputSource.END, reader.next(tick));
+    }
+
+    /**
+     * Writes a log and reads it back.
+     *
+     * @param log the log
+     * @return the log that was read
+     * @throws IOException never
+     */
+    private static InputLog roundTrip(InputLog log) throws IOException {
+        return InputLog.readFrom(new ByteArrayInputStream(write(log)));
+    }
+
+    /**
+     * Writes a log.
+     *
+     * @param log the log
+     * @return what was written
+     * @throws IOException never
+     */
+    private static byte[] write(InputLog log) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        log.writeTo(out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Checks that reading a log fails.
+     *
+     * @param bytes what to read
+     */
+    private static void assertFails(byte[] bytes) {
+        try {
+            InputLog.readFrom(new ByteArrayInputStream(bytes));
+            fail("Read a corrupt log");
+        } catch (IOException expected) {
+            // Good
+        }
+    }
+}
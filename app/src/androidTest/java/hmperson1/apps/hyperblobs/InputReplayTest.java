@@ -0,0 +1,85 @@
+package hmperson1.apps.hyperblobs;
+
+import android.test.AndroidTestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Fails if a recorded session doesn't replay exactly. Records the input of a
+ * {@link LevelUpdater} as it plays, with deaths and a restart, writes it out
+ * and reads it back, replays it with a {@link HeadlessRunner}, and compares
+ * where everything ended up, bit for bit.
+ *
+ * @author HMPerson1
+ */
+public class InputReplayTest extends AndroidTestCase {
+
+    /**
+     * Ticks played.
+     */
+    private static final int TICKS = 3000;
+    /**
+     * Tick on which the level is started over on purpose.
+     */
+    private static final int RESTART_TICK = 1000;
+    /**
+     * The level being played.
+     */
+    private LevelState mLevel;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        LevelLoader.init(getContext().getResources());
+        TextureCache.init(getContext().getResources());
+        mLevel = new LevelLoader(1, 1).call();
+    }
+
+    /**
+     * Plays and records a session, then replays it and checks that it ends
+     * in the same place.
+     *
+     * @throws Exception if the replay was interrupted
+     */
+    public void testReplayEndsWhereSessionDid() throws Exception {
+        LevelUpdater updater = new LevelUpdater(mLevel, true);
+        InputLog recording = new InputLog(1, 1);
+        updater.setRecording(recording);
+        for (int i = 0; i < TICKS; i++) {
+            if (i == RESTART_TICK) {
+                updater.restart();
+            }
+            double t = i / 60.0;
+            // Tilts that don't land on a quantization step
+            updater.setMotion((float) (20 * Math.sin(t)), (float) (20 * Math.cos(t * 0.7)));
+            updater.tick();
+        }
+        byte[] session = updater.snapshot();
+        updater.release();
+        assertEquals(TICKS, recording.size());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        recording.writeTo(out);
+        InputLog log = InputLog.readFrom(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(1, log.getMajor());
+        assertEquals(1, log.getMinor());
+
+        HeadlessRunner runner = new HeadlessRunner(mLevel, log.reader()).setStopOnDeath(false);
+        try {
+            HeadlessRunner.Result result = runner.run();
+            assertEquals(HeadlessRunner.reasonName(HeadlessRunner.STOP_INPUT), HeadlessRunner.reasonName(result.reason));
+            assertEquals(TICKS, result.ticks);
+
+            ByteBuffer replay = ByteBuffer.allocate(runner.snapshotSize());
+            runner.save(replay);
+            int start = LevelSnapshot.levelSize(mLevel);
+            byte[] expected = Arrays.copyOfRange(session, start, start + runner.snapshotSize());
+            assertTrue("Replay ended somewhere else", Arrays.equals(expected, replay.array()));
+        } finally {
+            runner.release();
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package hmperson1.apps.hyperblobs;
+
+import junit.framework.TestCase;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Checks that putting the world back with {@link LevelPhysicsUpdater#reset()}
+ * or {@link LevelPhysicsUpdater#restore} leaves things touching that were
+ * touching, even when nothing moved far.
+ *
+ * @author HMPerson1
+ */
+public class LevelPhysicsUpdaterTest extends TestCase {
+
+    /**
+     * Where the blob starts, resting on the floor.
+     */
+    private static final int BLOB_X = 200, BLOB_Y = 70;
+    /**
+     * Top of the floor.
+     */
+    private static final int FLOOR_TOP = 40;
+    /**
+     * Ticks to push the blob into the floor for.
+     */
+    private static final int PUSH_TICKS = 60;
+    /**
+     * How far the blob may sink into the floor, in pixels.
+     */
+    private static final int SLOP = 2;
+    /**
+     * The updater being tested.
+     */
+    private LevelPhysicsUpdater mPhysics;
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (mPhysics != null) {
+            mPhysics.release();
+        }
+        super.tearDown();
+    }
+
+    /**
+     * The blob still rests on the floor after a reset, where it hadn't
+     * moved from.
+     */
+    public void testResetKeepsBlobOnFloor() {
+        mPhysics = new LevelPhysicsUpdater(level(false), LevelUpdater.LENGTH);
+        pushDown();
+        mPhysics.reset();
+        pushDown();
+    }
+
+    /**
+     * The blob still rests on the floor after being restored to where it was
+     * a few ticks before.
+     */
+    public void testRestoreKeepsBlobOnFloor() {
+        mPhysics = new LevelPhysicsUpdater(level(false), LevelUpdater.LENGTH);
+        pushDown();
+        ByteBuffer saved = ByteBuffer.allocate(mPhysics.snapshotSize());
+        mPhysics.save(saved);
+        int ticks = mPhysics.getTicks();
+        pushDown();
+        saved.flip();
+        mPhysics.restore(saved);
+        assertEquals(ticks, mPhysics.getTicks());
+        pushDown();
+    }
+
+    /**
+     * The blob still rests on the floor after being restored from a capture,
+     * as rewinding does.
+     */
+    public void testRestoreCaptureKeepsBlobOnFloor() {
+        mPhysics = new LevelPhysicsUpdater(level(false), LevelUpdater.LENGTH);
+        pushDown();
+        int[] captured = new int[mPhysics.captureSize()];
+        mPhysics.capture(captured);
+        mPhysics.setBlobVelocity(0, -5);
+        mPhysics.run();
+        mPhysics.restore(captured);
+        pushDown();
+    }
+
+    /**
+     * A blob that starts on a spike dies again right after a reset, even
+     * though neither of them went far.
+     */
+    public void testResetDiesOnSpikeAgain() {
+        mPhysics = new LevelPhysicsUpdater(level(true), LevelUpdater.LENGTH);
+        mPhysics.run();
+        assertTrue(mPhysics.isBlobDead());
+        mPhysics.reset();
+        assertFalse(mPhysics.isBlobDead());
+        mPhysics.run();
+        assertTrue(mPhysics.isBlobDead());
+    }
+
+    /**
+     * Pushes the blob into the floor for a while and checks that it doesn't
+     * go in.
+     */
+    private void pushDown() {
+        for (int i = 0; i < PUSH_TICKS; i++) {
+            mPhysics.setBlobVelocity(0, -5);
+            mPhysics.run();
+            int bottom = mPhysics.getState().getBlobY() - LevelUpdater.BLOB_RADIUS;
+            assertTrue("Blob sank to " + bottom + " on tick " + mPhysics.getTicks(),
+                    bottom >= (FLOOR_TOP - SLOP));
+        }
+    }
+
+    /**
+     * Builds a level with a floor and the blob resting on it.
+     *
+     * @param spike whether or not to put a spike touching the blob
+     * @return the level
+     */
+    private static LevelState level(boolean spike) {
+        LevelState.Builder builder = new LevelState.Builder()
+                .addWall(LevelUpdater.LENGTH / 2, FLOOR_TOP / 2, LevelUpdater.LENGTH / 2, FLOOR_TOP / 2)
+                .setBlob(BLOB_X, BLOB_Y);
+        if (spike) {
+            builder.addSpike(BLOB_X + LevelUpdater.BLOB_RADIUS + LevelUpdater.SPIKE_RADIUS - 2,
+                    FLOOR_TOP + LevelUpdater.SPIKE_RADIUS);
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,65 @@
+package hmperson1.apps.hyperblobs;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks that the spike index of a {@link LevelState} finds spikes where they
+ * are in that state, including states that are refilled as the spikes get
+ * knocked around.
+ *
+ * @author HMPerson1
+ */
+public class LevelStateTest extends TestCase {
+
+    /**
+     * The level as loaded, with spikes along the floor.
+     */
+    private LevelState mLevel;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mLevel = new LevelState.Builder()
+                .addWall(LevelUpdater.LENGTH / 2, 0, LevelUpdater.LENGTH / 2, 1)
+                .addSpike(100, 30)
+                .addSpike(300, 30)
+                .addSpike(500, 30)
+                .setBlob(50, 50)
+                .build();
+    }
+
+    /**
+     * The level as loaded finds each spike where it starts.
+     */
+    public void testLoadedLevel() {
+        SpatialGrid index = mLevel.getSpikeIndex();
+        int[] out = new int[3];
+        assertEquals(1, index.queryPoint(300, 30, out));
+        assertEquals(1, out[0]);
+        assertEquals(0, index.queryPoint(200, 30, out));
+        assertSame(index, mLevel.getSpikeIndex());
+    }
+
+    /**
+     * A refilled state finds spikes where they are now, not where they were
+     * or where they started.
+     */
+    public void testRefilledState() {
+        LevelState state = new LevelState(mLevel, 3);
+        state.setSpike(0, 100, 30);
+        state.setSpike(1, 300, 30);
+        state.setSpike(2, 500, 30);
+        int[] out = new int[3];
+        assertEquals(1, state.getSpikeIndex().queryPoint(300, 30, out));
+
+        // Knocked over to the right
+        state.setSpike(1, 700, 200);
+        SpatialGrid index = state.getSpikeIndex();
+        assertEquals(0, index.queryPoint(300, 30, out));
+        assertEquals(1, index.queryPoint(700, 200, out));
+        assertEquals(1, out[0]);
+        assertEquals(1, index.nearest(650, 200));
+        // The level as loaded still has it where it started
+        assertEquals(1, mLevel.getSpikeIndex().queryPoint(300, 30, out));
+    }
+}
@@ -0,0 +1,210 @@
+package hmperson1.apps.hyperblobs;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Checks that a {@link RewindBuffer} gives back exactly the frames that were
+ * recorded, as the ring wraps around and the oldest frames are dropped to
+ * make room, and after going back in time and recording on from there. Uses
+ * made up frames rather than a world, so it is pure Java; nothing Android is
+ * needed.
+ *
+ * @author HMPerson1
+ */
+public class RewindBufferTest extends TestCase {
+
+    /**
+     * Number of moving bodies in each frame.
+     */
+    private static final int BODIES = 6;
+    /**
+     * Number of values in each frame.
+     */
+    private static final int FRAME_SIZE = LevelPhysicsUpdater.CAPTURE_HEADER + (BODIES * LevelPhysicsUpdater.CAPTURE_BODY);
+    /**
+     * Frames from one keyframe to the next.
+     */
+    private static final int KEY_INTERVAL = 7;
+    /**
+     * Every frame made so far, by frame number.
+     */
+    private int[][] mHistory;
+    /**
+     * Source of the frames, seeded so that failures can be reproduced.
+     */
+    private Random mRandom;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mHistory = new int[0][];
+        mRandom = new Random(7);
+    }
+
+    /**
+     * With room for plenty of bytes, the frame count limits what is kept,
+     * and every kept frame comes back exactly.
+     */
+    public void testWrapByFrames() {
+        RewindBuffer buffer = new RewindBuffer(FRAME_SIZE, 50, 1 << 20, KEY_INTERVAL);
+        for (int i = 0; i < 1000; i++) {
+            record(buffer, i);
+            assertTrue(buffer.getEnd() - buffer.getOldest() <= 50);
+            // Only ever whole runs of frames from a keyframe are dropped
+            assertTrue(buffer.getEnd() - buffer.getOldest() >= Math.min(i + 1, 50 - KEY_INTERVAL));
+            if ((i % 37) == 0) {
+                checkAll(buffer);
+            }
+        }
+        checkAll(buffer);
+    }
+
+    /**
+     * With little room for bytes, the oldest frames are dropped as the ring
+     * wraps around many times, and every kept frame still comes back
+     * exactly.
+     */
+    public void testWrapByBytes() {
+        RewindBuffer buffer = new RewindBuffer(FRAME_SIZE, 1000, 2000, KEY_INTERVAL);
+        for (int i = 0; i < 5000; i++) {
+            record(buffer, i);
+            assertTrue(buffer.getBytesUsed() < 2000);
+            assertTrue(buffer.getEnd() > buffer.getOldest());
+            if ((i % 101) == 0) {
+                checkAll(buffer);
+            }
+        }
+        assertTrue("Ring never wrapped", buffer.getOldest() > 500);
+        checkAll(buffer);
+    }
+
+    /**
+     * Going back gives exactly the frame recorded that many frames ago, and
+     * recording carries on from it, over and over as the ring wraps.
+     */
+    public void testRewind() {
+        RewindBuffer buffer = new RewindBuffer(FRAME_SIZE, 200, 3000, KEY_INTERVAL);
+        int[] out = new int[FRAME_SIZE];
+        for (int round = 0; round < 200; round++) {
+            int frames = mRandom.nextInt(60) + 1;
+            for (int i = 0; i < frames; i++) {
+                record(buffer, buffer.getEnd());
+            }
+            int back = mRandom.nextInt(40);
+            int oldest = buffer.getOldest();
+            int end = buffer.getEnd();
+            if ((end - oldest) < 2) {
+                assertFalse(buffer.rewind(back, out));
+                continue;
+            }
+            assertTrue(buffer.rewind(back, out));
+            int target = Math.max(end - 1 - back, oldest);
+            assertEquals(Arrays.toString(mHistory[target]), Arrays.toString(out));
+            assertEquals(target + 1, buffer.getEnd());
+            assertEquals(oldest, buffer.getOldest());
+        }
+        checkAll(buffer);
+    }
+
+    /**
+     * Going back further than anything kept stops at the oldest frame, and
+     * with fewer than two frames there is nothing to go back to.
+     */
+    public void testRewindLimits() {
+        RewindBuffer buffer = new RewindBuffer(FRAME_SIZE, 20, 1 << 16, KEY_INTERVAL);
+        int[] out = new int[FRAME_SIZE];
+        assertFalse(buffer.rewind(1, out));
+        record(buffer, 0);
+        assertFalse(buffer.rewind(1, out));
+        for (int i = 1; i < 100; i++) {
+            record(buffer, i);
+        }
+        int oldest = buffer.getOldest();
+        assertTrue(buffer.rewind(1000, out));
+        assertEquals(Arrays.toString(mHistory[oldest]), Arrays.toString(out));
+        assertEquals(oldest + 1, buffer.getEnd());
+        assertFalse(buffer.rewind(1, out));
+
+        buffer.clear();
+        assertEquals(0, buffer.getBytesUsed());
+        assertEquals(buffer.getOldest(), buffer.getEnd());
+        assertFalse(buffer.rewind(1, out));
+    }
+
+    /**
+     * Frames that can't be decoded anymore, or weren't recorded yet, aren't
+     * given back.
+     */
+    public void testRestoreOutOfRange() {
+        RewindBuffer buffer = new RewindBuffer(FRAME_SIZE, 10, 1 << 16, KEY_INTERVAL);
+        for (int i = 0; i < 30; i++) {
+            record(buffer, i);
+        }
+        int[] out = new int[FRAME_SIZE];
+        try {
+            buffer.restore(buffer.getOldest() - 1, out);
+            fail("Restored a dropped frame");
+        } catch (IndexOutOfBoundsException expected) {
+            // Good
+        }
+        try {
+            buffer.restore(buffer.getEnd(), out);
+            fail("Restored a frame from the future");
+        } catch (IndexOutOfBoundsException expected) {
+            // Good
+        }
+    }
+
+    /**
+     * Makes up a frame, records it, and remembers it.
+     *
+     * @param buffer the buffer
+     * @param frame  number the frame will have
+     */
+    private void record(RewindBuffer buffer, int frame) {
+        int[] values = new int[FRAME_SIZE];
+        if (frame > 0) {
+            System.arraycopy(mHistory[frame - 1], 0, values, 0, FRAME_SIZE);
+        }
+        values[0] = frame;
+        values[1] = mRandom.nextInt(50) == 0 ? 1 : 0;
+        for (int body = 0; body < BODIES; body++) {
+            int start = LevelPhysicsUpdater.CAPTURE_HEADER + (body * LevelPhysicsUpdater.CAPTURE_BODY);
+            int kind = mRandom.nextInt(10);
+            if (kind < 4) {
+                // Asleep: nothing changes
+                continue;
+            }
+            for (int i = start; i < (start + LevelPhysicsUpdater.CAPTURE_BODY); i++) {
+                if (kind < 9) {
+                    // Moving smoothly
+                    values[i] += mRandom.nextInt(401) - 200;
+                } else {
+                    // Teleported, by as much as an int can change
+                    values[i] = (mRandom.nextInt(3) == 0) ? Integer.MIN_VALUE : mRandom.nextInt();
+                }
+            }
+        }
+        if (mHistory.length <= frame) {
+            mHistory = Arrays.copyOf(mHistory, Math.max(mHistory.length * 2, frame + 1));
+        }
+        mHistory[frame] = values;
+        buffer.record(values);
+    }
+
+    /**
+     * Checks that every frame kept comes back exactly as recorded.
+     *
+     * @param buffer the buffer
+     */
+    private void checkAll(RewindBuffer buffer) {
+        int[] out = new int[FRAME_SIZE];
+        for (int frame = buffer.getOldest(); frame < buffer.getEnd(); frame++) {
+            buffer.restore(frame, out);
+            assertEquals("Frame " + frame, Arrays.toString(mHistory[frame]), Arrays.toString(out));
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package hmperson1.apps.hyperblobs;
+
+import android.test.AndroidTestCase;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Checks that a snapshot taken by {@link LevelUpdater#snapshot()} puts the
+ * world back as it was: the level read back is the one written, an updater
+ * made from a snapshot takes the same snapshot again, and a world restored
+ * from one carries on the way the original does.
+ *
+ * @author HMPerson1
+ */
+public class SnapshotTest extends AndroidTestCase {
+
+    /**
+     * Ticks played before the snapshot is taken.
+     */
+    private static final int TICKS = 400;
+    /**
+     * Ticks both worlds are run for after restoring.
+     */
+    private static final int AFTER_TICKS = 60;
+    /**
+     * How far apart the blobs may end up, in pixels. A restored world starts
+     * without the contact impulses the original carried over from earlier
+     * ticks, so the two can drift a little.
+     */
+    private static final int SLOP = 3;
+    /**
+     * The level being played.
+     */
+    private LevelState mLevel;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        LevelLoader.init(getContext().getResources());
+        TextureCache.init(getContext().getResources());
+        mLevel = new LevelLoader(1, 1).call();
+    }
+
+    /**
+     * The level read back has the same walls, spikes and blob, and writes
+     * the same bytes.
+     */
+    public void testLevelRoundTrip() {
+        ByteBuffer out = ByteBuffer.allocate(LevelSnapshot.levelSize(mLevel));
+        LevelSnapshot.writeLevel(out, mLevel);
+        assertEquals(0, out.remaining());
+        out.flip();
+        LevelState level = LevelSnapshot.readLevel(out);
+        assertEquals(mLevel.getWalls(), level.getWalls());
+        assertEquals(mLevel.getSpikes(), level.getSpikes());
+        assertEquals(mLevel.getBlob(), level.getBlob());
+
+        ByteBuffer again = ByteBuffer.allocate(LevelSnapshot.levelSize(level));
+        LevelSnapshot.writeLevel(again, level);
+        assertTrue(Arrays.equals(out.array(), again.array()));
+    }
+
+    /**
+     * An updater made from a snapshot takes exactly the same snapshot.
+     */
+    public void testUpdaterRoundTrip() {
+        LevelUpdater updater = new LevelUpdater(mLevel, true);
+        byte[] snapshot;
+        try {
+            for (int i = 0; i < TICKS; i++) {
+                updater.setMotion(tiltX(i), tiltY(i));
+                updater.tick();
+            }
+            // Input waiting for the next tick is kept too
+            updater.setMotion(3, -4);
+            snapshot = updater.snapshot();
+        } finally {
+            updater.release();
+        }
+        LevelUpdater restored = LevelUpdater.fromSnapshot(snapshot);
+        try {
+            assertTrue("Snapshot changed", Arrays.equals(snapshot, restored.snapshot()));
+        } finally {
+            restored.release();
+        }
+    }
+
+    /**
+     * A world restored from a save is saved the same way, and carries on to
+     * nearly the same place as the world it was saved from.
+     */
+    public void testRestoreCarriesOn() {
+        LevelPhysicsUpdater original = new LevelPhysicsUpdater(mLevel, LevelUpdater.LENGTH, false, true);
+        LevelPhysicsUpdater restored = new LevelPhysicsUpdater(mLevel, LevelUpdater.LENGTH, false, true);
+        try {
+            for (int i = 0; i < TICKS; i++) {
+                original.setBlobVelocity(tiltX(i), tiltY(i));
+                original.run();
+            }
+            ByteBuffer saved = ByteBuffer.allocate(original.snapshotSize());
+            original.save(saved);
+            saved.flip();
+            restored.restore(saved);
+            ByteBuffer resaved = ByteBuffer.allocate(restored.snapshotSize());
+            restored.save(resaved);
+            assertTrue("Save changed", Arrays.equals(saved.array(), resaved.array()));
+
+            for (int i = TICKS; i < (TICKS + AFTER_TICKS); i++) {
+                original.setBlobVelocity(tiltX(i), tiltY(i));
+                original.run();
+                restored.setBlobVelocity(tiltX(i), tiltY(i));
+                restored.run();
+                assertEquals(original.getTicks(), restored.getTicks());
+                assertEquals("Tick " + i, original.isBlobDead(), restored.isBlobDead());
+                LevelState a = original.getState();
+                LevelState b = restored.getState();
+                assertTrue("Tick " + i + ": blob at " + b.getBlobX() + "," + b.getBlobY()
+                                + " instead of " + a.getBlobX() + "," + a.getBlobY(),
+                        (Math.abs(a.getBlobX() - b.getBlobX()) <= SLOP)
+                                && (Math.abs(a.getBlobY() - b.getBlobY()) <= SLOP));
+            }
+        } finally {
+            original.release();
+            restored.release();
+        }
+    }
+
+    /**
+     * Snapshots that aren't snapshots, or are cut short, are turned down.
+     */
+    public void testRejectsBadSnapshots() {
+        LevelUpdater updater = new LevelUpdater(mLevel, true);
+        byte[] snapshot;
+        try {
+            updater.tick();
+            snapshot = updater.snapshot();
+        } finally {
+            updater.release();
+        }
+        byte[] magic = snapshot.clone();
+        magic[0] ^= 1;
+        assertRejected(magic);
+        assertRejected(Arrays.copyOf(snapshot, snapshot.length - 1));
+        assertRejected(Arrays.copyOf(snapshot, 6));
+    }
+
+    /**
+     * Checks that making an updater from a snapshot fails.
+     *
+     * @param snapshot the snapshot
+     */
+    private static void assertRejected(byte[] snapshot) {
+        try {
+            LevelUpdater.fromSnapshot(snapshot).release();
+            fail("Restored a bad snapshot");
+        } catch (IllegalArgumentException expected) {
+            // Good
+        }
+    }
+
+    /**
+     * Returns the x velocity to tilt with on a tick.
+     *
+     * @param tick the tick
+     * @return the velocity
+     */
+    private static float tiltX(int tick) {
+        return (float) (15 * Math.sin(tick / 40.0));
+    }
+
+    /**
+     * Returns the y velocity to tilt with on a tick.
+     *
+     * @param tick the tick
+     * @return the velocity
+     */
+    private static float tiltY(int tick) {
+        return (float) (15 * Math.cos(tick / 55.0));
+    }
+}
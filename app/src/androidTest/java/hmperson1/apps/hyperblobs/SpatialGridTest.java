@@ -0,0 +1,238 @@
+package hmperson1.apps.hyperblobs;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Checks every query of {@link SpatialGrid} against going through every box,
+ * on random boxes spread out like a long level. Pure Java; nothing Android is
+ * needed.
+ *
+ * @author HMPerson1
+ */
+public class SpatialGridTest extends TestCase {
+
+    /**
+     * Number of boxes.
+     */
+    private static final int BOXES = 1000;
+    /**
+     * Number of queries of each kind.
+     */
+    private static final int QUERIES = 2000;
+    /**
+     * Bounds of each box: min x, min y, max x, max y.
+     */
+    private int[] mBounds;
+    /**
+     * Grid over {@code mBounds}.
+     */
+    private SpatialGrid mGrid;
+    /**
+     * Source of query points, seeded so that failures can be reproduced.
+     */
+    private Random mRandom;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mRandom = new Random(3);
+        mBounds = new int[BOXES * 4];
+        for (int i = 0; i < BOXES; i++) {
+            int x = mRandom.nextInt(20000) - 500;
+            int y = mRandom.nextInt(2000) - 100;
+            mBounds[(i * 4) + 0] = x;
+            mBounds[(i * 4) + 1] = y;
+            mBounds[(i * 4) + 2] = x + mRandom.nextInt(60) + 2;
+            mBounds[(i * 4) + 3] = y + mRandom.nextInt(60) + 2;
+        }
+        mGrid = new SpatialGrid(mBounds, BOXES, SpatialGrid.chooseCellSize(mBounds, BOXES));
+    }
+
+    /**
+     * Region queries find exactly the boxes that overlap the region.
+     */
+    public void testQuery() {
+        int[] out = new int[BOXES];
+        for (int q = 0; q < QUERIES; q++) {
+            int minX = randomX(), minY = randomY();
+            int maxX = minX + mRandom.nextInt(300);
+            int maxY = minY + mRandom.nextInt(300);
+            int found = mGrid.query(minX, minY, maxX, maxY, out);
+            int[] expected = new int[BOXES];
+            int count = 0;
+            for (int i = 0; i < BOXES; i++) {
+                if (overlaps(i, minX, minY, maxX, maxY)) {
+                    expected[count++] = i;
+                }
+            }
+            assertEquals(Arrays.toString(Arrays.copyOf(expected, count)), sorted(out, found));
+        }
+    }
+
+    /**
+     * Point queries find exactly the boxes that contain the point, edges
+     * included.
+     */
+    public void testQueryPoint() {
+        int[] out = new int[BOXES];
+        for (int q = 0; q < QUERIES; q++) {
+            // Half of them right on a corner
+            int x, y;
+            if ((q % 2) == 0) {
+                int box = mRandom.nextInt(BOXES);
+                x = mBounds[(box * 4) + 2];
+                y = mBounds[(box * 4) + 1];
+            } else {
+                x = randomX();
+                y = randomY();
+            }
+            int found = mGrid.queryPoint(x, y, out);
+            int[] expected = new int[BOXES];
+            int count = 0;
+            for (int i = 0; i < BOXES; i++) {
+                if (overlaps(i, x, y, x, y)) {
+                    expected[count++] = i;
+                }
+            }
+            assertEquals(Arrays.toString(Arrays.copyOf(expected, count)), sorted(out, found));
+        }
+    }
+
+    /**
+     * The nearest box is as near as the nearest of all of them, even from far
+     * outside the grid.
+     */
+    public void testNearest() {
+        for (int q = 0; q < QUERIES; q++) {
+            int x = randomX() * ((q % 10 == 0) ? 3 : 1);
+            int y = randomY() * ((q % 10 == 0) ? 3 : 1);
+            float expected = Float.MAX_VALUE;
+            for (int i = 0; i < BOXES; i++) {
+                expected = Math.min(expected, mGrid.distance(i, x, y));
+            }
+            int nearest = mGrid.nearest(x, y);
+            assertTrue(nearest >= 0);
+            assertEquals(expected, mGrid.distance(nearest, x, y), 1e-3f);
+        }
+    }
+
+    /**
+     * Rays hit the same box, at the same distance, as checking every box
+     * would, including rays along an axis.
+     */
+    public void testRaycast() {
+        float[] hit = new float[1];
+        for (int q = 0; q < QUERIES; q++) {
+            int x = randomX(), y = randomY();
+            double angle = mRandom.nextDouble() * Math.PI * 2;
+            float dx = (float) Math.cos(angle);
+            float dy = ((q % 10) == 0) ? 0 : (float) Math.sin(angle);
+            float maxT = mRandom.nextInt(3000);
+            float expected = Float.MAX_VALUE;
+            for (int i = 0; i < BOXES; i++) {
+                expected = Math.min(expected, hitTime(i, x, y, dx, dy, maxT));
+            }
+            int box = mGrid.raycast(x, y, dx, dy, maxT, hit);
+            if (expected == Float.MAX_VALUE) {
+                assertEquals(-1, box);
+            } else {
+                assertTrue(box >= 0);
+                assertEquals(expected, hit[0], 1e-3f);
+                assertEquals(expected, hitTime(box, x, y, dx, dy, maxT), 1e-3f);
+            }
+        }
+    }
+
+    /**
+     * An empty grid finds nothing.
+     */
+    public void testEmpty() {
+        SpatialGrid grid = new SpatialGrid(new int[0], 0, SpatialGrid.chooseCellSize(new int[0], 0));
+        assertEquals(0, grid.query(-100, -100, 100, 100, new int[0]));
+        assertEquals(0, grid.queryPoint(0, 0, new int[0]));
+        assertEquals(-1, grid.nearest(0, 0));
+        assertEquals(-1, grid.raycast(0, 0, 1, 0, 100, null));
+    }
+
+    /**
+     * Returns a random x coordinate, a bit past either end of the boxes.
+     *
+     * @return the coordinate
+     */
+    private int randomX() {
+        return mRandom.nextInt(22000) - 1500;
+    }
+
+    /**
+     * Returns a random y coordinate, a bit past either end of the boxes.
+     *
+     * @return the coordinate
+     */
+    private int randomY() {
+        return mRandom.nextInt(3000) - 500;
+    }
+
+    /**
+     * Checks whether a box overlaps a region, edges included.
+     *
+     * @param i    index of the box
+     * @param minX left edge of the region
+     * @param minY bottom edge of the region
+     * @param maxX right edge of the region
+     * @param maxY top edge of the region
+     * @return whether or not they overlap
+     */
+    private boolean overlaps(int i, int minX, int minY, int maxX, int maxY) {
+        return (mBounds[(i * 4) + 0] <= maxX) && (mBounds[(i * 4) + 2] >= minX)
+                && (mBounds[(i * 4) + 1] <= maxY) && (mBounds[(i * 4) + 3] >= minY);
+    }
+
+    /**
+     * Works out where a ray first touches a box.
+     *
+     * @param i    index of the box
+     * @param x    x coordinate of the start of the ray
+     * @param y    y coordinate of the start of the ray
+     * @param dx   x component of the direction of the ray
+     * @param dy   y component of the direction of the ray
+     * @param maxT length of the ray, in multiples of its direction
+     * @return how far along the ray it touches, or {@link Float#MAX_VALUE} if
+     * it doesn't
+     */
+    private float hitTime(int i, float x, float y, float dx, float dy, float maxT) {
+        float near = 0, far = maxT;
+        float[] start = {x, y};
+        float[] dir = {dx, dy};
+        for (int axis = 0; axis < 2; axis++) {
+            float min = mBounds[(i * 4) + axis];
+            float max = mBounds[(i * 4) + 2 + axis];
+            if (dir[axis] == 0) {
+                if ((start[axis] < min) || (start[axis] > max)) {
+                    return Float.MAX_VALUE;
+                }
+            } else {
+                float t0 = (min - start[axis]) / dir[axis];
+                float t1 = (max - start[axis]) / dir[axis];
+                near = Math.max(near, Math.min(t0, t1));
+                far = Math.min(far, Math.max(t0, t1));
+            }
+        }
+        return (near <= far) ? near : Float.MAX_VALUE;
+    }
+
+    /**
+     * Sorts what a query found, for comparing.
+     *
+     * @param out   indices from the query
+     * @param found number of indices
+     * @return the sorted indices
+     */
+    private static String sorted(int[] out, int found) {
+        int[] copy = Arrays.copyOf(out, found);
+        Arrays.sort(copy);
+        return Arrays.toString(copy);
+    }
+}
@@ -0,0 +1,183 @@
+package hmperson1.apps.hyperblobs;
+
+import android.graphics.Point;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+
+import java.util.List;
+
+/**
+ * Fails if updating a level allocates once it has warmed up. Garbage made
+ * every tick leads to collections, which stutter on older devices. Runs the
+ * update loop headlessly, without its pacing, and measures with the
+ * per-thread allocation counters.
+ *
+ * @author HMPerson1
+ */
+public class SteadyStateAllocationTest extends AndroidTestCase {
+
+    /**
+     * Ticks run before measuring, to fill pools and grow buffers.
+     */
+    private static final int WARMUP_TICKS = 600;
+    /**
+     * Ticks measured.
+     */
+    private static final int MEASURED_TICKS = 5000;
+    /**
+     * Most bytes allowed per tick, on average. A little slack for buffers
+     * deep inside JBox2D that still grow now and then.
+     */
+    private static final int MAX_BYTES_PER_TICK = 16;
+    /**
+     * Number of call sites reported when the test fails.
+     */
+    private static final int REPORTED_SITES = 5;
+    /**
+     * Call sites measured separately when the test fails. They are picked by
+     * hand and don't cover everything a tick does, such as the rewind buffer
+     * or the ghost.
+     */
+    private static final String[] SITES = {
+            "LevelUpdater.UserInput.run",
+            "LevelPhysicsUpdater.setBlobVelocity",
+            "LevelPhysicsUpdater.run",
+            "LevelDrawer.setState",
+            "LevelPhysicsUpdater.recycle",
+            "LevelState getters",
+    };
+    /**
+     * The level being updated.
+     */
+    private LevelState mLevel;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        LevelLoader.init(getContext().getResources());
+        TextureCache.init(getContext().getResources());
+        mLevel = new LevelLoader(1, 1).call();
+        Debug.startAllocCounting();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Debug.stopAllocCounting();
+        super.tearDown();
+    }
+
+    /**
+     * Runs the update loop and checks how much it allocated.
+     */
+    public void testTickDoesNotAllocate() {
+        LevelUpdater updater = new LevelUpdater(mLevel);
+        try {
+            for (int i = 0; i < WARMUP_TICKS; i++) {
+                steer(updater, i);
+                updater.tick();
+            }
+
+            Debug.resetThreadAllocSize();
+            for (int i = 0; i < MEASURED_TICKS; i++) {
+                steer(updater, WARMUP_TICKS + i);
+                updater.tick();
+            }
+            long perTick = (long) Debug.getThreadAllocSize() / MEASURED_TICKS;
+
+            if (perTick > MAX_BYTES_PER_TICK) {
+                fail("Updating allocates " + perTick + " bytes per tick, more than " + MAX_BYTES_PER_TICK
+                        + ". Top call sites, out of only the hand-picked groups of calls below; if they"
+                        + " don't add up to it, the rest is allocated somewhere else in the tick:\n"
+                        + topSites(updater));
+            }
+        } finally {
+            updater.release();
+        }
+    }
+
+    /**
+     * Moves the blob around in a fixed pattern, so that it runs into things.
+     *
+     * @param updater the updater
+     * @param tick    number of the tick
+     */
+    private static void steer(LevelUpdater updater, int tick) {
+        double t = tick / 60.0;
+        updater.setMotion((float) (20 * Math.sin(t)), (float) (20 * Math.cos(t * 0.7)));
+    }
+
+    /**
+     * Does much of what a tick does, one group of calls at a time, and lists
+     * the groups that allocated the most.
+     *
+     * @param updater updater to take the input from
+     * @return one line per call site, most bytes first
+     */
+    private String topSites(LevelUpdater updater) {
+        LevelPhysicsUpdater physics = new LevelPhysicsUpdater(mLevel, LevelUpdater.LENGTH, true);
+        LevelDrawer drawer = new LevelDrawer(new RecordingGLBackend());
+        long[] bytes = new long[SITES.length];
+        int checksum = 0;
+        try {
+            for (int i = 0; i < (WARMUP_TICKS + MEASURED_TICKS); i++) {
+                boolean measured = i >= WARMUP_TICKS;
+                steer(updater, i);
+
+                long before = Debug.getThreadAllocSize();
+                updater.input.run();
+                before = count(bytes, 0, before, measured);
+                physics.setBlobVelocity((float) (20 * Math.sin(i / 60.0)), 0);
+                before = count(bytes, 1, before, measured);
+                physics.run();
+                before = count(bytes, 2, before, measured);
+                LevelState free = drawer.setState(physics.getState());
+                before = count(bytes, 3, before, measured);
+                physics.recycle(free);
+                before = count(bytes, 4, before, measured);
+                // What the drawer reads every frame
+                LevelState state = physics.getState();
+                checksum += state.getBlobX() + state.getBlobY() + state.getWalls().size();
+                List<Point> spikes = state.getSpikes();
+                for (int j = 0; j < spikes.size(); j++) {
+                    checksum += spikes.get(j).x;
+                }
+                count(bytes, 5, before, measured);
+            }
+        } finally {
+            drawer.release();
+            physics.release();
+        }
+
+        StringBuilder report = new StringBuilder();
+        boolean[] reported = new boolean[SITES.length];
+        for (int n = 0; n < Math.min(REPORTED_SITES, SITES.length); n++) {
+            int top = -1;
+            for (int i = 0; i < SITES.length; i++) {
+                if (!reported[i] && ((top < 0) || (bytes[i] > bytes[top]))) {
+                    top = i;
+                }
+            }
+            reported[top] = true;
+            report.append(String.format("  %-40s %8.1f bytes/tick%n", SITES[top], (double) bytes[top] / MEASURED_TICKS));
+        }
+        report.append("  (checksum ").append(checksum).append(')');
+        return report.toString();
+    }
+
+    /**
+     * Adds what was allocated since the last count to a call site.
+     *
+     * @param bytes    bytes allocated by each call site
+     * @param site     index of the call site
+     * @param before   allocation counter at the last count
+     * @param measured whether or not the tick is being measured
+     * @return the allocation counter now
+     */
+    private static long count(long[] bytes, int site, long before, boolean measured) {
+        long now = Debug.getThreadAllocSize();
+        if (measured) {
+            bytes[site] += now - before;
+        }
+        return now;
+    }
+}
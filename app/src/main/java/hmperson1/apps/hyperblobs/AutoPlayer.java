@@ -0,0 +1,412 @@
+package hmperson1.apps.hyperblobs;
+
+import android.graphics.Point;
+import android.hardware.SensorManager;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Locale;
+
+import static hmperson1.apps.hyperblobs.LevelUpdater.BLOB_RADIUS;
+import static hmperson1.apps.hyperblobs.LevelUpdater.HEIGHT;
+import static hmperson1.apps.hyperblobs.LevelUpdater.LENGTH;
+import static hmperson1.apps.hyperblobs.LevelUpdater.SPIKE_RADIUS;
+
+/**
+ * Plays a level with nothing drawn, to find out whether it can be finished,
+ * how long that takes, and how close the blob has to come to the spikes.
+ * Every few ticks, each of a fixed set of tilts is tried for a short while
+ * from a snapshot of the world, and the one that ends up closest to the goal
+ * without dying is played. Tilts reach the blob the way the player's do,
+ * through {@link LevelUpdater#applyMotion}, which records them in an
+ * {@link InputLog} as it would for a recorded session, rather than through
+ * {@link LevelUpdater#setMotion}, which would need a whole
+ * {@link LevelUpdater} with a drawer and textures. The world being played is
+ * built new and only ever stepped forward, so the {@link Report#input} of a
+ * run replays exactly in {@link HeadlessRunner}. Not finding a way through
+ * doesn't prove there isn't one.
+ *
+ * @author HMPerson1
+ */
+final class AutoPlayer {
+
+    /**
+     * Ticks played between decisions.
+     */
+    private static final int DECISION_TICKS = 6;
+    /**
+     * Ticks each tilt is tried for.
+     */
+    private static final int HORIZON_TICKS = 36;
+    /**
+     * Space between the blob and a spike, in screen units, under which the
+     * blob is counted as nearly hitting it.
+     */
+    private static final float NEAR_MISS = 10;
+    /**
+     * Tilts tried, as the x and y velocity of each: eight directions, at full
+     * and half tilt, then holding the device flat. Full tilt is the most a
+     * gravity sensor reports.
+     */
+    private static final float[] CANDIDATES = new float[(16 + 1) * 2];
+
+    static {
+        for (int i = 0; i < 8; i++) {
+            double angle = (i * Math.PI) / 4;
+            for (int half = 0; half < 2; half++) {
+                float speed = SensorManager.GRAVITY_EARTH / (half + 1);
+                int c = ((i * 2) + half) * 2;
+                CANDIDATES[c] = InputLog.quantize((float) (Math.cos(angle) * speed));
+                CANDIDATES[c + 1] = InputLog.quantize((float) (Math.sin(angle) * speed));
+            }
+        }
+    }
+
+    /**
+     * ID of the level.
+     */
+    private final int mMajor, mMinor;
+    /**
+     * The world being played, built new and only ever stepped forward.
+     */
+    private final LevelPhysicsUpdater mPhysics;
+    /**
+     * The world tilts are tried in, restored from {@code mSnapshot} for each.
+     */
+    private final LevelPhysicsUpdater mTrial;
+    /**
+     * Snapshot of {@code mPhysics} at the last decision.
+     */
+    private final ByteBuffer mSnapshot;
+    /**
+     * Region the blob's center has to reach, in screen units: left, bottom,
+     * right and top.
+     */
+    private final int[] mGoal = {LENGTH - (2 * BLOB_RADIUS), 0, LENGTH, (int) HEIGHT};
+    /**
+     * Most ticks to play.
+     */
+    private int mMaxTicks = 3 * 60 * 60;
+    /**
+     * Number of tilts tried so far.
+     */
+    private int mRollouts;
+
+    /**
+     * Creates a player at the start of a level.
+     *
+     * @param major major level ID
+     * @param minor minor level ID
+     * @throws Exception if the level couldn't be loaded
+     */
+    AutoPlayer(int major, int minor) throws Exception {
+        LevelState level = LevelLoader.load(major, minor);
+        mMajor = major;
+        mMinor = minor;
+        mPhysics = new LevelPhysicsUpdater(level, LENGTH, false, true);
+        mTrial = new LevelPhysicsUpdater(level, LENGTH);
+        mSnapshot = ByteBuffer.allocate(mPhysics.snapshotSize());
+    }
+
+    /**
+     * Sets the region the blob's center has to reach. By default, it is the
+     * right end of the level.
+     *
+     * @param left   left edge, in screen units
+     * @param bottom bottom edge, in screen units
+     * @param right  right edge, in screen units
+     * @param top    top edge, in screen units
+     * @return this object for convenience
+     */
+    AutoPlayer setGoal(int left, int bottom, int right, int top) {
+        if ((left > right) || (bottom > top)) {
+            throw new IllegalArgumentException("Empty goal");
+        }
+        mGoal[0] = left;
+        mGoal[1] = bottom;
+        mGoal[2] = right;
+        mGoal[3] = top;
+        return this;
+    }
+
+    /**
+     * Sets the most ticks to play before giving up. By default, it is three
+     * minutes.
+     *
+     * @param ticks the number of ticks
+     * @return this object for convenience
+     */
+    AutoPlayer setMaxTicks(int ticks) {
+        mMaxTicks = ticks;
+        return this;
+    }
+
+    /**
+     * Plays the level until the blob reaches the goal or dies, or time runs
+     * out. Can only be called once.
+     *
+     * @return how it went
+     */
+    Report play() {
+        long start = System.nanoTime();
+        InputLog input = new InputLog(mMajor, mMinor);
+        int reason = HeadlessRunner.RUNNING;
+        int ticks = 0;
+        int nearMisses = 0;
+        boolean near = false;
+        float closest = Float.MAX_VALUE;
+        while (reason == HeadlessRunner.RUNNING) {
+            int choice = decide();
+            float x = CANDIDATES[choice * 2];
+            float y = CANDIDATES[(choice * 2) + 1];
+            for (int i = 0; (i < DECISION_TICKS) && (reason == HeadlessRunner.RUNNING); i++) {
+                if (ticks >= mMaxTicks) {
+                    reason = HeadlessRunner.STOP_TICKS;
+                    break;
+                }
+                step(mPhysics, input, x, y);
+                ticks++;
+                LevelState state = mPhysics.getState();
+                if (mPhysics.isBlobDead()) {
+                    reason = HeadlessRunner.STOP_DEATH;
+                } else if (distanceToGoal(state) == 0) {
+                    reason = HeadlessRunner.STOP_GOAL;
+                }
+                // Count each time the blob comes close, not each tick it stays
+                float clearance = clearance(state);
+                closest = Math.min(closest, clearance);
+                if ((clearance < NEAR_MISS) && !near) {
+                    nearMisses++;
+                }
+                near = clearance < NEAR_MISS;
+            }
+        }
+        return new Report(reason, ticks, nearMisses, closest, mRollouts, System.nanoTime() - start, input);
+    }
+
+    /**
+     * Returns the number of bytes {@link #save} writes.
+     *
+     * @return the size, in bytes
+     */
+    int snapshotSize() {
+        return mPhysics.snapshotSize();
+    }
+
+    /**
+     * Writes exactly where everything is in the world being played, as
+     * {@link LevelPhysicsUpdater#save} does, such as to check that a replay
+     * of the {@link Report#input} ends up there too.
+     *
+     * @param out where to write; must have {@link #snapshotSize()} bytes left
+     */
+    void save(ByteBuffer out) {
+        mPhysics.save(out);
+    }
+
+    /**
+     * Returns both worlds to the pool. This player must not be used
+     * afterwards.
+     */
+    void release() {
+        mPhysics.release();
+        mTrial.release();
+    }
+
+    /**
+     * Tries every tilt from where the world is now.
+     *
+     * @return index of the best tilt in {@code CANDIDATES}
+     */
+    private int decide() {
+        mSnapshot.clear();
+        mPhysics.save(mSnapshot);
+        int best = 0;
+        float bestScore = -Float.MAX_VALUE;
+        for (int c = 0; c < (CANDIDATES.length / 2); c++) {
+            mSnapshot.rewind();
+            mTrial.restore(mSnapshot);
+            float score = rollout(CANDIDATES[c * 2], CANDIDATES[(c * 2) + 1]);
+            mRollouts++;
+            if (score > bestScore) {
+                bestScore = score;
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Holds a tilt in {@code mTrial} for a while and rates where it ends up.
+     * Reaching the goal is best, sooner being better; dying is worst, later
+     * being better; otherwise, closer to the goal and farther from the
+     * spikes is better.
+     *
+     * @param x x velocity
+     * @param y y velocity
+     * @return the rating
+     */
+    private float rollout(float x, float y) {
+        for (int i = 0; i < HORIZON_TICKS; i++) {
+            step(mTrial, null, x, y);
+            if (mTrial.isBlobDead()) {
+                return -1e6f + i;
+            }
+            if (distanceToGoal(mTrial.getState()) == 0) {
+                return 1e6f - i;
+            }
+        }
+        LevelState state = mTrial.getState();
+        return -distanceToGoal(state) + (0.5f * Math.min(clearance(state), 2 * NEAR_MISS));
+    }
+
+    /**
+     * Steps a world once with the given velocity, like {@link LevelUpdater}
+     * does. Allocates nothing once the recording has grown.
+     *
+     * @param physics   the world
+     * @param recording where to record the velocity, or {@code null}
+     * @param x         x velocity
+     * @param y         y velocity
+     */
+    private static void step(LevelPhysicsUpdater physics, InputLog recording, float x, float y) {
+        LevelState previous = physics.getState();
+        LevelUpdater.applyMotion(physics, recording, x, y);
+        physics.run();
+        // Nothing else saw it
+        physics.recycle(previous);
+    }
+
+    /**
+     * Returns how far the blob's center is from the goal.
+     *
+     * @param state the state
+     * @return the distance, in screen units, or 0 if it's there
+     */
+    private float distanceToGoal(LevelState state) {
+        int x = state.getBlobX();
+        int y = state.getBlobY();
+        int dx = Math.max(Math.max(mGoal[0] - x, x - mGoal[2]), 0);
+        int dy = Math.max(Math.max(mGoal[1] - y, y - mGoal[3]), 0);
+        return (float) Math.sqrt((dx * dx) + (dy * dy));
+    }
+
+    /**
+     * Returns the space between the blob and the nearest spike.
+     *
+     * @param state the state
+     * @return the space, in screen units, or {@link Float#MAX_VALUE} if there
+     * are no spikes
+     */
+    private static float clearance(LevelState state) {
+        List<Point> spikes = state.getSpikes();
+        int x = state.getBlobX();
+        int y = state.getBlobY();
+        float nearest = Float.MAX_VALUE;
+        for (int i = 0; i < spikes.size(); i++) {
+            Point spike = spikes.get(i);
+            float dx = spike.x - x;
+            float dy = spike.y - y;
+            nearest = Math.min(nearest, (dx * dx) + (dy * dy));
+        }
+        if (nearest == Float.MAX_VALUE) {
+            return nearest;
+        }
+        return (float) Math.sqrt(nearest) - (BLOB_RADIUS + SPIKE_RADIUS);
+    }
+
+    /**
+     * How playing a level went.
+     */
+    static final class Report {
+
+        /**
+         * Why it stopped: {@link HeadlessRunner#STOP_GOAL},
+         * {@link HeadlessRunner#STOP_DEATH} or
+         * {@link HeadlessRunner#STOP_TICKS}.
+         */
+        final int reason;
+        /**
+         * Number of ticks played.
+         */
+        final int ticks;
+        /**
+         * Number of times the blob came within {@link #NEAR_MISS} of a spike.
+         */
+        final int nearMisses;
+        /**
+         * Least space there ever was between the blob and a spike, in screen
+         * units.
+         */
+        final float closest;
+        /**
+         * Number of tilts tried.
+         */
+        final int rollouts;
+        /**
+         * How long it took, in nanoseconds.
+         */
+        final long nanos;
+        /**
+         * The velocity played on every tick, for replaying the run.
+         */
+        final InputLog input;
+
+        /**
+         * Creates a report.
+         *
+         * @param reason     why it stopped
+         * @param ticks      number of ticks played
+         * @param nearMisses number of near misses
+         * @param closest    least space between the blob and a spike
+         * @param rollouts   number of tilts tried
+         * @param nanos      how long it took, in nanoseconds
+         * @param input      the velocity played on every tick
+         */
+        Report(int reason, int ticks, int nearMisses, float closest, int rollouts, long nanos, InputLog input) {
+            this.reason = reason;
+            this.ticks = ticks;
+            this.nearMisses = nearMisses;
+            this.closest = closest;
+            this.rollouts = rollouts;
+            this.nanos = nanos;
+            this.input = input;
+        }
+
+        /**
+         * Checks whether the blob reached the goal.
+         *
+         * @return whether or not the level was finished
+         */
+        boolean isCompleted() {
+            return reason == HeadlessRunner.STOP_GOAL;
+        }
+
+        /**
+         * Returns how long the run took in game time.
+         *
+         * @return the time, in seconds
+         */
+        float getSeconds() {
+            return ticks / 60f;
+        }
+
+        /**
+         * Returns how many tilts were tried per second of real time.
+         *
+         * @return rollouts per second
+         */
+        double getRolloutsPerSecond() {
+            return (nanos == 0) ? 0 : ((rollouts * 1e9) / nanos);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "level %d-%d: %s after %.2f s, %d near misses (closest %.1f), %d rollouts in %.3f s (%.0f/s)",
+                    input.getMajor(), input.getMinor(), isCompleted() ? "completed" : "failed on "
+                            + HeadlessRunner.reasonName(reason), getSeconds(), nearMisses, closest,
+                    rollouts, nanos / 1e9, getRolloutsPerSecond());
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package hmperson1.apps.hyperblobs;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs many {@link HeadlessRunner}s at once, one per core. Each job has its
+ * own {@link LevelPhysicsUpdater}, and so its own JBox2D world, and nothing is
+ * shared between jobs except loaded levels, which are never changed, so
+ * throughput grows with the number of cores.
+ *
+ * @author HMPerson1
+ */
+final class BatchSimulator {
+
+    /**
+     * Runs the jobs.
+     */
+    private final ExecutorService mExecutor;
+    /**
+     * Names of the jobs added since the last run.
+     */
+    private final List<String> mNames = new ArrayList<String>();
+    /**
+     * Jobs added since the last run.
+     */
+    private final List<Job> mJobs = new ArrayList<Job>();
+
+    /**
+     * Creates a simulator with one thread per core.
+     */
+    BatchSimulator() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a simulator.
+     *
+     * @param threads number of jobs to run at once
+     */
+    BatchSimulator(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Need at least one thread: " + threads);
+        }
+        mExecutor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                return new Thread(r, "BatchSimulator-" + mCount.incrementAndGet());
+            }
+        });
+    }
+
+    /**
+     * Creates a job that plays a level with the given input. Every job of the
+     * same level shares its geometry.
+     *
+     * @param major    major level ID
+     * @param minor    minor level ID
+     * @param input    where the velocity of each tick comes from; must not be
+     *                 shared with another job
+     * @param maxTicks most ticks to run
+     * @return the job
+     */
+    static Job levelJob(final int major, final int minor, final InputSource input, final int maxTicks) {
+        return new Job() {
+            @Override
+            public HeadlessRunner prepare() throws Exception {
+                LevelState level = LevelLoader.load(major, minor);
+                return new HeadlessRunner(level, input).setMaxTicks(maxTicks);
+            }
+        };
+    }
+
+    /**
+     * Adds a job to the next run.
+     *
+     * @param name name to report the job by
+     * @param job  the job
+     */
+    void add(String name, Job job) {
+        mNames.add(name);
+        mJobs.add(job);
+    }
+
+    /**
+     * Runs every job added since the last run, and waits for them all.
+     *
+     * @return how each job went, in the order they were added
+     * @throws InterruptedException if interrupted while waiting
+     */
+    Report run() throws InterruptedException {
+        List<Future<HeadlessRunner.Result>> futures = new ArrayList<Future<HeadlessRunner.Result>>(mJobs.size());
+        long start = System.nanoTime();
+        for (final Job job : mJobs) {
+            futures.add(mExecutor.submit(new Callable<HeadlessRunner.Result>() {
+                @Override
+                public HeadlessRunner.Result call() throws Exception {
+                    HeadlessRunner runner = job.prepare();
+                    try {
+                        return runner.run();
+                    } finally {
+                        runner.release();
+                    }
+                }
+            }));
+        }
+        List<Outcome> outcomes = new ArrayList<Outcome>(futures.size());
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    outcomes.add(new Outcome(mNames.get(i), futures.get(i).get(), null));
+                } catch (ExecutionException e) {
+                    outcomes.add(new Outcome(mNames.get(i), null, e.getCause()));
+                }
+            }
+        } finally {
+            // Don't leave anything running if interrupted
+            for (Future<HeadlessRunner.Result> future : futures) {
+                future.cancel(true);
+            }
+            mNames.clear();
+            mJobs.clear();
+        }
+        return new Report(outcomes, System.nanoTime() - start);
+    }
+
+    /**
+     * Stops the threads and lets go of the levels loaded for the jobs.
+     * Nothing can be run afterwards.
+     */
+    void shutdown() {
+        mExecutor.shutdownNow();
+        LevelLoader.clearCache();
+    }
+
+    /**
+     * Sets up a run. Called on one of the simulator's threads.
+     */
+    interface Job {
+
+        /**
+         * Creates the runner for the job, configured and ready to run.
+         *
+         * @return the runner
+         * @throws Exception if it could not be set up, such as when a level
+         *                   fails to load
+         */
+        HeadlessRunner prepare() throws Exception;
+    }
+
+    /**
+     * How a single job went.
+     */
+    static final class Outcome {
+
+        /**
+         * Name the job was added with.
+         */
+        final String name;
+        /**
+         * How the run went, or {@code null} if it failed.
+         */
+        final HeadlessRunner.Result result;
+        /**
+         * Why it failed, or {@code null} if it didn't.
+         */
+        final Throwable error;
+
+        /**
+         * Creates an outcome.
+         *
+         * @param name   name the job was added with
+         * @param result how the run went, or {@code null}
+         * @param error  why it failed, or {@code null}
+         */
+        Outcome(String name, HeadlessRunner.Result result, Throwable error) {
+            this.name = name;
+            this.result = result;
+            this.error = error;
+        }
+
+        @Override
+        public String toString() {
+            return name + ": " + ((error != null) ? ("failed: " + error) : result);
+        }
+    }
+
+    /**
+     * How a whole run went.
+     */
+    static final class Report {
+
+        /**
+         * How each job went, in the order they were added.
+         */
+        final List<Outcome> outcomes;
+        /**
+         * How long the whole run took, in nanoseconds.
+         */
+        final long nanos;
+
+        /**
+         * Creates a report.
+         *
+         * @param outcomes how each job went
+         * @param nanos    how long the whole run took, in nanoseconds
+         */
+        Report(List<Outcome> outcomes, long nanos) {
+            this.outcomes = Collections.unmodifiableList(outcomes);
+            this.nanos = nanos;
+        }
+
+        /**
+         * Returns the number of ticks run by every job together.
+         *
+         * @return the total tick count
+         */
+        long getTotalTicks() {
+            long ticks = 0;
+            for (Outcome outcome : outcomes) {
+                if (outcome.result != null) {
+                    ticks += outcome.result.ticks;
+                }
+            }
+            return ticks;
+        }
+
+        /**
+         * Returns the number of jobs that failed.
+         *
+         * @return the failure count
+         */
+        int getFailures() {
+            int failures = 0;
+            for (Outcome outcome : outcomes) {
+                if (outcome.error != null) {
+                    failures++;
+                }
+            }
+            return failures;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder out = new StringBuilder();
+            for (Outcome outcome : outcomes) {
+                out.append(outcome).append('\n');
+            }
+            out.append(String.format(Locale.US, "%d jobs, %d failed, %d ticks in %.3f s (%.0f ticks/s)",
+                    outcomes.size(), getFailures(), getTotalTicks(), nanos / 1e9,
+                    (nanos == 0) ? 0 : ((getTotalTicks() * 1e9) / nanos)));
+            return out.toString();
+        }
+    }
+}
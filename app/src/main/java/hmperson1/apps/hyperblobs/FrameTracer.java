@@ -0,0 +1,295 @@
+package hmperson1.apps.hyperblobs;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Records when each phase of an update or a frame begins and ends, on any
+ * thread, and writes them out in the Chrome trace event format for viewing in
+ * {@code chrome://tracing} or Perfetto. Events go into a fixed-size ring, so
+ * recording allocates nothing; when it is full, the oldest events are
+ * overwritten. Each slot of the ring holds the number of the event in it,
+ * set only once the event is written, so that events still being written or
+ * overwritten are left out of a dump instead of coming out torn. Does nothing
+ * unless enabled.
+ *
+ * @author HMPerson1
+ */
+final class FrameTracer {
+
+    /**
+     * Reading and applying user input.
+     */
+    static final int INPUT = 0;
+    /**
+     * Stepping the physics world.
+     */
+    static final int WORLD_STEP = 1;
+    /**
+     * Building a {@link LevelState} from the world.
+     */
+    static final int UPDATE_STATE = 2;
+    /**
+     * Handing a {@link LevelState} to the drawer.
+     */
+    static final int HANDOFF = 3;
+    /**
+     * Drawing a frame.
+     */
+    static final int DRAW_FRAME = 4;
+    /**
+     * Name of each phase, as shown in the trace.
+     */
+    private static final String[] NAMES = {"input", "World.step", "updateState", "handoff", "onDrawFrame"};
+    /**
+     * Number of events kept. Must be a power of two.
+     */
+    private static final int CAPACITY = 1 << 16;
+    /**
+     * Number of threads that can be told apart.
+     */
+    private static final int MAX_THREADS = 8;
+    /**
+     * Time of each event, from {@link System#nanoTime()}.
+     */
+    private static final long[] TIMES = new long[CAPACITY];
+    /**
+     * Phase, thread and kind of each event: the phase in the high bits, then
+     * the thread slot, then whether it is an end in the lowest bit.
+     */
+    private static final int[] EVENTS = new int[CAPACITY];
+    /**
+     * Number of the event in each slot, or -1 while it is being written.
+     */
+    private static final AtomicIntegerArray SEQUENCES = new AtomicIntegerArray(unwritten());
+    /**
+     * Number of events ever recorded.
+     */
+    private static final AtomicInteger NEXT = new AtomicInteger();
+    /**
+     * Ids of the threads that have recorded events, by slot.
+     */
+    private static final long[] THREAD_IDS = new long[MAX_THREADS];
+    /**
+     * Names of the threads that have recorded events, by slot.
+     */
+    private static final String[] THREAD_NAMES = new String[MAX_THREADS];
+    /**
+     * Number of thread slots used.
+     */
+    private static volatile int threads;
+    /**
+     * Whether or not events are recorded.
+     */
+    private static volatile boolean enabled;
+    /**
+     * Number of the first event not yet written by {@link #dump(Writer)}.
+     * Guarded by the class.
+     */
+    private static int dumped;
+
+    /**
+     * Utility class -- private constructor.
+     */
+    private FrameTracer() {
+    }
+
+    /**
+     * Returns sequence numbers for a ring with nothing written in it yet.
+     *
+     * @return the sequence numbers
+     */
+    private static int[] unwritten() {
+        int[] sequences = new int[CAPACITY];
+        Arrays.fill(sequences, -1);
+        return sequences;
+    }
+
+    /**
+     * Sets whether or not events are recorded.
+     *
+     * @param enable whether or not to record events
+     */
+    static void setEnabled(boolean enable) {
+        enabled = enable;
+    }
+
+    /**
+     * Returns whether or not events are recorded.
+     *
+     * @return whether or not tracing is enabled
+     */
+    static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Records that a phase began on this thread.
+     *
+     * @param phase the phase, such as {@link #WORLD_STEP}
+     */
+    static void begin(int phase) {
+        if (enabled) {
+            record(phase, 0);
+        }
+    }
+
+    /**
+     * Records that a phase ended on this thread.
+     *
+     * @param phase the phase, such as {@link #WORLD_STEP}
+     */
+    static void end(int phase) {
+        if (enabled) {
+            record(phase, 1);
+        }
+    }
+
+    /**
+     * Records an event.
+     *
+     * @param phase the phase
+     * @param end   1 for an end, 0 for a beginning
+     */
+    private static void record(int phase, int end) {
+        long time = System.nanoTime();
+        int n = NEXT.getAndIncrement();
+        int i = n & (CAPACITY - 1);
+        // Hidden from dumps until it is written
+        SEQUENCES.set(i, -1);
+        TIMES[i] = time;
+        EVENTS[i] = (phase << 4) | (threadSlot() << 1) | end;
+        SEQUENCES.set(i, n);
+    }
+
+    /**
+     * Finds the slot of the current thread, taking a new one the first time a
+     * thread records an event.
+     *
+     * @return the slot
+     */
+    private static int threadSlot() {
+        Thread thread = Thread.currentThread();
+        long id = thread.getId();
+        int count = threads;
+        for (int i = 0; i < count; i++) {
+            if (THREAD_IDS[i] == id) {
+                return i;
+            }
+        }
+        synchronized (THREAD_IDS) {
+            count = threads;
+            if (count == MAX_THREADS) {
+                return MAX_THREADS - 1; // Lumped in with the last one
+            }
+            THREAD_IDS[count] = id;
+            THREAD_NAMES[count] = thread.getName();
+            threads = count + 1;
+            return count;
+        }
+    }
+
+    /**
+     * Forgets every event. Numbering carries on, so that events being
+     * recorded meanwhile can't be mistaken for ones after the clear.
+     */
+    static synchronized void clear() {
+        dumped = NEXT.get();
+    }
+
+    /**
+     * Writes the recorded events to a file as Chrome trace event JSON.
+     *
+     * @param file the file
+     * @throws IOException if the file could not be written
+     */
+    static void dump(File file) throws IOException {
+        Writer out = new BufferedWriter(new FileWriter(file));
+        try {
+            dump(out);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Writes the events recorded since the last dump as Chrome trace event
+     * JSON, so that dumping on every pause doesn't write the same events
+     * again. Events recorded while writing may or may not be included. Ends
+     * whose beginning was overwritten or left out are dropped, so that no
+     * phase seems to end before it began.
+     *
+     * @param out where to write
+     * @throws IOException if writing failed
+     */
+    static synchronized void dump(Writer out) throws IOException {
+        int next = NEXT.get();
+        int first = Math.max(next - CAPACITY, dumped);
+        out.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[");
+        int threadCount = threads;
+        for (int i = 0; i < threadCount; i++) {
+            out.write(String.format(Locale.US, "%s{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":%d,"
+                    + "\"args\":{\"name\":\"%s\"}}", (i == 0) ? "" : ",", THREAD_IDS[i], escape(THREAD_NAMES[i])));
+        }
+        boolean comma = threadCount > 0;
+        // Phases begun and not yet ended, by thread slot and phase
+        int[] open = new int[MAX_THREADS * NAMES.length];
+        for (int n = first; n < next; n++) {
+            int i = n & (CAPACITY - 1);
+            if (SEQUENCES.get(i) != n) {
+                continue; // Still being written, or already overwritten
+            }
+            long time = TIMES[i];
+            int event = EVENTS[i];
+            if (SEQUENCES.get(i) != n) {
+                continue; // Overwritten while being read
+            }
+            int slot = (event >> 1) & (MAX_THREADS - 1);
+            int phase = event >> 4;
+            boolean end = (event & 1) != 0;
+            int depth = (slot * NAMES.length) + phase;
+            if (end) {
+                if (open[depth] == 0) {
+                    continue;
+                }
+                open[depth]--;
+            } else {
+                open[depth]++;
+            }
+            // Microseconds, as the format expects
+            out.write(String.format(Locale.US, "%s{\"name\":\"%s\",\"ph\":\"%s\",\"ts\":%.3f,\"pid\":1,\"tid\":%d}",
+                    comma ? "," : "", escape(NAMES[phase]), end ? "E" : "B", time / 1000.0, THREAD_IDS[slot]));
+            comma = true;
+        }
+        out.write("]}");
+        dumped = next;
+    }
+
+    /**
+     * Escapes a string for use inside a JSON string.
+     *
+     * @param s the string
+     * @return the escaped string
+     */
+    private static String escape(String s) {
+        StringBuilder escaped = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if ((c == '"') || (c == '\\')) {
+                escaped.append('\\').append(c);
+            } else if (c < 0x20) {
+                escaped.append(String.format(Locale.US, "\\u%04x", (int) c));
+            } else {
+                escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+}
@@ -0,0 +1,124 @@
+package hmperson1.apps.hyperblobs;
+
+import java.nio.Buffer;
+
+/**
+ * The subset of OpenGL ES 2.0 used for drawing levels. Each method behaves
+ * like its namesake in {@link android.opengl.GLES20}, so that drawing can be
+ * done against something other than the real driver.
+ *
+ * @author HMPerson1
+ * @see GLES20Backend
+ * @see RecordingGLBackend
+ */
+interface GLBackend {
+
+    //<editor-fold defaultstate="collapsed" desc="Shaders and Programs">
+    int glCreateShader(int type);
+
+    void glShaderSource(int shader, String source);
+
+    void glCompileShader(int shader);
+
+    int glCreateProgram();
+
+    void glAttachShader(int program, int shader);
+
+    void glBindAttribLocation(int program, int index, String name);
+
+    void glLinkProgram(int program);
+
+    int glGetUniformLocation(int program, String name);
+
+    void glUseProgram(int program);
+    //</editor-fold>
+
+    //<editor-fold defaultstate="collapsed" desc="Textures">
+    void glGenTextures(int n, int[] textures, int offset);
+
+    void glDeleteTextures(int n, int[] textures, int offset);
+
+    void glActiveTexture(int texture);
+
+    void glBindTexture(int target, int texture);
+
+    void glTexParameteri(int target, int pname, int param);
+
+    void glTexImage2D(int target, int level, int internalformat, int width, int height,
+                      int border, int format, int type, Buffer pixels);
+
+    void glTexSubImage2D(int target, int level, int xoffset, int yoffset, int width, int height,
+                         int format, int type, Buffer pixels);
+
+    void glCompressedTexImage2D(int target, int level, int internalformat, int width, int height,
+                                int border, int imageSize, Buffer data);
+
+    void glPixelStorei(int pname, int param);
+    //</editor-fold>
+
+    //<editor-fold defaultstate="collapsed" desc="Buffers">
+    void glGenBuffers(int n, int[] buffers, int offset);
+
+    void glBindBuffer(int target, int buffer);
+
+    void glBufferData(int target, int size, Buffer data, int usage);
+
+    void glBufferSubData(int target, int offset, int size, Buffer data);
+    //</editor-fold>
+
+    //<editor-fold defaultstate="collapsed" desc="Framebuffers">
+    void glGenFramebuffers(int n, int[] framebuffers, int offset);
+
+    void glDeleteFramebuffers(int n, int[] framebuffers, int offset);
+
+    void glBindFramebuffer(int target, int framebuffer);
+
+    void glFramebufferTexture2D(int target, int attachment, int textarget, int texture, int level);
+
+    int glCheckFramebufferStatus(int target);
+    //</editor-fold>
+
+    //<editor-fold defaultstate="collapsed" desc="Fixed-Function State">
+    void glEnable(int cap);
+
+    void glDisable(int cap);
+
+    void glBlendFunc(int sfactor, int dfactor);
+
+    void glCullFace(int mode);
+
+    void glClearColor(float red, float green, float blue, float alpha);
+
+    void glViewport(int x, int y, int width, int height);
+
+    void glGetIntegerv(int pname, int[] params, int offset);
+    //</editor-fold>
+
+    //<editor-fold defaultstate="collapsed" desc="Vertex Attributes and Uniforms">
+    void glEnableVertexAttribArray(int index);
+
+    void glDisableVertexAttribArray(int index);
+
+    void glVertexAttribPointer(int index, int size, int type, boolean normalized,
+                               int stride, Buffer ptr);
+
+    void glVertexAttribPointer(int index, int size, int type, boolean normalized,
+                               int stride, int offset);
+
+    void glUniform1i(int location, int x);
+
+    void glUniform1f(int location, float x);
+
+    void glUniform4fv(int location, int count, float[] v, int offset);
+
+    void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value, int offset);
+    //</editor-fold>
+
+    //<editor-fold defaultstate="collapsed" desc="Drawing">
+    void glClear(int mask);
+
+    void glDrawElements(int mode, int count, int type, Buffer indices);
+
+    void glDrawArrays(int mode, int first, int count);
+    //</editor-fold>
+}
@@ -1,113 +1,165 @@
 package hmperson1.apps.hyperblobs;
 
-import android.content.res.Resources;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Color;
-import android.opengl.GLES20;
-import android.opengl.GLUtils;
-import android.util.SparseArray;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.nio.FloatBuffer;
 import java.nio.ShortBuffer;
 
 /**
  * Utility Class for polygons in OpenGL, as well as poly OpenGL tools.
+ * <p/>
+ * Meshes are single interleaved streams of vertices. Each vertex is a 2D
+ * position as two floats, followed by its texture coordinates as two unsigned
+ * shorts normalized to [0, 1], for {@value #VERTEX_STRIDE} bytes in all.
+ * <p/>
+ * Every mesh is generated when this class is loaded, so nothing is generated
+ * while drawing. The same buffers are handed out to every caller, and
+ * drawing moves their positions, so they must only be used on the GL thread
+ * and left at position 0. Handing out {@code duplicate()} views instead
+ * would allocate on every draw.
  *
  * @author HMPerson1
  */
 @SuppressWarnings("PointlessArithmeticExpression")
 final class GLPolyTools {
 
+    /**
+     * Number of bytes from the start of one vertex to the next.
+     */
+    static final int VERTEX_STRIDE = 12;
+    /**
+     * Offset of the position in a vertex, in bytes.
+     */
+    static final int POSITION_OFFSET = 0;
+    /**
+     * Offset of the texture coordinates in a vertex, in bytes.
+     */
+    static final int TEX_COORD_OFFSET = 8;
     /**
      * Radians in a full circle.
      */
     private static final float FULL_CIRCLE = (float) (2 * Math.PI);
     /**
-     * Number of bytes needed to store a float.
+     * Number of bytes needed to store a short.
      */
-    private static final int BYTES_PER_FLOAT = Float.SIZE / Byte.SIZE;
+    private static final int BYTES_PER_SHORT = Short.SIZE / Byte.SIZE;
     /**
-     * Maps a regular polygon to its vertices.
+     * Texture coordinate of 1, as a normalized unsigned short.
      */
-    private static final SparseArray<FloatBuffer> POLYGONS = new SparseArray<FloatBuffer>();
+    private static final int TEX_COORD_ONE = 0xFFFF;
     /**
-     * Maps an offset regular polygon to its vertices.
+     * Vertex counts of the levels of detail of round shapes, from coarsest to
+     * finest.
      */
-    private static final SparseArray<FloatBuffer> POLYGONS_OFF = new SparseArray<FloatBuffer>();
+    private static final int[] LOD_VERTICES = {8, 12, 16, 24, 32, 48, 64};
     /**
-     * Maps a regular polygon to its texture coordinates.
+     * Most vertices any polygon has.
      */
-    private static final SparseArray<FloatBuffer> TEX_COORDS = new SparseArray<FloatBuffer>();
+    private static final int MAX_VERTICES = 64;
     /**
-     * Maps an offset regular polygon to its texture coordinates.
+     * Vertex counts of other polygons that are drawn.
      */
-    private static final SparseArray<FloatBuffer> TEX_COORDS_OFF = new SparseArray<FloatBuffer>();
+    private static final int[] EXTRA_VERTICES = {3, 4};
     /**
-     * Maps a regular polygon to the ordering in which its vertices should be
-     * drawn.
+     * Largest distance allowed between a round shape and its polygon, in
+     * pixels.
      */
-    private static final SparseArray<ShortBuffer> DRAW_ORDERS = new SparseArray<ShortBuffer>();
+    private static final float LOD_TOLERANCE = 0.5f;
+    /**
+     * Meshes of regular polygons, by vertex count.
+     */
+    private static final ByteBuffer[] POLYGONS = new ByteBuffer[MAX_VERTICES + 1];
+    /**
+     * Meshes of offset regular polygons, by vertex count.
+     */
+    private static final ByteBuffer[] POLYGONS_OFF = new ByteBuffer[MAX_VERTICES + 1];
+    /**
+     * Orderings in which the vertices of polygons should be drawn, by vertex
+     * count.
+     */
+    private static final ShortBuffer[] DRAW_ORDERS = new ShortBuffer[MAX_VERTICES + 1];
     /**
      * Converts a integer color to an OpenGL color.
      */
     private static final float COLOR_FACTOR = 1.0f / 0xFF;
     /**
-     * Options for loading {@link Bitmap}s into textures.
+     * Mesh of a box.
      */
-    private static final BitmapFactory.Options OPTIONS = new BitmapFactory.Options();
+    private static final ByteBuffer BOX = allocate(4 * VERTEX_STRIDE);
 
     static {
-        OPTIONS.inScaled = false;
+        putVertex(BOX, +1, +1, 1, 0);
+        putVertex(BOX, +1, -1, 1, 1);
+        putVertex(BOX, -1, -1, 0, 1);
+        putVertex(BOX, -1, +1, 0, 0);
+        BOX.position(0);
+
+        for (int vertices : LOD_VERTICES) {
+            generate(vertices);
+        }
+        for (int vertices : EXTRA_VERTICES) {
+            generate(vertices);
+        }
     }
 
     /**
-     * Buffer for a box.
+     * Utility class -- private constructor.
      */
-    private static final FloatBuffer BOX = ByteBuffer.allocateDirect(48).order(ByteOrder.nativeOrder()).asFloatBuffer();
+    private GLPolyTools() {
+    }
+
     /**
-     * Buffer for the texture coordinates of a box.
+     * Generates the meshes and ordering of polygons with the given number of
+     * vertices.
+     *
+     * @param vertices number of vertices
      */
-    private static final FloatBuffer BOX_TEX = ByteBuffer.allocateDirect(32).order(ByteOrder.nativeOrder()).asFloatBuffer();
-
-    static {
-        BOX.put(new float[]{
-                +1, +1, 0,
-                +1, -1, 0,
-                -1, -1, 0,
-                -1, +1, 0});
-        BOX_TEX.put(new float[]{
-                +1, +0,
-                +1, +1,
-                +0, +1,
-                +0, +0});
+    private static void generate(int vertices) {
+        POLYGONS[vertices] = createPolygon(1, vertices, false);
+        POLYGONS_OFF[vertices] = createPolygon(1, vertices, true);
+        DRAW_ORDERS[vertices] = toBuffer(drawOrder(vertices));
     }
 
     /**
-     * {@link Resources} to load textures from.
+     * Allocates a direct buffer in native ordering.
+     *
+     * @param bytes size of the buffer
+     * @return the buffer
      */
-    private static Resources res;
+    static ByteBuffer allocate(int bytes) {
+        return ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+    }
 
     /**
-     * Utility class -- private constructor.
+     * Appends a vertex to a mesh.
+     *
+     * @param mesh the mesh
+     * @param x    X position
+     * @param y    Y position
+     * @param s    horizontal texture coordinate, from 0 to 1
+     * @param t    vertical texture coordinate, from 0 to 1
      */
-    private GLPolyTools() {
+    static void putVertex(ByteBuffer mesh, float x, float y, float s, float t) {
+        mesh.putFloat(x);
+        mesh.putFloat(y);
+        mesh.putShort((short) Math.round(s * TEX_COORD_ONE));
+        mesh.putShort((short) Math.round(t * TEX_COORD_ONE));
     }
 
     /**
-     * Creates a vertex array for a regular polygon centered at the origin. If
-     * the polygon is not offset, the top center point will be a vertex. If the
-     * polygon is offset, there will be a segment instead of a vertex.
+     * Creates a mesh for a regular polygon centered at the origin. If the
+     * polygon is not offset, the top center point will be a vertex. If the
+     * polygon is offset, there will be a segment instead of a vertex. Texture
+     * coordinates map the square around the unit circle onto the texture.
      *
      * @param radius   distance each point is from the center
      * @param vertices number of vertices
      * @param offset   whether or not the polygon is offset
-     * @return an array of vertices
+     * @return the mesh
      */
-    private static float[] createPolygon(int radius, int vertices, boolean offset) {
-        float[] coords = new float[vertices * 3]; // 3 coords per vertex
+    private static ByteBuffer createPolygon(int radius, int vertices, boolean offset) {
+        ByteBuffer mesh = allocate(vertices * VERTEX_STRIDE);
 
         float step = FULL_CIRCLE / vertices;
         float angle = 0;
@@ -117,15 +169,16 @@ final class GLPolyTools {
 
         // Calculate the positions for every vertex
         for (int i = 0; i < vertices; i++) {
-            int idx = i * 3;
-            coords[idx + 0] = (float) (Math.cos(angle) * radius); // X
-            coords[idx + 1] = (float) (Math.sin(angle) * radius); // Y
-            coords[idx + 2] = 0;                   // Z -- since this is 2d, z will always be 0
+            float x = (float) Math.cos(angle);
+            float y = (float) Math.sin(angle);
+            // Texture is flipped vertically
+            putVertex(mesh, x * radius, y * radius, (x + 1) * 0.5f, 1 - ((y + 1) * 0.5f));
 
             angle += step;
         }
 
-        return coords;
+        mesh.position(0);
+        return mesh;
     }
 
     /**
@@ -149,54 +202,6 @@ final class GLPolyTools {
         return order;
     }
 
-    /**
-     * Converts the vertices of a polygon to texture coordinates.
-     *
-     * @param coords the vertices
-     * @return the texture coordinates
-     * @see #createPolygon
-     */
-    private static float[] createTexCoords(float[] coords) {
-        int vertices = coords.length / 3; // 3 coords per vertex
-
-        // Create the texture coordinates for each vertex
-        float[] tCoords = new float[vertices * 2]; // 2 coords per vertex
-        for (int i = 0; i < vertices; i++) {
-            int xIdx = (2 * i) + 0;
-            int yIdx = (2 * i) + 1;
-
-            // Copy respective coords
-            tCoords[xIdx] = coords[((3 * i) + 0)];
-            tCoords[yIdx] = coords[((3 * i) + 1)];
-
-            // Transform
-            tCoords[xIdx] += 1;
-            tCoords[xIdx] *= 0.5f;
-            tCoords[yIdx] += 1;
-            tCoords[yIdx] *= 0.5f;
-
-            // Flip vertically
-            tCoords[yIdx] = 1 - tCoords[yIdx];
-        }
-
-        return tCoords;
-    }
-
-    /**
-     * Stores a float array as a {@link FloatBuffer} in native ordering.
-     *
-     * @param vertices the float array
-     * @return a buffer containing the array
-     */
-    private static FloatBuffer toBuffer(float[] vertices) {
-        FloatBuffer buffer =
-                ByteBuffer.allocateDirect(vertices.length * BYTES_PER_FLOAT)
-                        .order(ByteOrder.nativeOrder())
-                        .asFloatBuffer();
-        buffer.put(vertices).position(0);
-        return buffer;
-    }
-
     /**
      * Stores a short array as a {@link ShortBuffer} in native ordering.
      *
@@ -204,100 +209,88 @@ final class GLPolyTools {
      * @return a buffer containing the array
      */
     private static ShortBuffer toBuffer(short[] vertices) {
-        ShortBuffer buffer =
-                ByteBuffer.allocateDirect(vertices.length * BYTES_PER_FLOAT)
-                        .order(ByteOrder.nativeOrder())
-                        .asShortBuffer();
+        ShortBuffer buffer = allocate(vertices.length * BYTES_PER_SHORT).asShortBuffer();
         buffer.put(vertices).position(0);
         return buffer;
     }
 
     /**
-     * Returns a {@link FloatBuffer} with the vertices of the specified regular
-     * polygon.
+     * Returns a pre-generated mesh or ordering.
      *
+     * @param meshes   meshes or orderings, by vertex count
      * @param vertices number of vertices
-     * @return the vertices
+     * @param <T>      type of the mesh or ordering
+     * @return the mesh or ordering
+     * @throws IllegalArgumentException if there is none for that many vertices
      */
-    public static FloatBuffer polygon(int vertices) {
-        if (POLYGONS.indexOfKey(vertices) < 0) {
-            POLYGONS.put(vertices, toBuffer(createPolygon(1, vertices, false)));
+    private static <T> T get(T[] meshes, int vertices) {
+        T mesh = ((vertices >= 0) && (vertices < meshes.length)) ? meshes[vertices] : null;
+        if (mesh == null) {
+            throw new IllegalArgumentException("No mesh with " + vertices + " vertices");
         }
-        return POLYGONS.get(vertices);
+        return mesh;
     }
 
     /**
-     * Returns a {@link FloatBuffer} with the vertices of the specified offset
-     * regular polygon.
+     * Picks how many vertices a round shape needs to look round, so that its
+     * polygon is never more than {@link #LOD_TOLERANCE} pixels off.
      *
-     * @param vertices number of vertices
-     * @return the vertices
+     * @param screenRadius radius of the shape on the screen, in pixels
+     * @return one of the level of detail vertex counts
      */
-    public static FloatBuffer polygonOff(int vertices) {
-        if (POLYGONS_OFF.indexOfKey(vertices) < 0) {
-            POLYGONS_OFF.put(vertices, toBuffer(createPolygon(1, vertices, true)));
+    public static int lodVertices(float screenRadius) {
+        // Each edge cuts off at most r * (1 - cos(pi / n)) of the circle
+        double needed = (screenRadius <= LOD_TOLERANCE) ? 0
+                : Math.PI / Math.acos(1 - (LOD_TOLERANCE / screenRadius));
+        for (int vertices : LOD_VERTICES) {
+            if (vertices >= needed) {
+                return vertices;
+            }
         }
-        return POLYGONS_OFF.get(vertices);
+        return LOD_VERTICES[LOD_VERTICES.length - 1];
     }
 
     /**
-     * Returns a box.
+     * Returns the mesh of the specified regular polygon.
      *
-     * @return a box.
-     */
-    public static FloatBuffer box() {
-        return BOX;
-    }
-
-    /**
-     * Returns the texture coordinates of a box.
-     *
-     * @return the texture coordinates of a box.
+     * @param vertices number of vertices
+     * @return the mesh
+     * @throws IllegalArgumentException if that polygon was not generated
      */
-    public static FloatBuffer boxTex() {
-        return BOX_TEX;
+    public static ByteBuffer polygon(int vertices) {
+        return get(POLYGONS, vertices);
     }
 
     /**
-     * Returns a {@link ShortBuffer} with the order in which the vertices of the
-     * specified polygon should be drawn.
+     * Returns the mesh of the specified offset regular polygon.
      *
      * @param vertices number of vertices
-     * @return the ordering
+     * @return the mesh
+     * @throws IllegalArgumentException if that polygon was not generated
      */
-    public static ShortBuffer order(int vertices) {
-        if (DRAW_ORDERS.indexOfKey(vertices) < 0) {
-            DRAW_ORDERS.put(vertices, toBuffer(drawOrder(vertices)));
-        }
-        return DRAW_ORDERS.get(vertices);
+    public static ByteBuffer polygonOff(int vertices) {
+        return get(POLYGONS_OFF, vertices);
     }
 
     /**
-     * Returns the texture coordinates for each vertex of the polygon.
+     * Returns the mesh of a box.
      *
-     * @param vertices number of vertices
-     * @return the texture coordinates
+     * @return a box.
      */
-    public static FloatBuffer texCoords(int vertices) {
-        if (TEX_COORDS.indexOfKey(vertices) < 0) {
-            TEX_COORDS.put(vertices, toBuffer(createTexCoords(
-                    createPolygon(1, vertices, false))));
-        }
-        return TEX_COORDS.get(vertices);
+    public static ByteBuffer box() {
+        return BOX;
     }
 
     /**
-     * Returns the texture coordinates for each vertex of the offset polygon.
+     * Returns a {@link ShortBuffer} with the order in which the vertices of the
+     * specified polygon should be drawn.
      *
      * @param vertices number of vertices
-     * @return the texture coordinates
+     * @return the ordering
+     * @throws IllegalArgumentException if that polygon was not generated
      */
-    public static FloatBuffer texCoordsOff(int vertices) {
-        if (TEX_COORDS_OFF.indexOfKey(vertices) < 0) {
-            TEX_COORDS_OFF.put(vertices, toBuffer(createTexCoords(
-                    createPolygon(1, vertices, true))));
-        }
-        return TEX_COORDS_OFF.get(vertices);
+    public static ShortBuffer order(int vertices) {
+        return get(DRAW_ORDERS, vertices);
     }
 
     /**
@@ -324,33 +317,4 @@ final class GLPolyTools {
         long nspR = (long) (spr * 1000000000);
         return ((float) (time % nspR) / nspR) * 360;
     }
-
-    /**
-     * Loads a texture into the given texture handle.
-     *
-     * @param handle texture handle
-     * @param resId  resource id of the texture
-     */
-    public static void loadTexture(int handle, int resId) {
-        // Prepare OpenGL stuff
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, handle);
-        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
-        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
-
-        // Actually load now
-        Bitmap bitmap = BitmapFactory.decodeResource(res, resId, OPTIONS);
-        GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, bitmap, 0);
-
-        // Unload the bitmap
-        bitmap.recycle();
-    }
-
-    /**
-     * Initialize with the {@link Resources} for texture loading.
-     *
-     * @param r the Resources from our package
-     */
-    public static void init(Resources r) {
-        res = r;
-    }
 }
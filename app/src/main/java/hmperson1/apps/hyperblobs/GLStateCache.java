@@ -0,0 +1,382 @@
+package hmperson1.apps.hyperblobs;
+
+import android.opengl.GLES20;
+import android.util.SparseArray;
+
+import java.util.Arrays;
+
+/**
+ * Remembers the OpenGL state it has set and skips calls that would not change
+ * anything. All calls must be made on the GL thread, and {@link #invalidate()}
+ * must be called whenever the context is (re)created.
+ *
+ * @author HMPerson1
+ */
+final class GLStateCache {
+
+    /**
+     * Number of texture units tracked.
+     */
+    private static final int TEXTURE_UNITS = 8;
+    /**
+     * Number of vertex attributes tracked.
+     */
+    private static final int VERTEX_ATTRIBS = 8;
+    /**
+     * Number of uniform locations tracked per program.
+     */
+    private static final int UNIFORM_LOCATIONS = 16;
+    /**
+     * Floats stored per uniform location.
+     */
+    private static final int FLOATS_PER_UNIFORM = 4;
+    /**
+     * Marks state that is not known.
+     */
+    private static final int UNKNOWN = -1;
+    /**
+     * Where calls that do change something are sent.
+     */
+    private final GLBackend mGL;
+    /**
+     * Textures bound to each unit.
+     */
+    private final int[] mTextures = new int[TEXTURE_UNITS];
+    /**
+     * Scratch array for deleting textures.
+     */
+    private final int[] mNames = new int[1];
+    /**
+     * Whether or not each vertex attribute array is enabled; {@code 1} if it
+     * is, {@code 0} if it isn't.
+     */
+    private final int[] mAttribs = new int[VERTEX_ATTRIBS];
+    /**
+     * Last values of the uniforms of each program. {@code NaN} never compares
+     * equal, so it marks values that are not known.
+     */
+    private final SparseArray<float[]> mUniforms = new SparseArray<float[]>();
+    /**
+     * Program in use.
+     */
+    private int mProgram;
+    /**
+     * Uniform values of the program in use.
+     */
+    private float[] mProgramUniforms;
+    /**
+     * Active texture unit, as an offset from {@code GL_TEXTURE0}.
+     */
+    private int mActiveUnit;
+    /**
+     * Buffer bound to {@code GL_ARRAY_BUFFER}.
+     */
+    private int mArrayBuffer;
+    /**
+     * Whether or not blending is enabled; {@code 1} if it is, {@code 0} if it
+     * isn't.
+     */
+    private int mBlend;
+    /**
+     * Blend factors.
+     */
+    private int mBlendSrc, mBlendDst;
+    /**
+     * Number of calls passed on to OpenGL.
+     */
+    private int mIssued;
+    /**
+     * Number of calls skipped.
+     */
+    private int mSkipped;
+
+    /**
+     * Creates a cache that knows nothing about the current state.
+     *
+     * @param gl where to send calls that do change something
+     */
+    GLStateCache(GLBackend gl) {
+        mGL = gl;
+        invalidate();
+    }
+
+    /**
+     * Forgets all state. Must be called when the context is (re)created, since
+     * the new context's state has nothing to do with the old one's.
+     */
+    void invalidate() {
+        mProgram = UNKNOWN;
+        mProgramUniforms = null;
+        mActiveUnit = UNKNOWN;
+        mArrayBuffer = UNKNOWN;
+        Arrays.fill(mTextures, UNKNOWN);
+        Arrays.fill(mAttribs, UNKNOWN);
+        mUniforms.clear();
+        mBlend = UNKNOWN;
+        mBlendSrc = UNKNOWN;
+        mBlendDst = UNKNOWN;
+    }
+
+    /**
+     * Uses a program.
+     *
+     * @param program the program handle
+     */
+    void useProgram(int program) {
+        if (program == mProgram) {
+            mSkipped++;
+            return;
+        }
+        mIssued++;
+        mGL.glUseProgram(program);
+        mProgram = program;
+        mProgramUniforms = mUniforms.get(program);
+        if (mProgramUniforms == null) {
+            mProgramUniforms = new float[UNIFORM_LOCATIONS * FLOATS_PER_UNIFORM];
+            Arrays.fill(mProgramUniforms, Float.NaN);
+            mUniforms.put(program, mProgramUniforms);
+        }
+    }
+
+    /**
+     * Binds a 2D texture to a texture unit.
+     *
+     * @param unit    the texture unit, as an offset from {@code GL_TEXTURE0}
+     * @param texture the texture handle
+     */
+    void bindTexture(int unit, int texture) {
+        if ((unit < TEXTURE_UNITS) && (mTextures[unit] == texture)) {
+            mSkipped++;
+            return;
+        }
+        activeTexture(unit);
+        mIssued++;
+        mGL.glBindTexture(GLES20.GL_TEXTURE_2D, texture);
+        if (unit < TEXTURE_UNITS) {
+            mTextures[unit] = texture;
+        }
+    }
+
+    /**
+     * Deletes a 2D texture. Units it was bound to are bound to 0 instead, as
+     * OpenGL does, so that binding a new texture that reuses the name isn't
+     * skipped.
+     *
+     * @param texture the texture handle
+     */
+    void deleteTexture(int texture) {
+        mIssued++;
+        mNames[0] = texture;
+        mGL.glDeleteTextures(1, mNames, 0);
+        for (int unit = 0; unit < TEXTURE_UNITS; unit++) {
+            if (mTextures[unit] == texture) {
+                mTextures[unit] = 0;
+            }
+        }
+    }
+
+    /**
+     * Selects the active texture unit.
+     *
+     * @param unit the texture unit, as an offset from {@code GL_TEXTURE0}
+     */
+    private void activeTexture(int unit) {
+        if (unit == mActiveUnit) {
+            mSkipped++;
+            return;
+        }
+        mIssued++;
+        mGL.glActiveTexture(GLES20.GL_TEXTURE0 + unit);
+        mActiveUnit = unit;
+    }
+
+    /**
+     * Binds a buffer to {@code GL_ARRAY_BUFFER}. Client-side vertex arrays
+     * can only be used while 0 is bound.
+     *
+     * @param buffer the buffer handle, or 0
+     */
+    void bindArrayBuffer(int buffer) {
+        if (buffer == mArrayBuffer) {
+            mSkipped++;
+            return;
+        }
+        mIssued++;
+        mGL.glBindBuffer(GLES20.GL_ARRAY_BUFFER, buffer);
+        mArrayBuffer = buffer;
+    }
+
+    /**
+     * Enables or disables a vertex attribute array.
+     *
+     * @param index   the attribute index
+     * @param enabled whether or not the array should be enabled
+     */
+    void setVertexAttribArray(int index, boolean enabled) {
+        int value = enabled ? 1 : 0;
+        if ((index >= 0) && (index < VERTEX_ATTRIBS) && (mAttribs[index] == value)) {
+            mSkipped++;
+            return;
+        }
+        mIssued++;
+        if (enabled) {
+            mGL.glEnableVertexAttribArray(index);
+        } else {
+            mGL.glDisableVertexAttribArray(index);
+        }
+        if ((index >= 0) && (index < VERTEX_ATTRIBS)) {
+            mAttribs[index] = value;
+        }
+    }
+
+    /**
+     * Enables or disables blending.
+     *
+     * @param enabled whether or not blending should be enabled
+     */
+    void setBlend(boolean enabled) {
+        int value = enabled ? 1 : 0;
+        if (mBlend == value) {
+            mSkipped++;
+            return;
+        }
+        mIssued++;
+        if (enabled) {
+            mGL.glEnable(GLES20.GL_BLEND);
+        } else {
+            mGL.glDisable(GLES20.GL_BLEND);
+        }
+        mBlend = value;
+    }
+
+    /**
+     * Sets the blend factors.
+     *
+     * @param src source factor
+     * @param dst destination factor
+     */
+    void blendFunc(int src, int dst) {
+        if ((mBlendSrc == src) && (mBlendDst == dst)) {
+            mSkipped++;
+            return;
+        }
+        mIssued++;
+        mGL.glBlendFunc(src, dst);
+        mBlendSrc = src;
+        mBlendDst = dst;
+    }
+
+    /**
+     * Sets an integer uniform of the program in use.
+     *
+     * @param location the uniform location
+     * @param value    the value
+     */
+    void uniform1i(int location, int value) {
+        if (isCached(location, value, 0, 0, 0)) {
+            mSkipped++;
+            return;
+        }
+        mIssued++;
+        mGL.glUniform1i(location, value);
+    }
+
+    /**
+     * Sets a float uniform of the program in use.
+     *
+     * @param location the uniform location
+     * @param value    the value
+     */
+    void uniform1f(int location, float value) {
+        if (isCached(location, value, 0, 0, 0)) {
+            mSkipped++;
+            return;
+        }
+        mIssued++;
+        mGL.glUniform1f(location, value);
+    }
+
+    /**
+     * Sets a vec4 uniform of the program in use.
+     *
+     * @param location the uniform location
+     * @param value    array containing the value
+     * @param offset   offset of the value in {@code value}
+     */
+    void uniform4fv(int location, float[] value, int offset) {
+        if (isCached(location, value[offset + 0], value[offset + 1],
+                value[offset + 2], value[offset + 3])) {
+            mSkipped++;
+            return;
+        }
+        mIssued++;
+        mGL.glUniform4fv(location, 1, value, offset);
+    }
+
+    /**
+     * Sets a mat4 uniform of the program in use. Matrices are assumed to change
+     * with every draw, so this is never skipped.
+     *
+     * @param location the uniform location
+     * @param value    array containing the value
+     * @param offset   offset of the value in {@code value}
+     */
+    void uniformMatrix4fv(int location, float[] value, int offset) {
+        mIssued++;
+        mGL.glUniformMatrix4fv(location, 1, false, value, offset);
+    }
+
+    /**
+     * Checks whether a uniform of the program in use already has the given
+     * value, and remembers the value if it doesn't.
+     *
+     * @param location the uniform location
+     * @param x        first component of the value
+     * @param y        second component of the value
+     * @param z        third component of the value
+     * @param w        fourth component of the value
+     * @return whether or not the uniform already has the value
+     */
+    private boolean isCached(int location, float x, float y, float z, float w) {
+        if ((mProgramUniforms == null) || (location < 0) || (location >= UNIFORM_LOCATIONS)) {
+            return false;
+        }
+        int idx = location * FLOATS_PER_UNIFORM;
+        float[] u = mProgramUniforms;
+        if ((u[idx + 0] == x) && (u[idx + 1] == y) && (u[idx + 2] == z) && (u[idx + 3] == w)) {
+            return true;
+        }
+        u[idx + 0] = x;
+        u[idx + 1] = y;
+        u[idx + 2] = z;
+        u[idx + 3] = w;
+        return false;
+    }
+
+    /**
+     * Returns the number of calls passed on to OpenGL since the counters were
+     * last reset.
+     *
+     * @return the number of calls issued
+     */
+    int getIssuedCalls() {
+        return mIssued;
+    }
+
+    /**
+     * Returns the number of calls skipped since the counters were last reset.
+     *
+     * @return the number of calls skipped
+     */
+    int getSkippedCalls() {
+        return mSkipped;
+    }
+
+    /**
+     * Resets the issued and skipped counters.
+     */
+    void resetCounters() {
+        mIssued = 0;
+        mSkipped = 0;
+    }
+}
@@ -0,0 +1,375 @@
+package hmperson1.apps.hyperblobs;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Where the blob was on every tick of an attempt at a level, so that later
+ * attempts can race it. Positions are the integer ones of {@link LevelState},
+ * stored as the change in how far the blob moved since the previous tick.
+ * That hardly ever goes beyond a few units, so both axes usually fit in one
+ * byte; otherwise the byte is {@link #ESCAPE} and each is written as a zigzag
+ * varint. A minute is a few kilobytes. Appending is thread-safe.
+ *
+ * @author HMPerson1
+ */
+final class GhostRun {
+
+    /**
+     * Start of every ghost: "HBGH".
+     */
+    private static final int MAGIC = 0x48424748;
+    /**
+     * Version of the format written.
+     */
+    private static final int VERSION = 1;
+    /**
+     * Marks a tick whose changes didn't fit in a byte. Packed ticks never
+     * have the high bit set.
+     */
+    private static final int ESCAPE = 0x80;
+    /**
+     * Largest zigzag encoded change that can be packed, in three bits.
+     */
+    private static final int MAX_PACKED = 7;
+    /**
+     * Most bytes a tick takes: the escape byte and two varints.
+     */
+    private static final int MAX_TICK_BYTES = 11;
+    /**
+     * Encoded ticks.
+     */
+    private byte[] mData;
+    /**
+     * Number of bytes used in {@code mData}.
+     */
+    private int mLength;
+    /**
+     * Number of ticks.
+     */
+    private int mTicks;
+    /**
+     * Position of the last tick appended.
+     */
+    private int mLastX, mLastY;
+    /**
+     * How far the blob moved on the last tick appended.
+     */
+    private int mLastDX, mLastDY;
+    /**
+     * Farthest right the blob got, and the tick on which it first got there.
+     */
+    private int mBestX = Integer.MIN_VALUE, mBestTick;
+
+    /**
+     * Creates an empty ghost.
+     */
+    GhostRun() {
+        mData = new byte[4096];
+    }
+
+    /**
+     * Creates a copy of another ghost.
+     *
+     * @param other the ghost to copy
+     */
+    GhostRun(GhostRun other) {
+        synchronized (other) {
+            mData = Arrays.copyOf(other.mData, other.mLength);
+            mLength = other.mLength;
+            mTicks = other.mTicks;
+            mLastX = other.mLastX;
+            mLastY = other.mLastY;
+            mLastDX = other.mLastDX;
+            mLastDY = other.mLastDY;
+            mBestX = other.mBestX;
+            mBestTick = other.mBestTick;
+        }
+    }
+
+    /**
+     * Appends a tick. Allocates nothing unless the ghost outgrows its
+     * buffer.
+     *
+     * @param x center x coordinate of the blob
+     * @param y center y coordinate of the blob
+     */
+    synchronized void append(int x, int y) {
+        if ((mLength + MAX_TICK_BYTES) > mData.length) {
+            // Copies are exactly full, and may be empty
+            mData = Arrays.copyOf(mData, Math.max(mData.length * 2, mLength + MAX_TICK_BYTES));
+        }
+        int dx = x - mLastX;
+        int dy = y - mLastY;
+        int zx = zigzag(dx - mLastDX);
+        int zy = zigzag(dy - mLastDY);
+        // Unsigned, since the largest changes encode as negative ints
+        if (((zx | zy) & ~MAX_PACKED) == 0) {
+            mData[mLength++] = (byte) ((zx << 4) | zy);
+        } else {
+            mData[mLength++] = (byte) ESCAPE;
+            mLength = putVarint(mData, mLength, zx);
+            mLength = putVarint(mData, mLength, zy);
+        }
+        mLastX = x;
+        mLastY = y;
+        mLastDX = dx;
+        mLastDY = dy;
+        if (x > mBestX) {
+            mBestX = x;
+            mBestTick = mTicks;
+        }
+        mTicks++;
+    }
+
+    /**
+     * Empties the ghost, keeping its buffer.
+     */
+    synchronized void clear() {
+        mLength = 0;
+        mTicks = 0;
+        mLastX = 0;
+        mLastY = 0;
+        mLastDX = 0;
+        mLastDY = 0;
+        mBestX = Integer.MIN_VALUE;
+        mBestTick = 0;
+    }
+
+    /**
+     * Checks whether this ghost did better than another: it got farther, or
+     * got as far sooner.
+     *
+     * @param other the other ghost
+     * @return whether or not this one is better
+     */
+    synchronized boolean isBetterThan(GhostRun other) {
+        if (mTicks == 0) {
+            return false;
+        }
+        synchronized (other) {
+            return (other.mTicks == 0) || (mBestX > other.mBestX)
+                    || ((mBestX == other.mBestX) && (mBestTick < other.mBestTick));
+        }
+    }
+
+    /**
+     * Returns the number of ticks.
+     *
+     * @return the number of ticks
+     */
+    synchronized int size() {
+        return mTicks;
+    }
+
+    /**
+     * Writes the ghost.
+     *
+     * @param out where to write
+     * @throws IOException if writing failed
+     */
+    synchronized void writeTo(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeInt(mTicks);
+        data.writeInt(mLength);
+        data.write(mData, 0, mLength);
+        data.flush();
+    }
+
+    /**
+     * Reads a ghost written by {@link #writeTo}.
+     *
+     * @param in where to read from
+     * @return the ghost
+     * @throws IOException if reading failed or it isn't a ghost
+     */
+    static GhostRun readFrom(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Not a ghost");
+        }
+        int version = data.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported ghost version: " + version);
+        }
+        int ticks = data.readInt();
+        int length = data.readInt();
+        // At least a byte a tick
+        if ((ticks < 0) || (length < ticks) || (length > ((long) ticks * MAX_TICK_BYTES))) {
+            throw new IOException("Corrupt ghost");
+        }
+        byte[] bytes = InputLog.readBytes(data, length);
+        // Go through it all to make sure it's whole and to find the best tick
+        GhostRun ghost = new GhostRun();
+        Player player = new Player();
+        player.start(bytes, length);
+        for (int i = 0; i < ticks; i++) {
+            if (!player.next()) {
+                throw new IOException("Corrupt ghost");
+            }
+            ghost.append(player.getX(), player.getY());
+        }
+        if (player.mOffset != length) {
+            throw new IOException("Corrupt ghost");
+        }
+        return ghost;
+    }
+
+    /**
+     * Maps signed integers to unsigned ones, so that small magnitudes of
+     * either sign stay small.
+     *
+     * @param n the integer
+     * @return the zigzag encoding
+     */
+    private static int zigzag(int n) {
+        return (n << 1) ^ (n >> 31);
+    }
+
+    /**
+     * Reverses {@link #zigzag}.
+     *
+     * @param n the zigzag encoding
+     * @return the integer
+     */
+    private static int unzigzag(int n) {
+        return (n >>> 1) ^ -(n & 1);
+    }
+
+    /**
+     * Writes an unsigned integer 7 bits at a time, low bits first, with the
+     * high bit of each byte set if more follow.
+     *
+     * @param out    where to write
+     * @param offset where in {@code out} to write
+     * @param n      the integer
+     * @return the offset after what was written
+     */
+    private static int putVarint(byte[] out, int offset, int n) {
+        while ((n & ~0x7F) != 0) {
+            out[offset++] = (byte) ((n & 0x7F) | 0x80);
+            n >>>= 7;
+        }
+        out[offset++] = (byte) n;
+        return offset;
+    }
+
+    /**
+     * Plays a ghost back one tick at a time. Can be pointed at another ghost
+     * without allocating, so one player lasts as long as the level.
+     */
+    static final class Player {
+
+        /**
+         * Encoded ticks.
+         */
+        private byte[] mData;
+        /**
+         * Number of bytes that can be read.
+         */
+        private int mLength;
+        /**
+         * Offset of the next tick.
+         */
+        private int mOffset;
+        /**
+         * Position of the last tick read.
+         */
+        private int mX, mY;
+        /**
+         * How far the blob moved on the last tick read.
+         */
+        private int mDX, mDY;
+
+        /**
+         * Starts playing a ghost from its first tick. The ghost must not be
+         * changed while it plays.
+         *
+         * @param ghost the ghost
+         */
+        void start(GhostRun ghost) {
+            synchronized (ghost) {
+                start(ghost.mData, ghost.mLength);
+            }
+        }
+
+        /**
+         * Starts playing encoded ticks from the first one.
+         *
+         * @param data   encoded ticks
+         * @param length number of bytes that can be read
+         */
+        private void start(byte[] data, int length) {
+            mData = data;
+            mLength = length;
+            mOffset = 0;
+            mX = 0;
+            mY = 0;
+            mDX = 0;
+            mDY = 0;
+        }
+
+        /**
+         * Moves on to the next tick.
+         *
+         * @return whether or not there was another tick
+         */
+        boolean next() {
+            if (mOffset >= mLength) {
+                return false;
+            }
+            int packed = mData[mOffset++] & 0xFF;
+            if (packed == ESCAPE) {
+                mDX += unzigzag(varint());
+                mDY += unzigzag(varint());
+            } else {
+                mDX += unzigzag(packed >> 4);
+                mDY += unzigzag(packed & 0xF);
+            }
+            mX += mDX;
+            mY += mDY;
+            return true;
+        }
+
+        /**
+         * Returns the x coordinate of the blob on the current tick.
+         *
+         * @return center x coordinate
+         */
+        int getX() {
+            return mX;
+        }
+
+        /**
+         * Returns the y coordinate of the blob on the current tick.
+         *
+         * @return center y coordinate
+         */
+        int getY() {
+            return mY;
+        }
+
+        /**
+         * Reads an unsigned integer written by {@link #putVarint}.
+         *
+         * @return the integer
+         */
+        private int varint() {
+            int n = 0;
+            for (int shift = 0; mOffset < mLength; shift += 7) {
+                byte b = mData[mOffset++];
+                n |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    break;
+                }
+            }
+            return n;
+        }
+    }
+}
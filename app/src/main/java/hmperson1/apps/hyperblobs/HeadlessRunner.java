@@ -0,0 +1,323 @@
+package hmperson1.apps.hyperblobs;
+
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+/**
+ * Steps a level with nothing drawn and, by default, no pacing, until a stop
+ * condition is met. Used to simulate minutes of play in seconds: replaying
+ * an {@link InputLog}, checking that a level can be finished, or measuring
+ * how fast the physics runs.
+ *
+ * @author HMPerson1
+ */
+final class HeadlessRunner {
+
+    /**
+     * Not stopped yet.
+     */
+    static final int RUNNING = 0;
+    /**
+     * Stopped after the most ticks allowed.
+     */
+    static final int STOP_TICKS = 1;
+    /**
+     * Stopped when the input ran out.
+     */
+    static final int STOP_INPUT = 2;
+    /**
+     * Stopped when the blob reached the goal.
+     */
+    static final int STOP_GOAL = 3;
+    /**
+     * Stopped when the blob hit a spike.
+     */
+    static final int STOP_DEATH = 4;
+    /**
+     * Name of each reason for stopping.
+     */
+    private static final String[] REASONS = {"running", "ticks", "input", "goal", "death"};
+    /**
+     * The physics being driven.
+     */
+    private final LevelPhysicsUpdater mPhysics;
+    /**
+     * Where the velocity of each tick comes from.
+     */
+    private final InputSource mInput;
+    /**
+     * Scratch array for the velocity of a tick.
+     */
+    private final float[] mVelocity = new float[2];
+    /**
+     * Most ticks to run.
+     */
+    private int mMaxTicks = Integer.MAX_VALUE;
+    /**
+     * Region the blob's center has to reach, in screen units, or
+     * {@code null}.
+     */
+    private int[] mGoal;
+    /**
+     * Whether or not to stop when the blob hits a spike.
+     */
+    private boolean mStopOnDeath = true;
+    /**
+     * Real time between ticks, in nanoseconds, or 0 to run as fast as
+     * possible.
+     */
+    private long mTickInterval;
+    /**
+     * Number of ticks run so far.
+     */
+    private int mTicks;
+    /**
+     * Why it stopped, or {@link #RUNNING}.
+     */
+    private int mStopReason = RUNNING;
+
+    /**
+     * Creates a runner at the start of a level, in a new world, so that it
+     * runs exactly like the session its input was recorded from.
+     *
+     * @param level the level, as loaded
+     * @param input where the velocity of each tick comes from
+     */
+    HeadlessRunner(LevelState level, InputSource input) {
+        mPhysics = new LevelPhysicsUpdater(level, LevelUpdater.LENGTH, false, true);
+        mInput = input;
+    }
+
+    /**
+     * Sets the most ticks to run.
+     *
+     * @param ticks the number of ticks
+     * @return this object for convenience
+     */
+    HeadlessRunner setMaxTicks(int ticks) {
+        mMaxTicks = ticks;
+        return this;
+    }
+
+    /**
+     * Stops once the center of the blob is in a region.
+     *
+     * @param left   left edge, in screen units
+     * @param bottom bottom edge, in screen units
+     * @param right  right edge, in screen units
+     * @param top    top edge, in screen units
+     * @return this object for convenience
+     */
+    HeadlessRunner setGoal(int left, int bottom, int right, int top) {
+        if ((left > right) || (bottom > top)) {
+            throw new IllegalArgumentException("Empty goal");
+        }
+        mGoal = new int[]{left, bottom, right, top};
+        return this;
+    }
+
+    /**
+     * Sets whether or not to stop when the blob hits a spike. It does by
+     * default. A recorded session that carried on after dying only replays
+     * in full if this is off; the level is then started over wherever the
+     * input says it was.
+     *
+     * @param stop whether or not to stop
+     * @return this object for convenience
+     */
+    HeadlessRunner setStopOnDeath(boolean stop) {
+        mStopOnDeath = stop;
+        return this;
+    }
+
+    /**
+     * Sets how fast to run compared to real time.
+     *
+     * @param scale how many times faster than real time, or 0 to run as fast
+     *              as possible, which is the default
+     * @return this object for convenience
+     */
+    HeadlessRunner setTimeScale(float scale) {
+        if (scale < 0) {
+            throw new IllegalArgumentException("Negative time scale: " + scale);
+        }
+        mTickInterval = (scale == 0) ? 0 : (long) (LevelUpdater.TICK / scale);
+        return this;
+    }
+
+    /**
+     * Runs one tick, unless a stop condition has been met.
+     *
+     * @return whether or not it is still running
+     */
+    boolean step() {
+        if (mStopReason != RUNNING) {
+            return false;
+        }
+        if (mTicks >= mMaxTicks) {
+            mStopReason = STOP_TICKS;
+            return false;
+        }
+        int next;
+        while ((next = mInput.next(mVelocity)) == InputSource.RESET) {
+            // The level was started over here, by dying or on purpose
+            mPhysics.reset();
+        }
+        if (next == InputSource.END) {
+            mStopReason = STOP_INPUT;
+            return false;
+        }
+        LevelState previous = mPhysics.getState();
+        mPhysics.setBlobVelocity(mVelocity[0], mVelocity[1]);
+        mPhysics.run();
+        // Nothing else saw it
+        mPhysics.recycle(previous);
+        mTicks++;
+
+        if (mStopOnDeath && mPhysics.isBlobDead()) {
+            mStopReason = STOP_DEATH;
+        } else if (mGoal != null) {
+            LevelState state = mPhysics.getState();
+            int x = state.getBlobX();
+            int y = state.getBlobY();
+            if ((x >= mGoal[0]) && (y >= mGoal[1]) && (x <= mGoal[2]) && (y <= mGoal[3])) {
+                mStopReason = STOP_GOAL;
+            }
+        }
+        return mStopReason == RUNNING;
+    }
+
+    /**
+     * Runs until a stop condition is met.
+     *
+     * @return how the run went
+     * @throws InterruptedException if interrupted while pacing
+     */
+    Result run() throws InterruptedException {
+        long start = System.nanoTime();
+        long nextTick = start;
+        int startTicks = mTicks;
+        while (step()) {
+            if (mTickInterval != 0) {
+                nextTick += mTickInterval;
+                long delay = nextTick - System.nanoTime();
+                if (delay > 0) {
+                    Thread.sleep(delay / 1000000, (int) (delay % 1000000));
+                }
+            }
+        }
+        return new Result(mTicks - startTicks, System.nanoTime() - start, mStopReason);
+    }
+
+    /**
+     * Returns the name of a reason for stopping.
+     *
+     * @param reason one of the {@code STOP_} constants, or {@link #RUNNING}
+     * @return the name
+     */
+    static String reasonName(int reason) {
+        return REASONS[reason];
+    }
+
+    /**
+     * Returns the world to the pool. This runner must not be used afterwards.
+     */
+    void release() {
+        mPhysics.release();
+    }
+
+    /**
+     * Returns the number of ticks run so far.
+     *
+     * @return the tick count
+     */
+    int getTicks() {
+        return mTicks;
+    }
+
+    /**
+     * Returns why it stopped.
+     *
+     * @return one of the {@code STOP_} constants, or {@link #RUNNING}
+     */
+    int getStopReason() {
+        return mStopReason;
+    }
+
+    /**
+     * Returns the number of bytes {@link #save} writes.
+     *
+     * @return the size, in bytes
+     */
+    int snapshotSize() {
+        return mPhysics.snapshotSize();
+    }
+
+    /**
+     * Writes exactly where everything is and how it moves, as
+     * {@link LevelPhysicsUpdater#save} does, such as to check that a replay
+     * ended up where the session it was recorded from did.
+     *
+     * @param out where to write; must have {@link #snapshotSize()} bytes left
+     */
+    void save(ByteBuffer out) {
+        mPhysics.save(out);
+    }
+
+    /**
+     * Returns the state after the last tick run. It is only valid until the
+     * next tick.
+     *
+     * @return the current state
+     */
+    LevelState getState() {
+        return mPhysics.getState();
+    }
+
+    /**
+     * How a run went.
+     */
+    static final class Result {
+
+        /**
+         * Number of ticks run.
+         */
+        final int ticks;
+        /**
+         * How long they took, in nanoseconds.
+         */
+        final long nanos;
+        /**
+         * Why it stopped: one of the {@code STOP_} constants.
+         */
+        final int reason;
+
+        /**
+         * Creates a result.
+         *
+         * @param ticks  number of ticks run
+         * @param nanos  how long they took, in nanoseconds
+         * @param reason why it stopped
+         */
+        Result(int ticks, long nanos, int reason) {
+            this.ticks = ticks;
+            this.nanos = nanos;
+            this.reason = reason;
+        }
+
+        /**
+         * Returns how many ticks were run per second of real time.
+         *
+         * @return ticks per second
+         */
+        double getTicksPerSecond() {
+            return (nanos == 0) ? 0 : ((ticks * 1e9) / nanos);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%d ticks in %.3f s (%.0f ticks/s), stopped on %s",
+                    ticks, nanos / 1e9, getTicksPerSecond(), REASONS[reason]);
+        }
+    }
+}
@@ -0,0 +1,388 @@
+package hmperson1.apps.hyperblobs;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * The velocity given to the blob on every tick of a session, along with the
+ * level it was played on, so that the session can be replayed exactly.
+ * Velocities are quantized, and stored as the zigzag varint encoded change
+ * from the previous tick, which is one byte per axis while the device is held
+ * still. The lowest bit of each tick's first varint marks a tick that came
+ * right after the level was started over, so that deaths and restarts replay
+ * too. Appending is thread-safe; once written, the ticks are never changed,
+ * so any number of {@link Reader}s can go through them at once.
+ *
+ * @author HMPerson1
+ */
+final class InputLog {
+
+    /**
+     * Start of every log: "HBIN".
+     */
+    private static final int MAGIC = 0x4842494E;
+    /**
+     * Version of the format written.
+     */
+    private static final int VERSION = 2;
+    /**
+     * Steps per m/s that velocities are quantized to.
+     */
+    private static final float STEPS_PER_UNIT = 1024;
+    /**
+     * Largest velocity that can be stored, in steps, so that the change from
+     * one tick to the next still fits in a tick's first varint with the reset
+     * bit.
+     */
+    private static final int MAX_STEPS = (1 << 29) - 1;
+    /**
+     * Fewest and most bytes a tick takes: two varints.
+     */
+    private static final int MIN_TICK_BYTES = 2, MAX_TICK_BYTES = 10;
+    /**
+     * Most bytes read at a time, so that a corrupt length fails on the
+     * missing bytes rather than on allocating them all up front.
+     */
+    private static final int READ_CHUNK = 64 * 1024;
+    /**
+     * ID of the level.
+     */
+    private final int mMajor, mMinor;
+    /**
+     * Encoded ticks.
+     */
+    private byte[] mData;
+    /**
+     * Number of bytes used in {@code mData}.
+     */
+    private int mLength;
+    /**
+     * Number of ticks.
+     */
+    private int mTicks;
+    /**
+     * Quantized velocity of the last tick appended.
+     */
+    private int mLastX, mLastY;
+    /**
+     * Whether or not the level was started over since the last tick
+     * appended.
+     */
+    private boolean mResetPending;
+
+    /**
+     * Creates an empty log.
+     *
+     * @param major major level ID
+     * @param minor minor level ID
+     */
+    InputLog(int major, int minor) {
+        this(major, minor, new byte[4096], 0, 0);
+    }
+
+    /**
+     * Creates a log from encoded ticks.
+     *
+     * @param major  major level ID
+     * @param minor  minor level ID
+     * @param data   encoded ticks
+     * @param length number of bytes used in {@code data}
+     * @param ticks  number of ticks
+     */
+    private InputLog(int major, int minor, byte[] data, int length, int ticks) {
+        mMajor = major;
+        mMinor = minor;
+        mData = data;
+        mLength = length;
+        mTicks = ticks;
+    }
+
+    /**
+     * Rounds a velocity to what can be stored. Velocities must be rounded
+     * before they are used, so that the replay does exactly the same thing.
+     *
+     * @param v the velocity, in m/s
+     * @return the nearest velocity that can be stored
+     */
+    static float quantize(float v) {
+        return steps(v) / STEPS_PER_UNIT;
+    }
+
+    /**
+     * Rounds a velocity to the nearest step, within what can be stored.
+     *
+     * @param v the velocity, in m/s
+     * @return the velocity, in steps
+     */
+    private static int steps(float v) {
+        return Math.max(-MAX_STEPS, Math.min(Math.round(v * STEPS_PER_UNIT), MAX_STEPS));
+    }
+
+    /**
+     * Appends a tick.
+     *
+     * @param x quantized x velocity, in m/s
+     * @param y quantized y velocity, in m/s
+     */
+    synchronized void append(float x, float y) {
+        int qx = steps(x);
+        int qy = steps(y);
+        if ((mLength + MAX_TICK_BYTES) > mData.length) {
+            // Logs that were read in are exactly full, and may be empty
+            mData = Arrays.copyOf(mData, Math.max(mData.length * 2, mLength + MAX_TICK_BYTES));
+        }
+        mLength = putVarint(mData, mLength, (zigzag(qx - mLastX) << 1) | (mResetPending ? 1 : 0));
+        mLength = putVarint(mData, mLength, zigzag(qy - mLastY));
+        mLastX = qx;
+        mLastY = qy;
+        mResetPending = false;
+        mTicks++;
+    }
+
+    /**
+     * Notes that the level was started over before the next tick.
+     */
+    synchronized void appendReset() {
+        mResetPending = true;
+    }
+
+    /**
+     * Returns the major ID of the level.
+     *
+     * @return major level ID
+     */
+    int getMajor() {
+        return mMajor;
+    }
+
+    /**
+     * Returns the minor ID of the level.
+     *
+     * @return minor level ID
+     */
+    int getMinor() {
+        return mMinor;
+    }
+
+    /**
+     * Returns the number of ticks.
+     *
+     * @return the number of ticks
+     */
+    synchronized int size() {
+        return mTicks;
+    }
+
+    /**
+     * Starts going through the ticks appended so far.
+     *
+     * @return a reader at the first tick
+     */
+    synchronized Reader reader() {
+        return new Reader(mData, mLength);
+    }
+
+    /**
+     * Writes the log.
+     *
+     * @param out where to write
+     * @throws IOException if writing failed
+     */
+    synchronized void writeTo(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeInt(mMajor);
+        data.writeInt(mMinor);
+        data.writeInt(mTicks);
+        data.writeInt(mLength);
+        data.write(mData, 0, mLength);
+        data.flush();
+    }
+
+    /**
+     * Reads a log written by {@link #writeTo}.
+     *
+     * @param in where to read from
+     * @return the log
+     * @throws IOException if reading failed or it isn't a log
+     */
+    static InputLog readFrom(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Not an input log");
+        }
+        int version = data.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported input log version: " + version);
+        }
+        int major = data.readInt();
+        int minor = data.readInt();
+        int ticks = data.readInt();
+        int length = data.readInt();
+        if ((ticks < 0) || (length < ((long) ticks * MIN_TICK_BYTES))
+                || (length > ((long) ticks * MAX_TICK_BYTES))) {
+            throw new IOException("Corrupt input log");
+        }
+        byte[] bytes = readBytes(data, length);
+        InputLog log = new InputLog(major, minor, bytes, length, ticks);
+        // Pick up where it left off, in case more is appended
+        Reader reader = log.reader();
+        float[] tick = new float[2];
+        for (int i = 0; i < ticks; i++) {
+            int next;
+            do {
+                next = reader.next(tick);
+            } while (next == InputSource.RESET);
+            if (next == InputSource.END) {
+                throw new IOException("Corrupt input log");
+            }
+        }
+        log.mLastX = reader.mX;
+        log.mLastY = reader.mY;
+        return log;
+    }
+
+    /**
+     * Reads a number of bytes, a chunk at a time, so that no more is
+     * allocated than the stream actually holds, give or take a chunk.
+     *
+     * @param in     where to read from
+     * @param length number of bytes
+     * @return the bytes
+     * @throws IOException if reading failed or the stream ended first
+     */
+    static byte[] readBytes(DataInputStream in, int length) throws IOException {
+        byte[] bytes = new byte[Math.min(length, READ_CHUNK)];
+        int read = 0;
+        while (read < length) {
+            if (read == bytes.length) {
+                bytes = Arrays.copyOf(bytes, (int) Math.min((long) read * 2, length));
+            }
+            int chunk = Math.min(bytes.length - read, READ_CHUNK);
+            in.readFully(bytes, read, chunk);
+            read += chunk;
+        }
+        return bytes;
+    }
+
+    /**
+     * Maps signed integers to unsigned ones, so that small magnitudes of
+     * either sign stay small.
+     *
+     * @param n the integer
+     * @return the zigzag encoding
+     */
+    private static int zigzag(int n) {
+        return (n << 1) ^ (n >> 31);
+    }
+
+    /**
+     * Reverses {@link #zigzag}.
+     *
+     * @param n the zigzag encoding
+     * @return the integer
+     */
+    private static int unzigzag(int n) {
+        return (n >>> 1) ^ -(n & 1);
+    }
+
+    /**
+     * Writes an unsigned integer 7 bits at a time, low bits first, with the
+     * high bit of each byte set if more follow.
+     *
+     * @param out    where to write
+     * @param offset where in {@code out} to write
+     * @param n      the integer
+     * @return the offset after what was written
+     */
+    private static int putVarint(byte[] out, int offset, int n) {
+        while ((n & ~0x7F) != 0) {
+            out[offset++] = (byte) ((n & 0x7F) | 0x80);
+            n >>>= 7;
+        }
+        out[offset++] = (byte) n;
+        return offset;
+    }
+
+    /**
+     * Goes through the ticks of a log in order. Allocates nothing.
+     */
+    static final class Reader implements InputSource {
+
+        /**
+         * Encoded ticks.
+         */
+        private final byte[] mData;
+        /**
+         * Number of bytes that can be read.
+         */
+        private final int mLength;
+        /**
+         * Offset of the next tick.
+         */
+        private int mOffset;
+        /**
+         * Quantized velocity of the last tick read.
+         */
+        private int mX, mY;
+        /**
+         * Whether or not the last tick read came after a reset that has been
+         * returned, but the tick itself hasn't.
+         */
+        private boolean mHeld;
+
+        /**
+         * Creates a reader at the first tick.
+         *
+         * @param data   encoded ticks
+         * @param length number of bytes that can be read
+         */
+        Reader(byte[] data, int length) {
+            mData = data;
+            mLength = length;
+        }
+
+        @Override
+        public int next(float[] out) {
+            if (mHeld) {
+                mHeld = false;
+            } else {
+                if (mOffset >= mLength) {
+                    return END;
+                }
+                int first = varint();
+                mX += unzigzag(first >>> 1);
+                mY += unzigzag(varint());
+                if ((first & 1) != 0) {
+                    mHeld = true;
+                    return RESET;
+                }
+            }
+            out[0] = mX / STEPS_PER_UNIT;
+            out[1] = mY / STEPS_PER_UNIT;
+            return TICK;
+        }
+
+        /**
+         * Reads an unsigned integer written by {@link #putVarint}.
+         *
+         * @return the integer
+         */
+        private int varint() {
+            int n = 0;
+            for (int shift = 0; mOffset < mLength; shift += 7) {
+                byte b = mData[mOffset++];
+                n |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    break;
+                }
+            }
+            return n;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package hmperson1.apps.hyperblobs;
+
+/**
+ * Gives the velocity of the blob for each tick when nobody is holding the
+ * device, such as when replaying an {@link InputLog}.
+ *
+ * @author HMPerson1
+ * @see HeadlessRunner
+ */
+interface InputSource {
+
+    /**
+     * Returned by {@link #next} when it gave the velocity for a tick.
+     */
+    int TICK = 0;
+    /**
+     * Returned by {@link #next} when the level was started over before the
+     * next tick, as {@link LevelPhysicsUpdater#reset()} does. The velocity
+     * isn't given; {@link #next} is called again for it.
+     */
+    int RESET = 1;
+    /**
+     * Returned by {@link #next} when there are no more ticks; the run ends.
+     */
+    int END = 2;
+
+    /**
+     * Gives the velocity for the next tick, or says the level was started
+     * over first.
+     *
+     * @param velocity array to put the x and y velocity in, in m/s
+     * @return {@link #TICK}, {@link #RESET} or {@link #END}
+     */
+    int next(float[] velocity);
+}
@@ -1,15 +1,26 @@
 package hmperson1.apps.hyperblobs;
 
 import android.app.Activity;
+import android.content.SharedPreferences;
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
 import android.os.AsyncTask;
 import android.os.Bundle;
+import android.preference.PreferenceManager;
 import android.util.Log;
 import android.view.View;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
 /**
  * @author HMPerson1
  */
@@ -19,6 +30,30 @@ public class LevelActivity extends Activity implements SensorEventListener {
      * Name for logging.
      */
     static final String NAME_LOGGING = "HyperBlobs";
+    /**
+     * Intent extra that turns on {@link FrameTracer}, e.g. with
+     * {@code adb shell am start --ez hmperson1.apps.hyperblobs.Trace true ...}.
+     */
+    static final String EXTRA_TRACE = "hmperson1.apps.hyperblobs.Trace";
+    /**
+     * Key of the preference for showing the performance overlay.
+     */
+    static final String PREF_PERF_HUD = "perf_hud";
+    /**
+     * Key of the preference for drawing round things with smooth edges.
+     */
+    static final String PREF_ANALYTIC_SHAPES = "analytic_shapes";
+    /**
+     * Intent extra that records the input of the session into an
+     * {@link InputLog}, e.g. with
+     * {@code adb shell am start --ez hmperson1.apps.hyperblobs.Record true ...}.
+     */
+    static final String EXTRA_RECORD = "hmperson1.apps.hyperblobs.Record";
+    /**
+     * Key of the saved snapshot of the level, so that it can carry on after
+     * the process is killed.
+     */
+    private static final String STATE_SNAPSHOT = "hmperson1.apps.hyperblobs.Snapshot";
     /**
      * Our updater thread.
      */
@@ -27,6 +62,19 @@ public class LevelActivity extends Activity implements SensorEventListener {
      * ID of the level.
      */
     int major, minor;
+    /**
+     * Input being recorded, or {@code null}.
+     */
+    private InputLog mRecording;
+    /**
+     * Where {@code mRecording} is saved.
+     */
+    private File mRecordingFile;
+    /**
+     * Snapshot to carry on from instead of loading the level, or
+     * {@code null}.
+     */
+    private byte[] mSnapshot;
     /**
      * The {@link SensorManager}.
      */
@@ -43,11 +91,22 @@ public class LevelActivity extends Activity implements SensorEventListener {
         getActionBar().hide();
         setContentView(R.layout.activity_level);
         LevelLoader.init(getResources());
-        GLPolyTools.init(getResources());
+        TextureCache.init(getResources());
 
         int[] levelId = getIntent().getIntArrayExtra("hmperson1.apps.hyperblobs.LevelId");
         major = levelId[0];
         minor = levelId[1];
+        if (savedInstanceState != null) {
+            mSnapshot = savedInstanceState.getByteArray(STATE_SNAPSHOT);
+        }
+        if (getIntent().getBooleanExtra(EXTRA_TRACE, false)) {
+            FrameTracer.clear();
+            FrameTracer.setEnabled(true);
+        }
+        if (getIntent().getBooleanExtra(EXTRA_RECORD, false)) {
+            mRecording = new InputLog(major, minor);
+            mRecordingFile = new File(getFilesDir(), "input-" + System.currentTimeMillis() + ".hbin");
+        }
 
         mSensorManager = (SensorManager) getSystemService(SENSOR_SERVICE);
         if (mSensorManager.getDefaultSensor(Sensor.TYPE_GRAVITY) != null) {
@@ -90,13 +149,102 @@ public class LevelActivity extends Activity implements SensorEventListener {
         if ((mSensorManager != null) && (mSensor != null)) {
             mSensorManager.unregisterListener(this, mSensor);
         }
+        if (FrameTracer.isEnabled() || (mRecording != null)) {
+            saveDiagnostics();
+        }
+        if (mUpdater != null) {
+            saveGhost();
+        }
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        if (mUpdater != null) {
+            outState.putByteArray(STATE_SNAPSHOT, mUpdater.snapshot());
+        }
     }
 
     @Override
-    protected void onStop() {
-        super.onStop();
-        mUpdater.setRunning(false);
-        mUpdater.interrupt();
+    protected void onDestroy() {
+        super.onDestroy();
+        if (mUpdater != null) {
+            mUpdater.quit();
+            mUpdater.release();
+        }
+    }
+
+    /**
+     * Writes the trace and the input recorded so far to the app's files
+     * directory, off the UI thread.
+     */
+    private void saveDiagnostics() {
+        final File trace = FrameTracer.isEnabled()
+                ? new File(getFilesDir(), "trace-" + System.currentTimeMillis() + ".json") : null;
+        final InputLog recording = mRecording;
+        final File recordingFile = mRecordingFile;
+        new Thread("SaveDiagnostics") {
+            @Override
+            public void run() {
+                if (trace != null) {
+                    try {
+                        FrameTracer.dump(trace);
+                        Log.i(NAME_LOGGING, "Wrote trace: " + trace);
+                    } catch (IOException e) {
+                        Log.w(NAME_LOGGING, "Failed to write trace: " + trace, e);
+                    }
+                }
+                if (recording != null) {
+                    try {
+                        OutputStream out = new BufferedOutputStream(new FileOutputStream(recordingFile));
+                        try {
+                            recording.writeTo(out);
+                        } finally {
+                            out.close();
+                        }
+                        Log.i(NAME_LOGGING, "Wrote input: " + recordingFile);
+                    } catch (IOException e) {
+                        Log.w(NAME_LOGGING, "Failed to write input: " + recordingFile, e);
+                    }
+                }
+            }
+        }.start();
+    }
+
+    /**
+     * Returns where the ghost of the best attempt at this level is kept.
+     *
+     * @return the ghost file
+     */
+    private File getGhostFile() {
+        return new File(getFilesDir(), "ghost-" + major + "-" + minor + ".hbgh");
+    }
+
+    /**
+     * Writes the ghost of the best attempt, if there is a new one, off the UI
+     * thread.
+     */
+    private void saveGhost() {
+        final GhostRun ghost = mUpdater.takeBestGhost();
+        if (ghost == null) {
+            return;
+        }
+        final File file = getGhostFile();
+        new Thread("SaveGhost") {
+            @Override
+            public void run() {
+                try {
+                    OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+                    try {
+                        ghost.writeTo(out);
+                    } finally {
+                        out.close();
+                    }
+                } catch (IOException e) {
+                    Log.w(NAME_LOGGING, "Failed to write ghost: " + file, e);
+                }
+            }
+        }.start();
     }
 
     /**
@@ -109,18 +257,55 @@ public class LevelActivity extends Activity implements SensorEventListener {
 
         @Override
         protected LevelUpdater doInBackground(Void... params) {
-            LevelPhysicsUpdater.loadClasses();
+            LevelPhysicsUpdater.prewarm();
 
-            LevelLoader loader = new LevelLoader(major, minor);
-            LevelState level;
+            LevelUpdater updater = null;
+            if (mSnapshot != null) {
+                try {
+                    updater = LevelUpdater.fromSnapshot(mSnapshot);
+                } catch (IllegalArgumentException e) {
+                    Log.w(NAME_LOGGING, "Failed to restore snapshot; starting over", e);
+                }
+            }
+
+            if (updater == null) {
+                LevelLoader loader = new LevelLoader(major, minor);
+                LevelState level;
+                try {
+                    level = loader.call();
+                } catch (Exception e) {
+                    Log.i(NAME_LOGGING, "Failed to load level: " + loader.resName, e);
+                    return null;
+                }
+                // A recording only replays exactly from a new world
+                updater = new LevelUpdater(level, mRecording != null);
+            }
+
+            updater.setGhost(loadGhost());
+            return updater;
+        }
+
+        /**
+         * Reads the ghost of the best attempt at this level, if there is one.
+         *
+         * @return the ghost, or {@code null}
+         */
+        private GhostRun loadGhost() {
+            File file = getGhostFile();
+            if (!file.exists()) {
+                return null;
+            }
             try {
-                level = loader.call();
-            } catch (Exception e) {
-                Log.i(NAME_LOGGING, "Failed to load level: " + loader.resName, e);
+                InputStream in = new BufferedInputStream(new FileInputStream(file));
+                try {
+                    return GhostRun.readFrom(in);
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                Log.w(NAME_LOGGING, "Failed to read ghost: " + file, e);
                 return null;
             }
-
-            return new LevelUpdater(level);
         }
 
         @SuppressWarnings("RefusedBequest")
@@ -133,6 +318,10 @@ public class LevelActivity extends Activity implements SensorEventListener {
             findViewById(R.id.progress).setVisibility(View.GONE);
 
             // Get this show on the road
+            SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(LevelActivity.this);
+            mUpdater.setPerfHudShown(prefs.getBoolean(PREF_PERF_HUD, false));
+            mUpdater.getRenderer().setAnalyticShapes(prefs.getBoolean(PREF_ANALYTIC_SHAPES, true));
+            mUpdater.setRecording(mRecording);
             mUpdater.start();
             setContentView(new LevelView(LevelActivity.this, result.getRenderer()));
         }
@@ -8,8 +8,10 @@ import android.opengl.Matrix;
 
 import org.jetbrains.annotations.NonNls;
 
+import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
 import java.nio.ShortBuffer;
+import java.util.Arrays;
 import java.util.List;
 
 import javax.microedition.khronos.egl.EGLConfig;
@@ -29,25 +31,176 @@ class LevelDrawer implements GLSurfaceView.Renderer {
     @NonNls
     private static final String VERTEX_SHADER_CODE = ""
             + "uniform mat4 uMVPMatrix;"
-            + "attribute vec4 aPosition;"
+            + "attribute vec2 aPosition;"
             + "attribute vec2 aTexCoord;"
             + "varying vec2 vTexCoord;"
             + "void main() {"
             + "  vTexCoord = aTexCoord;"
-            + "  gl_Position = uMVPMatrix * aPosition;"
+            + "  gl_Position = uMVPMatrix * vec4(aPosition, 0.0, 1.0);"
             + "}";
     /**
-     * Fragment Shader.
+     * Fragment Shader. Textures without an alpha channel of their own get it
+     * from {@code uAlpha}, which is white otherwise.
      */
     @NonNls
     private static final String FRAGMENT_SHADER_CODE = ""
             + "precision mediump float;"
             + "uniform sampler2D uTexture;"
+            + "uniform sampler2D uAlpha;"
+            + "uniform vec4 uColor;"
+            + "varying vec2 vTexCoord;"
+            + "void main() {"
+            + "  vec4 color = uColor * texture2D(uTexture, vTexCoord);"
+            + "  gl_FragColor = vec4(color.rgb, color.a * texture2D(uAlpha, vTexCoord).r);"
+            + "}";
+    /**
+     * Vertex Shader for analytic shapes. Also passes on the untransformed
+     * position so the fragment shader can measure distances in model space.
+     */
+    @NonNls
+    private static final String SDF_VERTEX_SHADER_CODE = ""
+            + "uniform mat4 uMVPMatrix;"
+            + "attribute vec2 aPosition;"
+            + "attribute vec2 aTexCoord;"
+            + "varying vec2 vTexCoord;"
+            + "varying vec2 vLocal;"
+            + "void main() {"
+            + "  vTexCoord = aTexCoord;"
+            + "  vLocal = aPosition;"
+            + "  gl_Position = uMVPMatrix * vec4(aPosition, 0.0, 1.0);"
+            + "}";
+    /**
+     * Fragment Shader for analytic shapes. Computes the signed distance to the
+     * edge of a unit circle ({@code uShape == 0}) or to a unit hexagram made of
+     * two equilateral triangles ({@code uShape == 1}) and turns it into
+     * coverage over {@code uSmoothing} model units.
+     */
+    @NonNls
+    private static final String SDF_FRAGMENT_SHADER_CODE = ""
+            + "precision mediump float;"
+            + "uniform sampler2D uTexture;"
+            + "uniform sampler2D uAlpha;"
             + "uniform vec4 uColor;"
+            + "uniform int uShape;"
+            + "uniform float uSmoothing;"
             + "varying vec2 vTexCoord;"
+            + "varying vec2 vLocal;"
+            // Equilateral triangle with a circumradius of 1, pointing up
+            + "float triangle(vec2 p) {"
+            + "  const float k = 1.7320508;"
+            + "  const float r = 0.8660254;"
+            + "  p.x = abs(p.x) - r;"
+            + "  p.y = p.y + r / k;"
+            + "  if (p.x + k * p.y > 0.0) p = vec2(p.x - k * p.y, -k * p.x - p.y) / 2.0;"
+            + "  p.x -= clamp(p.x, -2.0 * r, 0.0);"
+            + "  return -length(p) * sign(p.y);"
+            + "}"
+            + "void main() {"
+            + "  float d;"
+            + "  if (uShape == 1) {"
+            // Same orientations as polygon(3) and polygonOff(3)
+            + "    d = min(triangle(vec2(-vLocal.y, vLocal.x)), triangle(vec2(vLocal.y, -vLocal.x)));"
+            + "  } else {"
+            + "    d = length(vLocal) - 1.0;"
+            + "  }"
+            + "  float coverage = clamp(0.5 - d / uSmoothing, 0.0, 1.0);"
+            + "  vec4 color = uColor * texture2D(uTexture, vTexCoord);"
+            + "  gl_FragColor = vec4(color.rgb, color.a * texture2D(uAlpha, vTexCoord).r * coverage);"
+            + "}";
+    /**
+     * Vertex Shader for particles. Each vertex is a whole particle: its
+     * position, diameter and alpha.
+     */
+    @NonNls
+    private static final String PARTICLE_VERTEX_SHADER_CODE = ""
+            + "uniform mat4 uMVPMatrix;"
+            + "uniform float uPointScale;"
+            + "attribute vec4 aPosition;"
+            + "varying float vAlpha;"
+            + "varying float vSize;"
+            + "void main() {"
+            + "  vAlpha = aPosition.w;"
+            + "  vSize = aPosition.z * uPointScale;"
+            + "  gl_PointSize = vSize;"
+            + "  gl_Position = uMVPMatrix * vec4(aPosition.xy, 0.0, 1.0);"
+            + "}";
+    /**
+     * Fragment Shader for particles. Draws each point as an antialiased
+     * circle.
+     */
+    @NonNls
+    private static final String PARTICLE_FRAGMENT_SHADER_CODE = ""
+            + "precision mediump float;"
+            + "uniform vec4 uColor;"
+            + "varying float vAlpha;"
+            + "varying float vSize;"
             + "void main() {"
-            + "  gl_FragColor = uColor * texture2D(uTexture, vTexCoord);"
+            + "  float d = length(gl_PointCoord * 2.0 - 1.0);"
+            + "  float coverage = clamp((1.0 - d) * vSize * 0.5, 0.0, 1.0);"
+            + "  gl_FragColor = vec4(uColor.rgb, uColor.a * vAlpha * coverage);"
             + "}";
+    /**
+     * Color of the particles of each emitter of a {@link ParticleSystem}.
+     */
+    private static final int[] PARTICLE_COLORS = {0xFFFFD080, 0x60FFFFFF, 0xFFFF6040};
+    /**
+     * Number of bytes needed to store a float.
+     */
+    private static final int BYTES_PER_FLOAT = Float.SIZE / Byte.SIZE;
+    /**
+     * Value of {@code uShape} for a circle.
+     */
+    private static final int SHAPE_CIRCLE = 0;
+    /**
+     * Value of {@code uShape} for a hexagram.
+     */
+    private static final int SHAPE_HEXAGRAM = 1;
+    /**
+     * Index of {@code mShapeProgram} in {@code mPrograms}.
+     */
+    private static final int PROGRAM_SHAPE = 0;
+    /**
+     * Index of {@code mSdfProgram} in {@code mPrograms}.
+     */
+    private static final int PROGRAM_SDF = 1;
+    /**
+     * Index of {@code mParticleProgram} in {@code mPrograms}.
+     */
+    private static final int PROGRAM_PARTICLE = 2;
+    /**
+     * Layers things are drawn in, from the back.
+     */
+    private static final int LAYER_WALLS = 0, LAYER_TRAIL = 1, LAYER_GHOST = 2, LAYER_SPIKES = 3, LAYER_BLOB = 4,
+            LAYER_EFFECTS = 5;
+    /**
+     * Color of the ghost: a see-through blob.
+     */
+    private static final int GHOST_COLOR = 0x60FFFFFF;
+    /**
+     * Color of the panel behind the performance overlay: see-through black,
+     * so that the white text shows up on any background.
+     */
+    private static final int HUD_PANEL_COLOR = 0xA0000000;
+    /**
+     * Attribute index of {@code aPosition} in every program.
+     */
+    private static final int ATTRIB_POSITION = 0;
+    /**
+     * Attribute index of {@code aTexCoord} in every program.
+     */
+    private static final int ATTRIB_TEX_COORD = 1;
+    /**
+     * Time allowed for uploading textures each frame, in nanoseconds.
+     */
+    private static final long TEXTURE_UPLOAD_BUDGET = 2000000;
+    /**
+     * Default lowest fraction of the screen's resolution to draw at.
+     */
+    private static final float DEFAULT_MIN_SCALE = 0.5f;
+    /**
+     * Default highest fraction of the screen's resolution to draw at.
+     */
+    private static final float DEFAULT_MAX_SCALE = 1.0f;
     /**
      * Lock for changing {@code mNextState}.
      */
@@ -72,6 +225,54 @@ class LevelDrawer implements GLSurfaceView.Renderer {
      * View Matrix.
      */
     private final float[] mVMatrix = new float[16];
+    /**
+     * Where all OpenGL calls go.
+     */
+    private final GLBackend mGL;
+    /**
+     * Tracks OpenGL state to skip redundant calls.
+     */
+    private final GLStateCache mGLState;
+    /**
+     * Decodes and uploads textures.
+     */
+    private final TextureCache mTextures;
+    /**
+     * Offscreen framebuffer for drawing at less than full resolution.
+     */
+    private final RenderTarget mTarget;
+    /**
+     * Picks the resolution to draw at.
+     */
+    private final ResolutionScaler mScaler = new ResolutionScaler(DEFAULT_MIN_SCALE, DEFAULT_MAX_SCALE);
+    /**
+     * Draws of the current frame, sorted before they are drawn.
+     */
+    private final RenderQueue mQueue = new RenderQueue(64);
+    /**
+     * Every program, by index.
+     */
+    private final Program[] mPrograms = new Program[3];
+    /**
+     * Buffer holding the particles of each emitter, or 0 if there is none yet.
+     */
+    private final int[] mParticleBuffers = new int[ParticleSystem.EMITTERS];
+    /**
+     * Scratch array for generating names.
+     */
+    private final int[] mNames = new int[1];
+    /**
+     * Particles to draw, or {@code null}.
+     */
+    private volatile ParticleSystem mParticles;
+    /**
+     * Particles being drawn in the current frame.
+     */
+    private ParticleSystem.Frame mParticleFrame;
+    /**
+     * Ids of the textures in {@code mTextures}.
+     */
+    private final int mTexBlob, mTexSpike, mTexWall;
     /**
      * Cached float array for colors.
      */
@@ -84,87 +285,237 @@ class LevelDrawer implements GLSurfaceView.Renderer {
      * Data that will be drawn on the next {@code onDrawFrame()}.
      */
     private LevelState mNextState;
+    /**
+     * Data that was drawn and replaced, to be handed back, or {@code null}.
+     */
+    private LevelState mFreeState;
+    /**
+     * Number of states given since the last frame, drawn or not.
+     */
+    private int mStatesSinceFrame;
     /**
      * Limits of the camera range.
      */
     private float mCamLeft, mCamRight;
     /**
-     * Used to pass in the transformation matrix. (Uniform)
+     * Half of the width of the view, in world units.
+     */
+    private float mHalfWidth;
+    /**
+     * Indices of the walls that are in view.
+     */
+    private int[] mVisibleWalls = new int[0];
+    /**
+     * Size of the screen, in pixels.
+     */
+    private int mScreenWidth, mScreenHeight;
+    /**
+     * Number of draw calls made so far in the current frame.
      */
-    private int muMVPMatrixHandle;
+    private int mDrawCalls;
     /**
-     * Used to pass in model position information. (Attribute)
+     * Performance overlay, or {@code null} if it is hidden.
      */
-    private int maPositionHandle;
+    private volatile PerfHud mHud;
     /**
-     * Used to pass in model color information. (Uniform)
+     * Number of pixels drawn per world unit in the current frame.
      */
-    private int muColorHandle;
+    private float mPixelsPerUnit;
     /**
-     * Used to pass in texture information. (Uniform)
+     * Whether or not round entities are drawn as single quads with analytic
+     * edges instead of polygons.
      */
-    private int muTexHandle;
+    private volatile boolean mAnalyticShapes = true;
     /**
-     * Used to pass in texture coordinate information. (Attribute)
+     * Told whenever there is a new state to draw, or {@code null}.
      */
-    private int maTexCoordHandle;
+    private volatile Runnable mOnStateListener;
     /**
-     * Handle to the blob texture data.
+     * Program for plain textured polygons.
      */
-    private int mTexBlobHandle;
+    private Program mShapeProgram;
     /**
-     * Handle to the spike texture data.
+     * Program for round entities drawn with a signed distance function.
      */
-    private int mTexSpikeHandle;
+    private Program mSdfProgram;
     /**
-     * Handle to the wall texture data.
+     * Program for particles.
      */
-    private int mTexWallHandle;
+    private Program mParticleProgram;
+    /**
+     * Handles to the blob texture data and its alpha for the current frame.
+     */
+    private int mTexBlobHandle, mTexBlobAlphaHandle;
+    /**
+     * Handles to the spike texture data and its alpha for the current frame.
+     */
+    private int mTexSpikeHandle, mTexSpikeAlphaHandle;
+    /**
+     * Handles to the wall texture data and its alpha for the current frame.
+     */
+    private int mTexWallHandle, mTexWallAlphaHandle;
+
+    /**
+     * Creates a drawer that uses the device's OpenGL ES 2.0 implementation.
+     */
+    LevelDrawer() {
+        this(new GLES20Backend());
+    }
+
+    /**
+     * Creates a drawer that sends all of its OpenGL calls to the given backend.
+     *
+     * @param gl the backend
+     */
+    LevelDrawer(GLBackend gl) {
+        mGL = gl;
+        mGLState = new GLStateCache(gl);
+        mTarget = new RenderTarget(gl, mGLState);
+
+        // Start decoding textures now, before there is even a surface
+        mTextures = new TextureCache(gl, mGLState);
+        mTexBlob = mTextures.request(R.drawable.blob);
+        mTexSpike = mTextures.request(R.drawable.spike);
+        mTexWall = mTextures.request(R.drawable.wall);
+    }
 
     /**
      * Creates a program with both shaders.
      *
+     * @param vertexCode   source of the vertex shader
+     * @param fragmentCode source of the fragment shader
      * @return the program handle
      */
-    private static int createProgram() {
+    private int createProgram(String vertexCode, String fragmentCode) {
         // Load vertex shader
-        int vShader = GLES20.glCreateShader(GLES20.GL_VERTEX_SHADER);
-        GLES20.glShaderSource(vShader, VERTEX_SHADER_CODE);
-        GLES20.glCompileShader(vShader);
+        int vShader = mGL.glCreateShader(GLES20.GL_VERTEX_SHADER);
+        mGL.glShaderSource(vShader, vertexCode);
+        mGL.glCompileShader(vShader);
+
+        // Load fragment shader
+        int fShader = mGL.glCreateShader(GLES20.GL_FRAGMENT_SHADER);
+        mGL.glShaderSource(fShader, fragmentCode);
+        mGL.glCompileShader(fShader);
+
+        // Create program, with the same attribute indices in every program
+        int program = mGL.glCreateProgram();
+        mGL.glAttachShader(program, vShader);
+        mGL.glAttachShader(program, fShader);
+        mGL.glBindAttribLocation(program, ATTRIB_POSITION, "aPosition");
+        mGL.glBindAttribLocation(program, ATTRIB_TEX_COORD, "aTexCoord");
+        mGL.glLinkProgram(program);
 
-        // Load vertex shader
-        int fShader = GLES20.glCreateShader(GLES20.GL_FRAGMENT_SHADER);
-        GLES20.glShaderSource(fShader, FRAGMENT_SHADER_CODE);
-        GLES20.glCompileShader(fShader);
+        return program;
+    }
+
+    /**
+     * Sets whether round entities are drawn as single quads whose edges are
+     * computed in the fragment shader, or as regular polygons.
+     *
+     * @param analytic whether or not to use analytic shapes
+     */
+    void setAnalyticShapes(boolean analytic) {
+        mAnalyticShapes = analytic;
+    }
 
-        // Create program
-        int program = GLES20.glCreateProgram();
-        GLES20.glAttachShader(program, vShader);
-        GLES20.glAttachShader(program, fShader);
-        GLES20.glLinkProgram(program);
+    /**
+     * Sets the bounds of the fraction of the screen's resolution to draw at.
+     * Within them, the resolution is lowered when frames can't keep up with
+     * the states given and raised again when they can. May be called from
+     * any thread.
+     *
+     * @param min lowest fraction, more than 0
+     * @param max highest fraction, at most 1
+     */
+    void setRenderScale(float min, float max) {
+        mScaler.setBounds(min, max);
+    }
 
-        return program;
+    /**
+     * Sets the particles to draw. May be called from any thread.
+     *
+     * @param particles the particles, or {@code null} for none
+     */
+    void setParticles(ParticleSystem particles) {
+        mParticles = particles;
+    }
+
+    /**
+     * Shows an overlay with performance numbers, and starts recording how long
+     * frames take into them. May be called from any thread.
+     *
+     * @param stats where to record and read the numbers, or {@code null} to
+     *              hide the overlay
+     */
+    void setPerfStats(PerfStats stats) {
+        mHud = (stats != null) ? new PerfHud(mGL, mGLState, stats) : null;
+    }
+
+    /**
+     * Releases the decoded textures. May be called from any thread.
+     */
+    void release() {
+        mTextures.release();
     }
 
     /**
-     * Sets the data to be drawn on the next {@code onDrawFrame()}.
+     * Sets the data to be drawn on the next {@code onDrawFrame()}, and hands
+     * back one that will never be drawn again: either the previous one, if it
+     * was never drawn, or one that has been replaced since.
      *
      * @param state the state from {@code LevelUpdater}
+     * @return a state that is no longer used, or {@code null}
      */
-    void setState(LevelState state) {
+    LevelState setState(LevelState state) {
+        LevelState free;
         synchronized (mNextStateLock) {
+            if (mNextState != null) {
+                free = mNextState;
+            } else {
+                free = mFreeState;
+                mFreeState = null;
+            }
             mNextState = state;
+            mStatesSinceFrame++;
+        }
+        Runnable listener = mOnStateListener;
+        if (listener != null) {
+            listener.run();
         }
+        return free;
+    }
+
+    /**
+     * Sets what to tell whenever there is a new state to draw. It is run on
+     * the thread that gave the state.
+     *
+     * @param listener what to run, or {@code null}
+     */
+    void setOnStateListener(Runnable listener) {
+        mOnStateListener = listener;
+    }
+
+    /**
+     * Returns the state cache used for drawing, whose counters tell how many
+     * calls were issued and skipped. Only valid on the GL thread.
+     *
+     * @return the state cache
+     */
+    GLStateCache getStateCache() {
+        return mGLState;
     }
 
     @Override
     public void onSurfaceCreated(GL10 gl, EGLConfig config) {
+        // This is a new context
+        mGLState.invalidate();
+
         // Set OpenGL settings
-        GLES20.glCullFace(GLES20.GL_BACK);
-        GLES20.glEnable(GLES20.GL_BLEND);
-        GLES20.glBlendFunc(GLES20.GL_SRC_ALPHA, GLES20.GL_ONE_MINUS_SRC_ALPHA);
+        mGL.glCullFace(GLES20.GL_BACK);
+        mGLState.setBlend(true);
+        mGLState.blendFunc(GLES20.GL_SRC_ALPHA, GLES20.GL_ONE_MINUS_SRC_ALPHA);
         GLPolyTools.toGlColor(mColor, Color.LTGRAY);
-        GLES20.glClearColor(mColor[0], mColor[1], mColor[2], mColor[3]);
+        mGL.glClearColor(mColor[0], mColor[1], mColor[2], mColor[3]);
 
         // Create the view matrix
         Matrix.setLookAtM(mVMatrix, 0,
@@ -173,46 +524,67 @@ class LevelDrawer implements GLSurfaceView.Renderer {
                 +0.0f, +1.0f, +0.0f) // up vector
         ;
 
-        // Initialize program
-        int program = createProgram();
-        // Get handles
-        muMVPMatrixHandle = GLES20.glGetUniformLocation(program, "uMVPMatrix");
-        muColorHandle = GLES20.glGetUniformLocation(program, "uColor");
-        muTexHandle = GLES20.glGetUniformLocation(program, "uTexture");
-        maPositionHandle = GLES20.glGetAttribLocation(program, "aPosition");
-        maTexCoordHandle = GLES20.glGetAttribLocation(program, "aTexCoord");
-
-        GLES20.glUseProgram(program);
-
-        // Load textures
-        int[] tmp = new int[3];
-        GLES20.glGenTextures(tmp.length, tmp, 0);
-
-        mTexBlobHandle = tmp[0];
-        mTexSpikeHandle = tmp[1];
-        mTexWallHandle = tmp[2];
-
-        GLPolyTools.loadTexture(mTexBlobHandle, R.drawable.blob);
-        GLPolyTools.loadTexture(mTexSpikeHandle, R.drawable.spike);
-        GLPolyTools.loadTexture(mTexWallHandle, R.drawable.wall);
+        // Initialize programs
+        mShapeProgram = new Program(mGL, createProgram(VERTEX_SHADER_CODE, FRAGMENT_SHADER_CODE));
+        mSdfProgram = new Program(mGL, createProgram(SDF_VERTEX_SHADER_CODE, SDF_FRAGMENT_SHADER_CODE));
+        mPrograms[PROGRAM_SHAPE] = mShapeProgram;
+        mPrograms[PROGRAM_SDF] = mSdfProgram;
+        mParticleProgram = new Program(mGL, createProgram(PARTICLE_VERTEX_SHADER_CODE, PARTICLE_FRAGMENT_SHADER_CODE));
+        mPrograms[PROGRAM_PARTICLE] = mParticleProgram;
+        Arrays.fill(mParticleBuffers, 0);
+
+        // Textures are uploaded again from what was already decoded
+        mTextures.onContextCreated();
+        mTarget.onContextCreated();
+        mScaler.reset();
+        PerfHud hud = mHud;
+        if (hud != null) {
+            hud.onContextCreated();
+        }
     }
 
     @Override
     public void onSurfaceChanged(GL10 gl, int width, int height) {
-        GLES20.glViewport(0, 0, width, height);
+        mGL.glViewport(0, 0, width, height);
 
         // Construct the projection matrix
         float hWidth = ((LevelUpdater.HEIGHT / height) * width) / 2;
         Matrix.orthoM(mPMatrix, 0, -hWidth, hWidth, 0, LevelUpdater.HEIGHT, 1, 10);
         mCamLeft = hWidth;
-        mCamRight = 960 - hWidth;
+        mCamRight = LevelUpdater.LENGTH - hWidth;
+        mHalfWidth = hWidth;
+        mScreenWidth = width;
+        mScreenHeight = height;
+        mTarget.resize(width, height);
     }
 
     @Override
     public void onDrawFrame(GL10 gl) {
+        long start = System.nanoTime();
+        FrameTracer.begin(FrameTracer.DRAW_FRAME);
+        mDrawCalls = 0;
+        drawFrame();
+        FrameTracer.end(FrameTracer.DRAW_FRAME);
+        PerfHud hud = mHud;
+        if (hud != null) {
+            hud.getStats().onFrame(System.nanoTime() - start, mDrawCalls, mTextures.getTextureMemory());
+        }
+    }
+
+    /**
+     * Draws the most recent state.
+     */
+    private void drawFrame() {
+        // Make progress on any textures that are waiting
+        mTextures.upload(TEXTURE_UPLOAD_BUDGET);
+
         // Update the drawing state and reset the next state
+        int states;
         synchronized (mNextStateLock) {
+            states = mStatesSinceFrame;
+            mStatesSinceFrame = 0;
             if (mNextState != null) {
+                mFreeState = mDrawingState;
                 mDrawingState = mNextState;
                 mNextState = null;
             }
@@ -222,36 +594,66 @@ class LevelDrawer implements GLSurfaceView.Renderer {
             return;
         }
 
+        // Pick the resolution to draw at, from how many states were missed
+        mScaler.onFrame(states);
+        float scale = mScaler.getScale();
+        boolean offscreen = (scale < 1) && mTarget.isAvailable();
+        if (offscreen) {
+            mTarget.bind(scale);
+        } else {
+            scale = 1;
+        }
+        mPixelsPerUnit = (mScreenHeight * scale) / LevelUpdater.HEIGHT;
+
         // Clear the screen
-        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+        mGL.glClear(GLES20.GL_COLOR_BUFFER_BIT);
 
         // Clear ALL the matrices!
         Matrix.setIdentityM(mMMatrix, 0);
         Matrix.setIdentityM(mMVPMatrix, 0);
 
         // Construct the view-projection matrix
+        float camera = getCameraTranslation(mDrawingState.getBlobX());
         Matrix.multiplyMM(mVPMatrix, 0, mPMatrix, 0, mVMatrix, 0);
-        Matrix.translateM(mVPMatrix, 0, -getCameraTranslation(mDrawingState.getBlob().x), 0, 0);
+        Matrix.translateM(mVPMatrix, 0, -camera, 0, 0);
+        float viewLeft = camera - mHalfWidth;
+        float viewRight = camera + mHalfWidth;
 
         long time = System.nanoTime();
-
-        // Walls
-        for (List<Point> wall : mDrawingState.getWalls()) {
-            Matrix.setIdentityM(mMMatrix, 0);
-            Point center = wall.get(0);
-            Point dims = wall.get(1);
-            // Move and scale
-            Matrix.translateM(mMMatrix, 0, center.x, center.y, 0);
-            Matrix.scaleM(mMMatrix, 0, dims.x, dims.y, 0);
-            // Draw
-            Matrix.multiplyMM(mMVPMatrix, 0, mVPMatrix, 0, mMMatrix, 0);
-            drawShape(GLPolyTools.box(), GLPolyTools.order(4),
-                    GLPolyTools.boxTex(), mTexWallHandle, Color.WHITE);
+        boolean analytic = mAnalyticShapes;
+        mTexBlobHandle = mTextures.getHandle(mTexBlob);
+        mTexSpikeHandle = mTextures.getHandle(mTexSpike);
+        mTexWallHandle = mTextures.getHandle(mTexWall);
+        mTexBlobAlphaHandle = mTextures.getAlphaHandle(mTexBlob);
+        mTexSpikeAlphaHandle = mTextures.getAlphaHandle(mTexSpike);
+        mTexWallAlphaHandle = mTextures.getAlphaHandle(mTexWall);
+
+        // Walls that are in view
+        LevelGeometry geometry = mDrawingState.getGeometry();
+        float[] wallMatrices = geometry.getModelMatrices();
+        SpatialGrid wallIndex = geometry.getIndex();
+        if (mVisibleWalls.length < wallIndex.size()) {
+            mVisibleWalls = new int[wallIndex.size()];
+        }
+        int visible = wallIndex.query((int) Math.floor(viewLeft), 0,
+                (int) Math.ceil(viewRight), (int) LevelUpdater.HEIGHT, mVisibleWalls);
+        for (int i = 0; i < visible; i++) {
+            // Already moved and scaled
+            Matrix.multiplyMM(mMVPMatrix, 0, mVPMatrix, 0, wallMatrices, mVisibleWalls[i] * 16);
+            submit(LAYER_WALLS, PROGRAM_SHAPE, 0, 0, GLPolyTools.box(), GLPolyTools.order(4),
+                    mTexWallHandle, mTexWallAlphaHandle, Color.WHITE);
         }
 
         // Spikes
         float angle = GLPolyTools.rotation(1, time);
-        for (Point spike : mDrawingState.getSpikes()) {
+        List<Point> spikes = mDrawingState.getSpikes();
+        for (int i = 0; i < spikes.size(); i++) {
+            Point spike = spikes.get(i);
+            // Skip spikes that are out of view
+            if (((spike.x + SPIKE_RADIUS) < viewLeft) || ((spike.x - SPIKE_RADIUS) > viewRight)
+                    || ((spike.y + SPIKE_RADIUS) < 0) || ((spike.y - SPIKE_RADIUS) > LevelUpdater.HEIGHT)) {
+                continue;
+            }
             Matrix.setIdentityM(mMMatrix, 0);
             // Move and scale
             Matrix.translateM(mMMatrix, 0, spike.x, spike.y, 0);
@@ -259,68 +661,323 @@ class LevelDrawer implements GLSurfaceView.Renderer {
             Matrix.rotateM(mMMatrix, 0, angle, 0, 0, 1);
             // Draw
             Matrix.multiplyMM(mMVPMatrix, 0, mVPMatrix, 0, mMMatrix, 0);
-            drawShape(GLPolyTools.polygon(3), GLPolyTools.order(3),
-                    GLPolyTools.texCoords(3), mTexSpikeHandle, Color.LTGRAY);
-            drawShape(GLPolyTools.polygonOff(3), GLPolyTools.order(3),
-                    GLPolyTools.texCoordsOff(3), mTexSpikeHandle, Color.LTGRAY);
+            if (analytic) {
+                submit(LAYER_SPIKES, PROGRAM_SDF, SHAPE_HEXAGRAM, SPIKE_RADIUS, GLPolyTools.box(),
+                        GLPolyTools.order(4), mTexSpikeHandle, mTexSpikeAlphaHandle, Color.LTGRAY);
+            } else {
+                submit(LAYER_SPIKES, PROGRAM_SHAPE, 0, 0, GLPolyTools.polygon(3), GLPolyTools.order(3),
+                        mTexSpikeHandle, mTexSpikeAlphaHandle, Color.LTGRAY);
+                submit(LAYER_SPIKES, PROGRAM_SHAPE, 0, 0, GLPolyTools.polygonOff(3), GLPolyTools.order(3),
+                        mTexSpikeHandle, mTexSpikeAlphaHandle, Color.LTGRAY);
+            }
         }
 
-        // Blob
-        Point blob = mDrawingState.getBlob();
+        // Blob, and the ghost it's racing
+        submitBlob(LAYER_BLOB, mDrawingState.getBlobX(), mDrawingState.getBlobY(), Color.WHITE, time, analytic);
+        if (mDrawingState.isGhostShown()) {
+            submitBlob(LAYER_GHOST, mDrawingState.getGhostX(), mDrawingState.getGhostY(), GHOST_COLOR, time, analytic);
+        }
+
+        // Particles
+        ParticleSystem particles = mParticles;
+        if (particles != null) {
+            mParticleFrame = particles.acquire();
+            submitParticles(ParticleSystem.TRAIL, LAYER_TRAIL, RenderQueue.BLEND_ALPHA);
+            submitParticles(ParticleSystem.SPARKS, LAYER_EFFECTS, RenderQueue.BLEND_ADD);
+            submitParticles(ParticleSystem.BURSTS, LAYER_EFFECTS, RenderQueue.BLEND_ADD);
+        }
+
+        // Draw everything, sorted by layer and then by state
+        flush();
+
+        // Scale up onto the screen
+        if (offscreen) {
+            mTarget.unbind();
+            mGLState.useProgram(mShapeProgram.handle);
+            mGLState.setBlend(false);
+            Matrix.setIdentityM(mMVPMatrix, 0);
+            drawShape(mShapeProgram, mTarget.getMesh(), GLPolyTools.order(4),
+                    mTarget.getTexture(), mTextures.getPlaceholder(), Color.WHITE, mMVPMatrix, 0);
+            mGLState.setBlend(true);
+        }
+
+        // Performance overlay, always at full resolution
+        PerfHud hud = mHud;
+        if (hud != null) {
+            hud.resize(mScreenWidth, mScreenHeight);
+            hud.update(System.nanoTime());
+            if (hud.getOrder().hasRemaining()) {
+                mGLState.useProgram(mShapeProgram.handle);
+                mGLState.setBlend(true);
+                mGLState.blendFunc(GLES20.GL_SRC_ALPHA, GLES20.GL_ONE_MINUS_SRC_ALPHA);
+                drawShape(mShapeProgram, hud.getPanel(), GLPolyTools.order(4), mTextures.getPlaceholder(),
+                        mTextures.getPlaceholder(), HUD_PANEL_COLOR, hud.getMatrix(), 0);
+                // The font is the alpha channel of a plain white texture
+                drawShape(mShapeProgram, hud.getMesh(), hud.getOrder(), mTextures.getPlaceholder(),
+                        hud.getTexture(), Color.WHITE, hud.getMatrix(), 0);
+            }
+        }
+    }
+
+    private float getCameraTranslation(float blob) {
+        float ret = blob;
+        if (ret > mCamRight) ret = mCamRight;
+        if (ret < mCamLeft) ret = mCamLeft;
+        return ret;
+    }
+
+    /**
+     * Adds a blob to the queue.
+     *
+     * @param layer    layer to draw in
+     * @param x        center x coordinate
+     * @param y        center y coordinate
+     * @param color    color of the blob
+     * @param time     time of the frame, for spinning
+     * @param analytic whether or not to draw with {@link #PROGRAM_SDF}
+     */
+    private void submitBlob(int layer, int x, int y, int color, long time, boolean analytic) {
         Matrix.setIdentityM(mMMatrix, 0);
         // Move and scale
-        Matrix.translateM(mMMatrix, 0, blob.x, blob.y, 0);
+        Matrix.translateM(mMMatrix, 0, x, y, 0);
         Matrix.scaleM(mMMatrix, 0, BLOB_RADIUS, BLOB_RADIUS, 0);
         Matrix.rotateM(mMMatrix, 0, GLPolyTools.rotation(10, time), 0, 0, 1);
         // Draw
         Matrix.multiplyMM(mMVPMatrix, 0, mVPMatrix, 0, mMMatrix, 0);
-        drawShape(GLPolyTools.polygon(8), GLPolyTools.order(8),
-                GLPolyTools.texCoords(8), mTexBlobHandle, Color.WHITE);
+        if (analytic) {
+            submit(layer, PROGRAM_SDF, SHAPE_CIRCLE, BLOB_RADIUS, GLPolyTools.box(), GLPolyTools.order(4),
+                    mTexBlobHandle, mTexBlobAlphaHandle, color);
+        } else {
+            // As many vertices as it takes to look round at this size
+            int vertices = GLPolyTools.lodVertices(BLOB_RADIUS * mPixelsPerUnit);
+            submit(layer, PROGRAM_SHAPE, 0, 0, GLPolyTools.polygon(vertices), GLPolyTools.order(vertices),
+                    mTexBlobHandle, mTexBlobAlphaHandle, color);
+        }
     }
 
-    private float getCameraTranslation(float blob) {
-        float ret = blob;
-        if (ret > mCamRight) ret = mCamRight;
-        if (ret < mCamLeft) ret = mCamLeft;
-        return ret;
+    /**
+     * Adds an alpha blended draw to the queue, transformed by
+     * {@code mMVPMatrix}.
+     *
+     * @param layer         layer to draw in
+     * @param program       {@link #PROGRAM_SHAPE} or {@link #PROGRAM_SDF}
+     * @param shape         shape for {@link #PROGRAM_SDF}, or 0
+     * @param radius        radius of the shape for {@link #PROGRAM_SDF}, or 0
+     * @param mesh          interleaved vertices
+     * @param order         ordering
+     * @param textureHandle texture to be used
+     * @param alphaHandle   alpha channel of the texture
+     * @param color         color of the shape
+     */
+    private void submit(int layer, int program, int shape, float radius, ByteBuffer mesh, ShortBuffer order,
+                        int textureHandle, int alphaHandle, int color) {
+        long key = RenderQueue.key(layer, RenderQueue.BLEND_ALPHA, program, shape, textureHandle, 0);
+        mQueue.add(key, mesh, order, program, RenderQueue.BLEND_ALPHA, shape, radius,
+                textureHandle, alphaHandle, color, mMVPMatrix, 0);
+    }
+
+    /**
+     * Adds the particles of an emitter to the queue, if it has any.
+     *
+     * @param emitter index of the emitter in {@link ParticleSystem}
+     * @param layer   layer to draw in
+     * @param blend   how to blend the particles
+     */
+    private void submitParticles(int emitter, int layer, int blend) {
+        if (mParticleFrame.counts[emitter] == 0) {
+            return;
+        }
+        long key = RenderQueue.key(layer, blend, PROGRAM_PARTICLE, emitter, 0, 0);
+        mQueue.add(key, null, null, PROGRAM_PARTICLE, blend, emitter, 0, 0, 0,
+                PARTICLE_COLORS[emitter], mVPMatrix, 0);
+    }
+
+    /**
+     * Sorts the queued draws, draws them, and empties the queue.
+     */
+    private void flush() {
+        RenderQueue queue = mQueue;
+        queue.sort();
+        for (int i = 0; i < queue.size(); i++) {
+            int draw = queue.get(i);
+            Program program = mPrograms[queue.getProgram(draw)];
+            mGLState.useProgram(program.handle);
+            int blend = queue.getBlend(draw);
+            mGLState.setBlend(blend != RenderQueue.BLEND_OPAQUE);
+            mGLState.blendFunc(GLES20.GL_SRC_ALPHA,
+                    (blend == RenderQueue.BLEND_ADD) ? GLES20.GL_ONE : GLES20.GL_ONE_MINUS_SRC_ALPHA);
+            if (program == mParticleProgram) {
+                drawParticles(queue.getShape(draw), queue.getColor(draw),
+                        queue.getMatrices(), queue.getMatrixOffset(draw));
+                continue;
+            }
+            if (program == mSdfProgram) {
+                setShape(queue.getShape(draw), queue.getRadius(draw));
+            }
+            drawShape(program, queue.getMesh(draw), queue.getOrder(draw), queue.getTexture(draw),
+                    queue.getAlpha(draw), queue.getColor(draw), queue.getMatrices(), queue.getMatrixOffset(draw));
+        }
+        queue.clear();
+    }
+
+    /**
+     * Sets up {@code mSdfProgram} for the given shape. The program must be in
+     * use.
+     *
+     * @param shape  {@link #SHAPE_CIRCLE} or {@link #SHAPE_HEXAGRAM}
+     * @param radius radius of the shape in world units
+     */
+    private void setShape(int shape, float radius) {
+        mGLState.uniform1i(mSdfProgram.uShapeHandle, shape);
+        // Antialias over about one pixel, measured in model units
+        mGLState.uniform1f(mSdfProgram.uSmoothingHandle, 1 / (radius * mPixelsPerUnit));
     }
 
     /**
      * Draws a shape onto the screen with the given information.
      *
-     * @param vertices      vertices
+     * @param program       program to be used, which must be in use
+     * @param mesh          interleaved vertices, as made by {@link GLPolyTools};
+     *                      its position is moved, and left at 0
      * @param order         ordering
-     * @param texCoord      coordinates of each vertex in texels
      * @param textureHandle texture to be used
+     * @param alphaHandle   alpha channel of the texture
      * @param color         color of the shape
+     * @param matrix        array containing the transformation matrix
+     * @param matrixOffset  offset of the matrix in {@code matrix}
      */
-    private void drawShape(FloatBuffer vertices, ShortBuffer order,
-                           FloatBuffer texCoord, int textureHandle, int color) {
+    private void drawShape(Program program, ByteBuffer mesh, ShortBuffer order,
+                           int textureHandle, int alphaHandle, int color, float[] matrix, int matrixOffset) {
+        // Client-side arrays only work without a buffer bound
+        mGLState.bindArrayBuffer(0);
+
         // Pass in vertex info
-        vertices.position(0);
-        GLES20.glEnableVertexAttribArray(maPositionHandle);
-        GLES20.glVertexAttribPointer(maPositionHandle, 3, GLES20.GL_FLOAT,
-                false, 12, vertices);
+        mesh.position(GLPolyTools.POSITION_OFFSET);
+        mGLState.setVertexAttribArray(ATTRIB_POSITION, true);
+        mGL.glVertexAttribPointer(ATTRIB_POSITION, 2, GLES20.GL_FLOAT,
+                false, GLPolyTools.VERTEX_STRIDE, mesh);
 
         // Pass in color info
         GLPolyTools.toGlColor(mColor, color);
-        GLES20.glUniform4fv(muColorHandle, 1, mColor, 0);
+        mGLState.uniform4fv(program.uColorHandle, mColor, 0);
 
-        // Pass in texture coordinate info
-        texCoord.position(0);
-        GLES20.glEnableVertexAttribArray(maTexCoordHandle);
-        GLES20.glVertexAttribPointer(maTexCoordHandle, 2, GLES20.GL_FLOAT,
-                false, 8, texCoord);
+        // Pass in texture coordinate info, from the same stream
+        mesh.position(GLPolyTools.TEX_COORD_OFFSET);
+        mGLState.setVertexAttribArray(ATTRIB_TEX_COORD, true);
+        mGL.glVertexAttribPointer(ATTRIB_TEX_COORD, 2, GLES20.GL_UNSIGNED_SHORT,
+                true, GLPolyTools.VERTEX_STRIDE, mesh);
+        mesh.position(0);
 
         // Pass in texture info
-        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureHandle);
-        GLES20.glUniform1i(muTexHandle, 0);
+        mGLState.bindTexture(0, textureHandle);
+        mGLState.uniform1i(program.uTexHandle, 0);
+        mGLState.bindTexture(1, alphaHandle);
+        mGLState.uniform1i(program.uAlphaHandle, 1);
 
         // Draw
-        GLES20.glUniformMatrix4fv(muMVPMatrixHandle, 1, false, mMVPMatrix, 0);
-        GLES20.glDrawElements(GLES20.GL_TRIANGLES, order.capacity(),
+        mGLState.uniformMatrix4fv(program.uMVPMatrixHandle, matrix, matrixOffset);
+        mGL.glDrawElements(GLES20.GL_TRIANGLES, order.remaining(),
                 GLES20.GL_UNSIGNED_SHORT, order);
-        GLES20.glDisableVertexAttribArray(maPositionHandle);
+        mDrawCalls++;
+    }
+
+    /**
+     * Draws the particles of an emitter from {@code mParticleFrame} as points.
+     * Each emitter has its own buffer, which is as big as the emitter can get,
+     * so that it only ever has to be allocated once per context.
+     *
+     * @param emitter      index of the emitter in {@link ParticleSystem}
+     * @param color        color of the particles
+     * @param matrix       array containing the transformation matrix
+     * @param matrixOffset offset of the matrix in {@code matrix}
+     */
+    private void drawParticles(int emitter, int color, float[] matrix, int matrixOffset) {
+        FloatBuffer data = mParticleFrame.data[emitter];
+        int count = mParticleFrame.counts[emitter];
+
+        // Pass in particle info
+        if (mParticleBuffers[emitter] == 0) {
+            mGL.glGenBuffers(1, mNames, 0);
+            mParticleBuffers[emitter] = mNames[0];
+            mGLState.bindArrayBuffer(mNames[0]);
+            mGL.glBufferData(GLES20.GL_ARRAY_BUFFER, ParticleSystem.capacity(emitter)
+                    * ParticleEmitter.FLOATS_PER_PARTICLE * BYTES_PER_FLOAT, null, GLES20.GL_STREAM_DRAW);
+        } else {
+            mGLState.bindArrayBuffer(mParticleBuffers[emitter]);
+        }
+        data.position(0);
+        mGL.glBufferSubData(GLES20.GL_ARRAY_BUFFER, 0,
+                count * ParticleEmitter.FLOATS_PER_PARTICLE * BYTES_PER_FLOAT, data);
+        mGLState.setVertexAttribArray(ATTRIB_POSITION, true);
+        mGLState.setVertexAttribArray(ATTRIB_TEX_COORD, false);
+        mGL.glVertexAttribPointer(ATTRIB_POSITION, ParticleEmitter.FLOATS_PER_PARTICLE, GLES20.GL_FLOAT,
+                false, ParticleEmitter.FLOATS_PER_PARTICLE * BYTES_PER_FLOAT, 0);
+
+        // Pass in color and size info
+        GLPolyTools.toGlColor(mColor, color);
+        mGLState.uniform4fv(mParticleProgram.uColorHandle, mColor, 0);
+        mGLState.uniform1f(mParticleProgram.uPointScaleHandle, mPixelsPerUnit);
+
+        // Draw
+        mGLState.uniformMatrix4fv(mParticleProgram.uMVPMatrixHandle, matrix, matrixOffset);
+        mGL.glDrawArrays(GLES20.GL_POINTS, 0, count);
+        mDrawCalls++;
+    }
+
+    /**
+     * Handles to a linked program and its inputs.
+     */
+    private static final class Program {
+
+        /**
+         * Handle to the program itself.
+         */
+        final int handle;
+        /**
+         * Used to pass in the transformation matrix. (Uniform)
+         */
+        final int uMVPMatrixHandle;
+        /**
+         * Used to pass in model color information. (Uniform)
+         */
+        final int uColorHandle;
+        /**
+         * Used to pass in texture information. (Uniform)
+         */
+        final int uTexHandle;
+        /**
+         * Used to pass in the separate alpha channel of a texture. (Uniform)
+         */
+        final int uAlphaHandle;
+        /**
+         * Used to pass in which analytic shape to draw, or -1. (Uniform)
+         */
+        final int uShapeHandle;
+        /**
+         * Used to pass in the width of the antialiased edge, or -1. (Uniform)
+         */
+        final int uSmoothingHandle;
+        /**
+         * Used to pass in pixels per world unit for sizing points, or -1.
+         * (Uniform)
+         */
+        final int uPointScaleHandle;
+
+        /**
+         * Looks up the handles of a linked program.
+         *
+         * @param gl      the backend the program was created with
+         * @param program the program handle
+         */
+        Program(GLBackend gl, int program) {
+            handle = program;
+            uMVPMatrixHandle = gl.glGetUniformLocation(program, "uMVPMatrix");
+            uColorHandle = gl.glGetUniformLocation(program, "uColor");
+            uTexHandle = gl.glGetUniformLocation(program, "uTexture");
+            uAlphaHandle = gl.glGetUniformLocation(program, "uAlpha");
+            uShapeHandle = gl.glGetUniformLocation(program, "uShape");
+            uSmoothingHandle = gl.glGetUniformLocation(program, "uSmoothing");
+            uPointScaleHandle = gl.glGetUniformLocation(program, "uPointScale");
+        }
     }
 }
@@ -0,0 +1,121 @@
+package hmperson1.apps.hyperblobs;
+
+import android.graphics.Point;
+import android.opengl.Matrix;
+
+import org.jbox2d.collision.shapes.PolygonShape;
+
+import java.util.List;
+
+import static hmperson1.apps.hyperblobs.LevelUpdater.INV_SCALE;
+
+/**
+ * The parts of a level that never move: its walls, an index over them, their
+ * physics shapes and the matrices they are drawn with. Everything is worked
+ * out once, when the level is loaded, and then shared by every state and
+ * every simulation of the level, so running many copies of a level only
+ * costs as much as what moves in it. Immutable.
+ *
+ * @author HMPerson1
+ */
+final class LevelGeometry {
+
+    /**
+     * Each wall, as its center point and half-dimensions.
+     */
+    private final List<List<Point>> mWalls;
+    /**
+     * Spatial index over {@code mWalls}.
+     */
+    private final SpatialGrid mIndex;
+    /**
+     * Box of each wall in physics units, centered at the origin. Never
+     * changed, since fixtures make their own copies.
+     */
+    private final PolygonShape[] mShapes;
+    /**
+     * Model matrix of each wall, one after another, which moves and scales
+     * a unit box onto it.
+     */
+    private final float[] mModelMatrices;
+
+    /**
+     * Works out everything about the given walls.
+     *
+     * @param walls unmodifiable list of walls, each as its center point and
+     *              half-dimensions
+     */
+    @SuppressWarnings("AssignmentToCollectionOrArrayFieldFromParameter")
+    LevelGeometry(List<List<Point>> walls) {
+        mWalls = walls;
+        int count = walls.size();
+        int[] bounds = new int[count * 4];
+        mShapes = new PolygonShape[count];
+        mModelMatrices = new float[count * 16];
+        for (int i = 0; i < count; i++) {
+            Point center = walls.get(i).get(0);
+            Point dims = walls.get(i).get(1);
+            bounds[(i * 4) + 0] = center.x - dims.x;
+            bounds[(i * 4) + 1] = center.y - dims.y;
+            bounds[(i * 4) + 2] = center.x + dims.x;
+            bounds[(i * 4) + 3] = center.y + dims.y;
+
+            mShapes[i] = new PolygonShape();
+            mShapes[i].setAsBox(dims.x * INV_SCALE, dims.y * INV_SCALE);
+
+            Matrix.setIdentityM(mModelMatrices, i * 16);
+            Matrix.translateM(mModelMatrices, i * 16, center.x, center.y, 0);
+            Matrix.scaleM(mModelMatrices, i * 16, dims.x, dims.y, 0);
+        }
+        mIndex = new SpatialGrid(bounds, count, SpatialGrid.chooseCellSize(bounds, count));
+    }
+
+    /**
+     * Returns the number of walls.
+     *
+     * @return the wall count
+     */
+    int getWallCount() {
+        return mWalls.size();
+    }
+
+    /**
+     * Returns the walls.
+     *
+     * @return an unmodifiable list of walls
+     */
+    List<List<Point>> getWalls() {
+        return mWalls;
+    }
+
+    /**
+     * Returns a spatial index over the walls. Indices refer to positions in
+     * {@link #getWalls()}.
+     *
+     * @return the index
+     */
+    SpatialGrid getIndex() {
+        return mIndex;
+    }
+
+    /**
+     * Returns the physics shape of a wall, centered at the origin. It is
+     * shared and must not be changed.
+     *
+     * @param index index of the wall
+     * @return the shape
+     */
+    PolygonShape getShape(int index) {
+        return mShapes[index];
+    }
+
+    /**
+     * Returns the model matrices of the walls, 16 floats per wall in order.
+     * The array is shared and must not be changed.
+     *
+     * @return the matrices
+     */
+    float[] getModelMatrices() {
+        return mModelMatrices;
+    }
+}
@@ -3,8 +3,14 @@ package hmperson1.apps.hyperblobs;
 import android.content.res.Resources;
 import android.content.res.XmlResourceParser;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 import static org.xmlpull.v1.XmlPullParser.END_TAG;
 import static org.xmlpull.v1.XmlPullParser.START_TAG;
@@ -31,10 +37,25 @@ class LevelLoader implements Callable<LevelState> {
     private static final int SPKE_T = 30;
     private static final int SPKE_X = 31;
     private static final int SPKE_Y = 32;
+    /**
+     * Every level there is, in order: major ID, minor ID and XML resource.
+     * Listed by hand, since resources can't be found by name once they have
+     * been shrunk or obfuscated.
+     */
+    private static final int[][] LEVELS = {
+            {1, 1, R.xml.level_0101},
+    };
     /**
      * {@link Resources} to load XML from.
      */
     private static Resources res;
+    /**
+     * Levels loaded or being loaded by {@link #load}, by
+     * {@code major * 100 + minor}. Levels that fail to load are taken back
+     * out, so only levels that exist are kept.
+     */
+    private static final ConcurrentMap<Integer, FutureTask<LevelState>> cache =
+            new ConcurrentHashMap<Integer, FutureTask<LevelState>>();
     /**
      * Name of the resource. Exposed for logging purposes.
      */
@@ -53,20 +74,16 @@ class LevelLoader implements Callable<LevelState> {
     public LevelLoader(int major, int minor) {
         resName = String.format("level_%02d%02d", major, minor);
         int resId = 0;
-        // Ugly Reflection Stuff
-        try {
-            resId = (Integer) R.xml.class.getField(resName).get(null);
-        } catch (NoSuchFieldException e) {
-            throw new IllegalArgumentException("Unable to load: " + resName, e);
-        } catch (IllegalAccessException e) {
-            throw new IllegalArgumentException("Unable to load: " + resName, e);
-        } finally {
-            if (resId == 0) {
-                //noinspection ThrowFromFinallyBlock
-                throw new IllegalArgumentException("Unable to load: " + resName);
-                // TODO: Handle more gracefully...?
+        for (int[] level : LEVELS) {
+            if ((level[0] == major) && (level[1] == minor)) {
+                resId = level[2];
+                break;
             }
         }
+        if (resId == 0) {
+            throw new IllegalArgumentException("Unable to load: " + resName);
+            // TODO: Handle more gracefully...?
+        }
         input = res.getXml(resId);
     }
     //</editor-fold>
@@ -80,6 +97,70 @@ class LevelLoader implements Callable<LevelState> {
         res = r;
     }
 
+    /**
+     * Loads a level, or returns it if it has been loaded before. Every
+     * simulation of the level can start from the same state, and so share its
+     * {@link LevelGeometry}. Each level is only loaded once, by whichever
+     * thread asks first; threads asking for it meanwhile wait for that, but
+     * threads asking for other levels don't.
+     *
+     * @param major major level ID
+     * @param minor minor level ID
+     * @return the initial state of the level
+     * @throws Exception if it could not be loaded
+     */
+    static LevelState load(final int major, final int minor) throws Exception {
+        Integer key = (major * 100) + minor;
+        FutureTask<LevelState> task = cache.get(key);
+        if (task == null) {
+            // The loader opens the resource, so only make one if this one wins
+            FutureTask<LevelState> created = new FutureTask<LevelState>(new Callable<LevelState>() {
+                @Override
+                public LevelState call() throws Exception {
+                    return new LevelLoader(major, minor).call();
+                }
+            });
+            task = cache.putIfAbsent(key, created);
+            if (task == null) {
+                task = created;
+                task.run();
+            }
+        }
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            // Let it be tried again
+            cache.remove(key, task);
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Forgets every level loaded by {@link #load}, so that it can be garbage
+     * collected once nothing else uses it. Levels being loaded still finish
+     * for whoever asked for them.
+     */
+    static void clearCache() {
+        cache.clear();
+    }
+
+    /**
+     * Lists the IDs of every level there is, in order.
+     *
+     * @return pairs of major and minor level IDs
+     */
+    static List<int[]> catalog() {
+        List<int[]> levels = new ArrayList<int[]>(LEVELS.length);
+        for (int[] level : LEVELS) {
+            levels.add(new int[]{level[0], level[1]});
+        }
+        return levels;
+    }
+
     /**
      * Loads a {@link LevelState} from the xml resource
      *
@@ -5,10 +5,10 @@ import android.graphics.Point;
 import org.jbox2d.callbacks.ContactImpulse;
 import org.jbox2d.callbacks.ContactListener;
 import org.jbox2d.collision.Manifold;
+import org.jbox2d.collision.WorldManifold;
 import org.jbox2d.collision.shapes.CircleShape;
 import org.jbox2d.collision.shapes.PolygonShape;
 import org.jbox2d.common.MathUtils;
-import org.jbox2d.common.Transform;
 import org.jbox2d.common.Vec2;
 import org.jbox2d.dynamics.Body;
 import org.jbox2d.dynamics.BodyDef;
@@ -17,6 +17,7 @@ import org.jbox2d.dynamics.Fixture;
 import org.jbox2d.dynamics.World;
 import org.jbox2d.dynamics.contacts.Contact;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -37,6 +38,50 @@ class LevelPhysicsUpdater implements Runnable, ContactListener {
      * Amount of time to be emulated each run.
      */
     private static final float TIME_STEP = (float) 1 / 60;
+    /**
+     * Shape of every spike. Never changed, since fixtures make their own
+     * copies.
+     */
+    private static final CircleShape SPIKE_SHAPE = new CircleShape();
+    /**
+     * Shape of every blob. Never changed, since fixtures make their own
+     * copies.
+     */
+    private static final CircleShape BLOB_SHAPE = new CircleShape();
+    /**
+     * Worlds that are no longer used, emptied and ready for another level.
+     */
+    private static final List<World> worldPool = new ArrayList<World>();
+    /**
+     * Most worlds kept in {@code worldPool}.
+     */
+    private static final int MAX_POOLED_WORLDS = 4;
+    /**
+     * Bytes {@link #save} writes for each moving body: position, angle,
+     * velocity, angular velocity and whether it's awake.
+     */
+    private static final int BODY_BYTES = (6 * 4) + 1;
+    /**
+     * Values {@link #capture} writes before the bodies: the tick count and
+     * whether the blob is dead.
+     */
+    static final int CAPTURE_HEADER = 2;
+    /**
+     * Values {@link #capture} writes for each moving body: position, angle,
+     * velocity, angular velocity and whether it's awake.
+     */
+    static final int CAPTURE_BODY = 7;
+    /**
+     * Steps per meter, radian, m/s or rad/s that {@link #capture} quantizes
+     * to.
+     */
+    private static final float CAPTURE_STEPS = 1024;
+
+    static {
+        SPIKE_SHAPE.m_radius = SPIKE_RADIUS * INV_SCALE;
+        BLOB_SHAPE.m_radius = BLOB_RADIUS * INV_SCALE;
+    }
+
     /**
      * World in which everything happens.
      */
@@ -57,19 +102,94 @@ class LevelPhysicsUpdater implements Runnable, ContactListener {
      * Main Blob.
      */
     private final Body mBlob;
+    /**
+     * State the level was created from. Its walls are reused, since walls
+     * never move.
+     */
+    private final LevelState mLevel;
+    /**
+     * Effects driven by what happens in the world, or {@code null} if nothing
+     * draws this world.
+     */
+    private final ParticleSystem mParticles;
+    /**
+     * Scratch manifold for finding where contacts are.
+     */
+    private final WorldManifold mManifold = new WorldManifold();
+    /**
+     * Scratch vector for setting velocities.
+     */
+    private final Vec2 mVelocity = new Vec2();
+    /**
+     * Scratch vector for setting positions.
+     */
+    private final Vec2 mPosition = new Vec2();
+    /**
+     * Where each spike starts, in physics units: x and y of each spike.
+     */
+    private final float[] mSpikeStarts;
+    /**
+     * Where the blob starts, in physics units.
+     */
+    private final float mBlobStartX, mBlobStartY;
     /**
      * Current state of the world.
      */
     private LevelState mState;
+    /**
+     * State that was handed back and can be refilled, or {@code null}.
+     */
+    private LevelState mFreeState;
+    /**
+     * Whether or not the blob has hit a spike.
+     */
+    private boolean mBlobDead;
+    /**
+     * Number of runs since the level was started or last reset.
+     */
+    private int mTicks;
 
     /**
-     * Creates a new updater.
+     * Creates a new updater without particle effects, for worlds that aren't
+     * drawn.
      *
      * @param state  the value of state
      * @param length the value of length
      */
     public LevelPhysicsUpdater(LevelState state, int length) {
-        mWorld = new World(new Vec2(0, 0));
+        this(state, length, false);
+    }
+
+    /**
+     * Creates a new updater in a world from the pool.
+     *
+     * @param state     the value of state
+     * @param length    the value of length
+     * @param particles whether or not to drive particle effects
+     */
+    public LevelPhysicsUpdater(LevelState state, int length, boolean particles) {
+        this(state, length, particles, false);
+    }
+
+    /**
+     * Creates a new updater.
+     * <p/>
+     * A world from the pool still has the free lists and pooled contacts of
+     * the levels before, so its bodies are paired, and then solved, in a
+     * different order than in a new world, and the same input can end up
+     * slightly elsewhere. Worlds that must run exactly like another, such as
+     * one recording input and the one replaying it, are built new instead.
+     *
+     * @param state     the value of state
+     * @param length    the value of length
+     * @param particles whether or not to drive particle effects
+     * @param exact     whether or not to build a new world, so that the same
+     *                  input always gives the same result
+     */
+    public LevelPhysicsUpdater(LevelState state, int length, boolean particles, boolean exact) {
+        mLevel = state;
+        mParticles = particles ? new ParticleSystem() : null;
+        mWorld = exact ? new World(new Vec2(0, 0)) : obtainWorld();
 
         // Off-screen detectors
         // Define
@@ -82,60 +202,333 @@ class LevelPhysicsUpdater implements Runnable, ContactListener {
         mScreenDet.createFixture(screenDetShape, 0);
         mScreenDet.getFixtureList().setSensor(true);
 
-        // Walls
+        // Walls, from shapes shared by every instance of the level
+        LevelGeometry geometry = state.getGeometry();
         BodyDef wallDef = new BodyDef();
-        PolygonShape wallShape = new PolygonShape();
-        mWalls = new ArrayList<Body>(state.getWalls().size());
-        for (List<Point> wall : state.getWalls()) {
-            Point pos = wall.get(0);
-            Point size = wall.get(1);
+        mWalls = new ArrayList<Body>(geometry.getWallCount());
+        for (int i = 0; i < geometry.getWallCount(); i++) {
+            Point pos = geometry.getWalls().get(i).get(0);
             // Define
             wallDef.position.set(pos.x * INV_SCALE, pos.y * INV_SCALE);
-            wallShape.setAsBox(size.x * INV_SCALE, size.y * INV_SCALE);
             // Create
             Body wallBody = mWorld.createBody(wallDef);
-            wallBody.createFixture(wallShape, 0);
+            wallBody.createFixture(geometry.getShape(i), 0);
             mWalls.add(wallBody);
         }
 
         // Spikes
         BodyDef spikeDef = new BodyDef();
         spikeDef.type = BodyType.DYNAMIC;
-        CircleShape spikeShape = new CircleShape();
-        spikeShape.m_radius = SPIKE_RADIUS * INV_SCALE;
-        mSpikes = new ArrayList<Body>(state.getSpikes().size());
-        for (Point spike : state.getSpikes()) {
+        List<Point> spikes = state.getSpikes();
+        mSpikes = new ArrayList<Body>(spikes.size());
+        mSpikeStarts = new float[spikes.size() * 2];
+        for (int i = 0; i < spikes.size(); i++) {
+            mSpikeStarts[i * 2] = spikes.get(i).x * INV_SCALE;
+            mSpikeStarts[(i * 2) + 1] = spikes.get(i).y * INV_SCALE;
             // Define
-            spikeDef.position.set(spike.x * INV_SCALE, spike.y * INV_SCALE);
+            spikeDef.position.set(mSpikeStarts[i * 2], mSpikeStarts[(i * 2) + 1]);
             // Create
             Body spikeBody = mWorld.createBody(spikeDef);
-            spikeBody.createFixture(spikeShape, 1);
+            spikeBody.createFixture(SPIKE_SHAPE, 1);
             mSpikes.add(spikeBody);
         }
 
         // Blob
         Point blob = state.getBlob();
+        mBlobStartX = blob.x * INV_SCALE;
+        mBlobStartY = blob.y * INV_SCALE;
         // Define
         BodyDef blobDef = new BodyDef();
         blobDef.allowSleep = false;
-        blobDef.position.set(blob.x * INV_SCALE, blob.y * INV_SCALE);
+        blobDef.position.set(mBlobStartX, mBlobStartY);
         blobDef.type = BodyType.DYNAMIC;
-        CircleShape blobShape = new CircleShape();
-        blobShape.m_radius = BLOB_RADIUS * INV_SCALE;
         // Create
         mBlob = mWorld.createBody(blobDef);
-        mBlob.createFixture(blobShape, 1);
+        mBlob.createFixture(BLOB_SHAPE, 1);
 
         registerListeners();
     }
 
     /**
-     * Forces the loading of jBox2D classes.
+     * Loads the jBox2D classes and puts a world in the pool, so that the
+     * first level doesn't have to build one.
      */
-    @SuppressWarnings("ResultOfObjectAllocationIgnored")
-    public static void loadClasses() {
+    public static void prewarm() {
         MathUtils.sinLUT(0);
-        new World(new Vec2());
+        synchronized (worldPool) {
+            if (worldPool.isEmpty()) {
+                worldPool.add(new World(new Vec2(0, 0)));
+            }
+        }
+    }
+
+    /**
+     * Takes an empty world from the pool, or creates one if there is none.
+     *
+     * @return an empty world with no gravity
+     */
+    private static World obtainWorld() {
+        synchronized (worldPool) {
+            if (!worldPool.isEmpty()) {
+                return worldPool.remove(worldPool.size() - 1);
+            }
+        }
+        return new World(new Vec2(0, 0));
+    }
+
+    /**
+     * Empties the world and returns it to the pool, for the next level to
+     * reuse along with everything it has pooled inside, unless the pool is
+     * full. This updater must not be used afterwards.
+     */
+    void release() {
+        // Nobody needs to hear about contacts going away
+        mWorld.setContactListener(null);
+        Body body = mWorld.getBodyList();
+        while (body != null) {
+            Body next = body.getNext();
+            mWorld.destroyBody(body);
+            body = next;
+        }
+        mWorld.clearForces();
+        synchronized (worldPool) {
+            if (worldPool.size() < MAX_POOLED_WORLDS) {
+                worldPool.add(mWorld);
+            }
+        }
+    }
+
+    /**
+     * Puts everything back where it started, for another attempt at the
+     * level, without rebuilding the world. Shows up in the state after the
+     * next {@link #run()}. Allocates nothing.
+     */
+    void reset() {
+        clearContacts();
+        for (int i = 0; i < mSpikes.size(); i++) {
+            place(mSpikes.get(i), mSpikeStarts[i * 2], mSpikeStarts[(i * 2) + 1]);
+        }
+        place(mBlob, mBlobStartX, mBlobStartY);
+        mWorld.clearForces();
+        findContacts();
+        if (mParticles != null) {
+            mParticles.clear();
+        }
+        mBlobDead = false;
+        mTicks = 0;
+    }
+
+    /**
+     * Forgets everything that was touching, so that nothing carries over when
+     * bodies are moved by hand. {@link #findContacts()} must be called once
+     * they have been moved.
+     */
+    private void clearContacts() {
+        Contact contact = mWorld.getContactList();
+        while (contact != null) {
+            Contact next = contact.getNext();
+            mWorld.getContactManager().destroy(contact);
+            contact = next;
+        }
+    }
+
+    /**
+     * Pairs up everything that overlaps again after bodies were moved by
+     * hand. The broadphase only looks for new pairs for a body that moves out
+     * of its padded bounds, so a body that was moved only a little, or not at
+     * all, would otherwise go through whatever it was touching until it moved
+     * far enough.
+     */
+    private void findContacts() {
+        for (int i = 0; i < mSpikes.size(); i++) {
+            refilter(mSpikes.get(i));
+        }
+        refilter(mBlob);
+        mWorld.getContactManager().findNewContacts();
+    }
+
+    /**
+     * Makes the broadphase look for new pairs for every fixture of a body.
+     *
+     * @param body the body
+     */
+    private static void refilter(Body body) {
+        for (Fixture fixture = body.getFixtureList(); fixture != null; fixture = fixture.getNext()) {
+            fixture.refilter();
+        }
+    }
+
+    /**
+     * Returns the number of bytes {@link #save} writes.
+     *
+     * @return the size, in bytes
+     */
+    int snapshotSize() {
+        return 4 + 1 + ((mSpikes.size() + 1) * BODY_BYTES);
+    }
+
+    /**
+     * Writes everything that changes as the world runs: the tick count and
+     * where every spike and the blob are and how they move. Allocates
+     * nothing.
+     *
+     * @param out where to write; must have {@link #snapshotSize()} bytes left
+     */
+    void save(ByteBuffer out) {
+        out.putInt(mTicks);
+        out.put((byte) (mBlobDead ? 1 : 0));
+        for (int i = 0; i < mSpikes.size(); i++) {
+            saveBody(out, mSpikes.get(i));
+        }
+        saveBody(out, mBlob);
+    }
+
+    /**
+     * Puts the world back as it was when {@link #save} was called on an
+     * updater for the same level. Shows up in the state after the next
+     * {@link #run()}. Allocates nothing.
+     *
+     * @param in where to read from
+     */
+    void restore(ByteBuffer in) {
+        clearContacts();
+        mTicks = in.getInt();
+        mBlobDead = in.get() != 0;
+        for (int i = 0; i < mSpikes.size(); i++) {
+            restoreBody(in, mSpikes.get(i));
+        }
+        restoreBody(in, mBlob);
+        mWorld.clearForces();
+        findContacts();
+    }
+
+    /**
+     * Returns the number of values {@link #capture} writes.
+     *
+     * @return the size
+     */
+    int captureSize() {
+        return CAPTURE_HEADER + ((mSpikes.size() + 1) * CAPTURE_BODY);
+    }
+
+    /**
+     * Writes everything that changes as the world runs, like {@link #save},
+     * but quantized to ints that change little from one tick to the next, for
+     * {@link RewindBuffer}. Allocates nothing.
+     *
+     * @param out where to write; must hold {@link #captureSize()} values
+     */
+    void capture(int[] out) {
+        out[0] = mTicks;
+        out[1] = mBlobDead ? 1 : 0;
+        int i = CAPTURE_HEADER;
+        for (int j = 0; j < mSpikes.size(); j++, i += CAPTURE_BODY) {
+            captureBody(out, i, mSpikes.get(j));
+        }
+        captureBody(out, i, mBlob);
+    }
+
+    /**
+     * Puts the world back as it was when {@link #capture} was called, give
+     * or take the quantization. Shows up in the state after the next
+     * {@link #run()} or {@link #refresh()}. Allocates nothing.
+     *
+     * @param in the values
+     */
+    void restore(int[] in) {
+        clearContacts();
+        mTicks = in[0];
+        mBlobDead = in[1] != 0;
+        int i = CAPTURE_HEADER;
+        for (int j = 0; j < mSpikes.size(); j++, i += CAPTURE_BODY) {
+            restoreBody(in, i, mSpikes.get(j));
+        }
+        restoreBody(in, i, mBlob);
+        mWorld.clearForces();
+        findContacts();
+    }
+
+    /**
+     * Quantizes the motion of a body.
+     *
+     * @param out    where to write
+     * @param offset where in {@code out} to start
+     * @param body   the body
+     */
+    private static void captureBody(int[] out, int offset, Body body) {
+        Vec2 pos = body.getPosition();
+        Vec2 vel = body.getLinearVelocity();
+        out[offset] = Math.round(pos.x * CAPTURE_STEPS);
+        out[offset + 1] = Math.round(pos.y * CAPTURE_STEPS);
+        out[offset + 2] = Math.round(body.getAngle() * CAPTURE_STEPS);
+        out[offset + 3] = Math.round(vel.x * CAPTURE_STEPS);
+        out[offset + 4] = Math.round(vel.y * CAPTURE_STEPS);
+        out[offset + 5] = Math.round(body.getAngularVelocity() * CAPTURE_STEPS);
+        out[offset + 6] = body.isAwake() ? 1 : 0;
+    }
+
+    /**
+     * Reads the motion of a body written by {@link #captureBody}.
+     *
+     * @param in     the values
+     * @param offset where in {@code in} to start
+     * @param body   the body
+     */
+    private void restoreBody(int[] in, int offset, Body body) {
+        mPosition.set(in[offset] / CAPTURE_STEPS, in[offset + 1] / CAPTURE_STEPS);
+        body.setTransform(mPosition, in[offset + 2] / CAPTURE_STEPS);
+        mVelocity.set(in[offset + 3] / CAPTURE_STEPS, in[offset + 4] / CAPTURE_STEPS);
+        body.setLinearVelocity(mVelocity);
+        body.setAngularVelocity(in[offset + 5] / CAPTURE_STEPS);
+        body.setAwake(in[offset + 6] != 0);
+    }
+
+    /**
+     * Writes the motion of a body.
+     *
+     * @param out  where to write
+     * @param body the body
+     */
+    private static void saveBody(ByteBuffer out, Body body) {
+        Vec2 pos = body.getPosition();
+        Vec2 vel = body.getLinearVelocity();
+        out.putFloat(pos.x).putFloat(pos.y).putFloat(body.getAngle());
+        out.putFloat(vel.x).putFloat(vel.y).putFloat(body.getAngularVelocity());
+        out.put((byte) (body.isAwake() ? 1 : 0));
+    }
+
+    /**
+     * Reads the motion of a body written by {@link #saveBody}.
+     *
+     * @param in   where to read from
+     * @param body the body
+     */
+    private void restoreBody(ByteBuffer in, Body body) {
+        mPosition.x = in.getFloat();
+        mPosition.y = in.getFloat();
+        body.setTransform(mPosition, in.getFloat());
+        mVelocity.x = in.getFloat();
+        mVelocity.y = in.getFloat();
+        body.setLinearVelocity(mVelocity);
+        body.setAngularVelocity(in.getFloat());
+        // Putting a body to sleep stops it, which it already was
+        body.setAwake(in.get() != 0);
+    }
+
+    /**
+     * Moves a body and stops it.
+     *
+     * @param body the body
+     * @param x    x position, in physics units
+     * @param y    y position, in physics units
+     */
+    private void place(Body body, float x, float y) {
+        mPosition.set(x, y);
+        body.setTransform(mPosition, 0);
+        mVelocity.setZero();
+        body.setLinearVelocity(mVelocity);
+        body.setAngularVelocity(0);
+        body.setAwake(true);
     }
 
     /**
@@ -145,43 +538,44 @@ class LevelPhysicsUpdater implements Runnable, ContactListener {
      * @param y velocity
      */
     public void setBlobVelocity(float x, float y) {
-        mBlob.setLinearVelocity(new Vec2(x, y));
+        mVelocity.set(x, y);
+        mBlob.setLinearVelocity(mVelocity);
     }
 
     /**
      * Updates {@code mData} to reflect the current state of the world.
      */
     private void updateState() {
-        LevelState.Builder builder = new LevelState.Builder();
-        PolygonShape shape;
-        Vec2[] wp = new Vec2[4];
-        for (int i = 0; i < 4; i++) {
-            wp[i] = new Vec2();
-        }
-
-        // Walls
-        for (Body wall : mWalls) {
-            shape = (PolygonShape) wall.getFixtureList().getShape();
-            for (int i = 0; i < 4; i++) {
-                Transform.mulToOut(wall.getTransform(), shape.getVertex(i), wp[i]);
-            }
-            builder.addWall((int) (wp[0].x * SCALE), (int) (wp[0].y * SCALE),
-                    (int) (wp[1].x * SCALE), (int) (wp[1].y * SCALE),
-                    (int) (wp[2].x * SCALE), (int) (wp[2].y * SCALE),
-                    (int) (wp[3].x * SCALE), (int) (wp[3].y * SCALE));
+        // Refill a state that was handed back, if there is one
+        LevelState state = mFreeState;
+        mFreeState = null;
+        if (state == null) {
+            // Walls are static
+            state = new LevelState(mLevel, mSpikes.size());
         }
+        Vec2 wp;
 
         // Spikes
-        for (Body spike : mSpikes) {
-            wp[0] = spike.getWorldCenter();
-            builder.addSpike((int) (wp[0].x * SCALE), (int) (wp[0].y * SCALE));
+        for (int i = 0; i < mSpikes.size(); i++) {
+            wp = mSpikes.get(i).getWorldCenter();
+            state.setSpike(i, (int) (wp.x * SCALE), (int) (wp.y * SCALE));
         }
 
         // Blob
-        wp[0] = mBlob.getWorldCenter();
-        builder.setBlob((int) (wp[0].x * SCALE), (int) (wp[0].y * SCALE));
+        wp = mBlob.getWorldCenter();
+        state.setBlob((int) (wp.x * SCALE), (int) (wp.y * SCALE));
+
+        mState = state;
+    }
 
-        mState = builder.build();
+    /**
+     * Updates the state without stepping the world, to show bodies that were
+     * moved by hand.
+     */
+    void refresh() {
+        FrameTracer.begin(FrameTracer.UPDATE_STATE);
+        updateState();
+        FrameTracer.end(FrameTracer.UPDATE_STATE);
     }
 
     /**
@@ -193,13 +587,93 @@ class LevelPhysicsUpdater implements Runnable, ContactListener {
         return mState;
     }
 
+    /**
+     * Hands back a state from {@link #getState()} that nothing uses anymore,
+     * so that it can be refilled instead of allocating a new one.
+     *
+     * @param state the state, or {@code null}
+     */
+    void recycle(LevelState state) {
+        if ((state != null) && (state != mState)) {
+            mFreeState = state;
+        }
+    }
+
+    /**
+     * Returns the state the level was created from.
+     *
+     * @return the level
+     */
+    LevelState getLevel() {
+        return mLevel;
+    }
+
+    /**
+     * Returns the number of runs since the level was started or last reset.
+     *
+     * @return the tick count
+     */
+    int getTicks() {
+        return mTicks;
+    }
+
+    /**
+     * Checks whether the blob has hit a spike yet.
+     *
+     * @return whether or not the blob is dead
+     */
+    boolean isBlobDead() {
+        return mBlobDead;
+    }
+
+    /**
+     * Returns the number of bodies in the world.
+     *
+     * @return the body count
+     */
+    int getBodyCount() {
+        return mWorld.getBodyCount();
+    }
+
+    /**
+     * Returns the number of contacts in the world, touching or not.
+     *
+     * @return the contact count
+     */
+    int getContactCount() {
+        return mWorld.getContactCount();
+    }
+
+    /**
+     * Returns the particle effects of this world.
+     *
+     * @return the particles, or {@code null} if it has none
+     */
+    ParticleSystem getParticles() {
+        return mParticles;
+    }
+
     /**
      * Updates physics and collisions.
      */
     @Override
     public void run() {
+        FrameTracer.begin(FrameTracer.WORLD_STEP);
         mWorld.step(TIME_STEP, 8, 3);
+        mTicks++;
+        FrameTracer.end(FrameTracer.WORLD_STEP);
+
+        // Effects
+        if (mParticles != null) {
+            Vec2 pos = mBlob.getWorldCenter();
+            Vec2 vel = mBlob.getLinearVelocity();
+            mParticles.trail(pos.x * SCALE, pos.y * SCALE, vel.x * SCALE, vel.y * SCALE);
+            mParticles.step(TIME_STEP);
+        }
+
+        FrameTracer.begin(FrameTracer.UPDATE_STATE);
         updateState();
+        FrameTracer.end(FrameTracer.UPDATE_STATE);
     }
 
     /**
@@ -213,22 +687,46 @@ class LevelPhysicsUpdater implements Runnable, ContactListener {
     public void beginContact(Contact contact) {
         Fixture a = contact.getFixtureA();
         Fixture b = contact.getFixtureB();
-        Fixture screenDet = mScreenDet.getFixtureList();
-        Fixture blob = mBlob.getFixtureList();
-        if (((a == screenDet) && (b == blob)) || ((b == screenDet) && (a == blob))) {
-            System.out.println("+++On--Screen!+++");
+        // Including the off-screen detector
+        if (a.isSensor() || b.isSensor()) {
+            return;
         }
+
+        // Spikes that hit the blob burst; anything else that hits makes sparks
+        Body bodyA = a.getBody();
+        Body bodyB = b.getBody();
+        if ((bodyA == mBlob) && isSpike(bodyB)) {
+            mBlobDead = true;
+            if (mParticles != null) {
+                Vec2 spike = bodyB.getWorldCenter();
+                mParticles.burst(spike.x * SCALE, spike.y * SCALE);
+            }
+        } else if ((bodyB == mBlob) && isSpike(bodyA)) {
+            mBlobDead = true;
+            if (mParticles != null) {
+                Vec2 spike = bodyA.getWorldCenter();
+                mParticles.burst(spike.x * SCALE, spike.y * SCALE);
+            }
+        } else if (mParticles != null) {
+            contact.getWorldManifold(mManifold);
+            Vec2 point = mManifold.points[0];
+            mParticles.impact(point.x * SCALE, point.y * SCALE, mManifold.normal.x, mManifold.normal.y);
+        }
+    }
+
+    /**
+     * Checks whether a body is a spike. Spikes are the only dynamic bodies
+     * other than the blob.
+     *
+     * @param body the body
+     * @return whether or not it is a spike
+     */
+    private boolean isSpike(Body body) {
+        return (body != mBlob) && (body.getType() == BodyType.DYNAMIC);
     }
 
     @Override
     public void endContact(Contact contact) {
-        Fixture a = contact.getFixtureA();
-        Fixture b = contact.getFixtureB();
-        Fixture screenDet = mScreenDet.getFixtureList();
-        Fixture blob = mBlob.getFixtureList();
-        if (((a == screenDet) && (b == blob)) || ((b == screenDet) && (a == blob))) {
-            System.out.println("~~~Off-Screen!~~~");
-        }
     }
 
     @Override
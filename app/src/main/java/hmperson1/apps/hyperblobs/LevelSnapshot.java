@@ -0,0 +1,99 @@
+package hmperson1.apps.hyperblobs;
+
+import android.graphics.Point;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Layout of a snapshot of a running level, as taken by
+ * {@link LevelUpdater#snapshot()}. A snapshot starts with the level itself, so
+ * that it can be restored without loading the level again, followed by the
+ * dynamic state of {@link LevelPhysicsUpdater} and then that of the input.
+ * Everything is fixed-size, so that taking a snapshot is a single pass over
+ * the bodies into a buffer of known size.
+ *
+ * @author HMPerson1
+ */
+final class LevelSnapshot {
+
+    /**
+     * Start of every snapshot: "HBSS".
+     */
+    private static final int MAGIC = 0x48425353;
+    /**
+     * Version of the format written.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * Not instantiable.
+     */
+    private LevelSnapshot() {
+    }
+
+    /**
+     * Returns the number of bytes {@link #writeLevel} writes for a level.
+     *
+     * @param level the level
+     * @return the size, in bytes
+     */
+    static int levelSize(LevelState level) {
+        // Magic, version, counts and blob, then each wall and spike
+        return (4 * 6) + (level.getWalls().size() * 4 * 4) + (level.getSpikes().size() * 2 * 4);
+    }
+
+    /**
+     * Writes the walls and starting positions of a level.
+     *
+     * @param out   where to write
+     * @param level the level, as it was loaded
+     */
+    static void writeLevel(ByteBuffer out, LevelState level) {
+        out.putInt(MAGIC);
+        out.putInt(VERSION);
+        List<List<Point>> walls = level.getWalls();
+        out.putInt(walls.size());
+        for (int i = 0; i < walls.size(); i++) {
+            Point center = walls.get(i).get(0);
+            Point half = walls.get(i).get(1);
+            out.putInt(center.x).putInt(center.y).putInt(half.x).putInt(half.y);
+        }
+        List<Point> spikes = level.getSpikes();
+        out.putInt(spikes.size());
+        for (int i = 0; i < spikes.size(); i++) {
+            out.putInt(spikes.get(i).x).putInt(spikes.get(i).y);
+        }
+        Point blob = level.getBlob();
+        out.putInt(blob.x).putInt(blob.y);
+    }
+
+    /**
+     * Reads a level written by {@link #writeLevel}.
+     *
+     * @param in where to read from
+     * @return the level
+     * @throws IllegalArgumentException if {@code in} doesn't hold a snapshot
+     *                                  in this format
+     */
+    static LevelState readLevel(ByteBuffer in) {
+        if ((in.remaining() < 8) || (in.getInt() != MAGIC)) {
+            throw new IllegalArgumentException("Not a snapshot");
+        }
+        int version = in.getInt();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported snapshot version: " + version);
+        }
+        LevelState.Builder builder = new LevelState.Builder();
+        int walls = in.getInt();
+        for (int i = 0; i < walls; i++) {
+            builder.addWall(in.getInt(), in.getInt(), in.getInt(), in.getInt());
+        }
+        int spikes = in.getInt();
+        for (int i = 0; i < spikes; i++) {
+            builder.addSpike(in.getInt(), in.getInt());
+        }
+        builder.setBlob(in.getInt(), in.getInt());
+        return builder.build();
+    }
+}
@@ -9,17 +9,20 @@ import java.util.Comparator;
 import java.util.List;
 
 /**
- * Immutable.
+ * Immutable once published. The only exception is states made for
+ * {@link LevelPhysicsUpdater} with {@link #LevelState(LevelState, int)}, which
+ * it refills after {@link LevelDrawer} has handed them back, so that updating
+ * does not allocate every tick.
  *
  * @author HMPerson1
  */
 public class LevelState {
 
     /**
-     * List of walls. Each wall is a list of two pairs of integers: its center
-     * point and it's half-dimensions.
+     * Walls and everything else that never moves, shared with every other
+     * state of the level.
      */
-    private final List<List<Point>> mWalls;
+    private final LevelGeometry mGeometry;
     /**
      * List of spikes.
      */
@@ -28,23 +31,122 @@ public class LevelState {
      * Position of the blob.
      */
     private final Point mBlob;
+    /**
+     * Spatial index over where the spikes are, or {@code null} until it is
+     * asked for or after a spike moves.
+     */
+    private SpatialGrid mSpikeIndex;
+    /**
+     * Position of the ghost being raced.
+     */
+    private final Point mGhost = new Point();
+    /**
+     * Whether or not there is a ghost to show.
+     */
+    private boolean mGhostShown;
 
     /**
      * Creates and populates a state
      *
-     * @param walls  list of walls
-     * @param spikes list of spikes
-     * @param blob   position of blob
+     * @param geometry walls and everything else that never moves
+     * @param spikes   unmodifiable list of spikes
+     * @param blob     position of blob
      */
     @SuppressWarnings({"WeakerAccess", "AssignmentToCollectionOrArrayFieldFromParameter"})
-    protected LevelState(List<List<Point>> walls,
+    protected LevelState(LevelGeometry geometry,
                          List<Point> spikes,
                          Point blob) {
-        mWalls = walls;
+        mGeometry = geometry;
         mSpikes = spikes;
         mBlob = blob;
     }
 
+    /**
+     * Creates a state with the walls of another and room for the given number
+     * of spikes, all at the origin, to be filled in with {@link #setSpike} and
+     * {@link #setBlob}.
+     *
+     * @param level  state to take the walls from
+     * @param spikes number of spikes
+     */
+    LevelState(LevelState level, int spikes) {
+        List<Point> points = new ArrayList<Point>(spikes);
+        for (int i = 0; i < spikes; i++) {
+            points.add(new Point());
+        }
+        mGeometry = level.mGeometry;
+        mSpikes = Collections.unmodifiableList(points);
+        mBlob = new Point();
+    }
+
+    /**
+     * Moves a spike. Only for states that nothing else can see.
+     *
+     * @param index index of the spike
+     * @param x     center x coordinate
+     * @param y     center y coordinate
+     */
+    void setSpike(int index, int x, int y) {
+        mSpikes.get(index).set(x, y);
+        mSpikeIndex = null;
+    }
+
+    /**
+     * Moves the blob. Only for states that nothing else can see.
+     *
+     * @param x center x coordinate
+     * @param y center y coordinate
+     */
+    void setBlob(int x, int y) {
+        mBlob.set(x, y);
+    }
+
+    /**
+     * Moves the ghost and shows it. Only for states that nothing else can
+     * see.
+     *
+     * @param x center x coordinate
+     * @param y center y coordinate
+     */
+    void setGhost(int x, int y) {
+        mGhost.set(x, y);
+        mGhostShown = true;
+    }
+
+    /**
+     * Hides the ghost. Only for states that nothing else can see.
+     */
+    void hideGhost() {
+        mGhostShown = false;
+    }
+
+    /**
+     * Checks whether there is a ghost to show.
+     *
+     * @return whether or not the ghost is shown
+     */
+    boolean isGhostShown() {
+        return mGhostShown;
+    }
+
+    /**
+     * Returns the x coordinate of the ghost, without copying it.
+     *
+     * @return center x coordinate of the ghost
+     */
+    int getGhostX() {
+        return mGhost.x;
+    }
+
+    /**
+     * Returns the y coordinate of the ghost, without copying it.
+     *
+     * @return center y coordinate of the ghost
+     */
+    int getGhostY() {
+        return mGhost.y;
+    }
+
     /**
      * Returns the position of the blob.
      *
@@ -54,13 +156,31 @@ public class LevelState {
         return new Point(mBlob);
     }
 
+    /**
+     * Returns the x coordinate of the blob, without copying it.
+     *
+     * @return center x coordinate of the blob
+     */
+    int getBlobX() {
+        return mBlob.x;
+    }
+
+    /**
+     * Returns the y coordinate of the blob, without copying it.
+     *
+     * @return center y coordinate of the blob
+     */
+    int getBlobY() {
+        return mBlob.y;
+    }
+
     /**
      * Returns the list of spikes.
      *
      * @return an unmodifiable list of spikes
      */
     public List<Point> getSpikes() {
-        return Collections.unmodifiableList(mSpikes); // Extra redundancy just in case
+        return mSpikes;
     }
 
     /**
@@ -69,7 +189,54 @@ public class LevelState {
      * @return an unmodifiable list of walls
      */
     public List<List<Point>> getWalls() {
-        return Collections.unmodifiableList(mWalls);
+        return mGeometry.getWalls();
+    }
+
+    /**
+     * Returns a spatial index over the walls. Indices refer to positions in
+     * {@link #getWalls()}.
+     *
+     * @return the index
+     */
+    SpatialGrid getWallIndex() {
+        return mGeometry.getIndex();
+    }
+
+    /**
+     * Returns a spatial index over the bounding boxes of the spikes, where
+     * they are in this state. Indices refer to positions in
+     * {@link #getSpikes()}. The index is built the first time it is asked
+     * for, which allocates, and again after a pooled state is refilled, so
+     * nothing pays for it unless it is used. Threads that race to build it
+     * each get a whole index, since the grid is immutable.
+     *
+     * @return the index
+     */
+    SpatialGrid getSpikeIndex() {
+        SpatialGrid index = mSpikeIndex;
+        if (index == null) {
+            int count = mSpikes.size();
+            int[] bounds = new int[count * 4];
+            for (int i = 0; i < count; i++) {
+                Point spike = mSpikes.get(i);
+                bounds[(i * 4) + 0] = spike.x - LevelUpdater.SPIKE_RADIUS;
+                bounds[(i * 4) + 1] = spike.y - LevelUpdater.SPIKE_RADIUS;
+                bounds[(i * 4) + 2] = spike.x + LevelUpdater.SPIKE_RADIUS;
+                bounds[(i * 4) + 3] = spike.y + LevelUpdater.SPIKE_RADIUS;
+            }
+            index = new SpatialGrid(bounds, count, SpatialGrid.chooseCellSize(bounds, count));
+            mSpikeIndex = index;
+        }
+        return index;
+    }
+
+    /**
+     * Returns the walls and everything else about the level that never moves.
+     *
+     * @return the shared geometry
+     */
+    LevelGeometry getGeometry() {
+        return mGeometry;
     }
 
     /**
@@ -103,6 +270,10 @@ public class LevelState {
          * Current list of walls.
          */
         private final List<List<Point>> mWalls = new ArrayList<List<Point>>();
+        /**
+         * State whose walls are used instead of {@code mWalls}, if any.
+         */
+        private LevelState mWallSource;
         /**
          * Current list of spikes.
          */
@@ -202,6 +373,19 @@ public class LevelState {
             return this;
         }
 
+        /**
+         * Uses the walls of another state instead of any walls added to this
+         * builder. Since walls never move, this lets every state of a level
+         * share the same {@link LevelGeometry}.
+         *
+         * @param state state to take the walls from
+         * @return this object for convenience
+         */
+        public Builder copyWalls(LevelState state) {
+            mWallSource = state;
+            return this;
+        }
+
         /**
          * Adds a spike.
          *
@@ -220,8 +404,9 @@ public class LevelState {
          * @return the completed object.
          */
         public LevelState build() {
-            return new LevelState(Collections.unmodifiableList(mWalls),
-                    Collections.unmodifiableList(mSpikes), mBlob);
+            LevelGeometry geometry = (mWallSource != null) ? mWallSource.mGeometry
+                    : new LevelGeometry(Collections.unmodifiableList(new ArrayList<List<Point>>(mWalls)));
+            return new LevelState(geometry, Collections.unmodifiableList(mSpikes), mBlob);
         }
     }
 }
@@ -3,10 +3,11 @@ package hmperson1.apps.hyperblobs;
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorManager;
-import android.opengl.GLSurfaceView.Renderer;
 import android.opengl.Matrix;
 import android.view.Surface;
 
+import java.nio.ByteBuffer;
+
 /**
  * Continually does physics simulation and game-state updating.
  *
@@ -26,6 +27,10 @@ public class LevelUpdater extends Thread {
      * Height of the emulated screen.
      */
     public static final float HEIGHT = 360;
+    /**
+     * Length of a level.
+     */
+    public static final int LENGTH = 960;
     /**
      * Scaling factor from Box2d to screen.
      */
@@ -34,6 +39,33 @@ public class LevelUpdater extends Thread {
      * Scaling factor from screen to Box2d.
      */
     public static final float INV_SCALE = 1 / SCALE;
+    /**
+     * Time between physics updates, in nanoseconds. Matches the time step of
+     * {@link LevelPhysicsUpdater}.
+     */
+    static final long TICK = 1000000000L / 60;
+    /**
+     * How far behind the updates can fall before we stop trying to catch up,
+     * in nanoseconds.
+     */
+    private static final long MAX_LAG = 4 * TICK;
+    /**
+     * Bytes a snapshot holds for the input: the type and values of the last
+     * sensor data, and the next velocity.
+     */
+    private static final int INPUT_BYTES = (4 * 4) + (2 * 4);
+    /**
+     * Number of ticks that can be rewound: ten seconds.
+     */
+    private static final int REWIND_TICKS = 10 * 60;
+    /**
+     * Most bytes used to keep the ticks that can be rewound.
+     */
+    private static final int REWIND_BYTES = 256 * 1024;
+    /**
+     * Ticks from one full frame of the rewind buffer to the next.
+     */
+    private static final int REWIND_KEY_INTERVAL = 30;
     /**
      * Used to input data from sensors.
      */
@@ -50,45 +82,315 @@ public class LevelUpdater extends Thread {
      * The next velocity the blob should have.
      */
     private final float[] mNextVel = new float[2];
+    /**
+     * The last few seconds of the world.
+     */
+    private final RewindBuffer mRewind;
+    /**
+     * Plays back {@code mBest}.
+     */
+    private final GhostRun.Player mGhostPlayer = new GhostRun.Player();
+    /**
+     * Where the blob has been during this attempt, or {@code null} if there
+     * is no ghost to race.
+     */
+    private GhostRun mAttempt;
+    /**
+     * Best attempt so far, shown as the ghost.
+     */
+    private GhostRun mBest;
+    /**
+     * Whether or not {@code mBest} was beaten since the last time it was
+     * taken.
+     */
+    private boolean mBestChanged;
     /**
      * Whether or not we should be running.
      */
     private volatile boolean mRun = true;
+    /**
+     * Where to record how long steps take, or {@code null}.
+     */
+    private volatile PerfStats mStats;
+    /**
+     * Where to record the input of every tick, or {@code null}.
+     */
+    private volatile InputLog mRecording;
+    /**
+     * Whether or not to start the level over on the next tick.
+     */
+    private volatile boolean mRestart;
+    /**
+     * Whether or not the loop should end for good.
+     */
+    private volatile boolean mQuit;
+    /**
+     * Whether or not to go back in time instead of forward.
+     */
+    private volatile boolean mRewinding;
 
     /**
-     * Creates a new {@code LevelUpdater} with the given state.
+     * Creates a new {@code LevelUpdater} with the given state, in a world from
+     * the pool.
      *
      * @param state the initial state of the world
      */
     public LevelUpdater(LevelState state) {
+        this(state, false);
+    }
+
+    /**
+     * Creates a new {@code LevelUpdater} with the given state.
+     *
+     * @param state the initial state of the world
+     * @param exact whether or not to build a new world, so that input
+     *              recorded with {@link #setRecording} replays exactly
+     */
+    public LevelUpdater(LevelState state, boolean exact) {
         mDrawer = new LevelDrawer();
-        mPhysics = new LevelPhysicsUpdater(state, 960);
+        mPhysics = new LevelPhysicsUpdater(state, LENGTH, true, exact);
+        mDrawer.setParticles(mPhysics.getParticles());
+        mRewind = new RewindBuffer(mPhysics.captureSize(), REWIND_TICKS, REWIND_BYTES, REWIND_KEY_INTERVAL);
 
     }
 
+    /**
+     * Creates a new {@code LevelUpdater} that carries on from a snapshot, as
+     * taken by {@link #snapshot()}. The level comes from the snapshot itself,
+     * so nothing is loaded.
+     *
+     * @param snapshot the snapshot
+     * @return the updater
+     * @throws IllegalArgumentException if {@code snapshot} is not a valid
+     *                                  snapshot
+     */
+    public static LevelUpdater fromSnapshot(byte[] snapshot) {
+        ByteBuffer in = ByteBuffer.wrap(snapshot);
+        LevelState level;
+        try {
+            level = LevelSnapshot.readLevel(in);
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid snapshot", e);
+        }
+        LevelUpdater updater = new LevelUpdater(level);
+        if (in.remaining() != (updater.mPhysics.snapshotSize() + INPUT_BYTES)) {
+            updater.mPhysics.release();
+            throw new IllegalArgumentException("Snapshot doesn't match its level");
+        }
+        updater.mPhysics.restore(in);
+        updater.input.restore(in);
+        updater.setMotion(in.getFloat(), in.getFloat());
+        return updater;
+    }
+
     /**
      * Loops through physics updates.
      */
     @SuppressWarnings("RefusedBequest")
     @Override
     public void run() {
-        boolean cont = true;
-        while (cont) {
+        long nextTick = System.nanoTime();
+        while (!mQuit) {
             synchronized (this) {
-                while (!mRun) try {
-                    wait();
+                if (!mRun) {
+                    while (!mRun && !mQuit) try {
+                        wait();
+                    } catch (InterruptedException ignored) {
+                        // quit() interrupts too; mQuit says whether to end
+                    }
+                    // Don't try to catch up on the time spent paused
+                    nextTick = System.nanoTime();
+                    continue;
+                }
+            }
+
+            // Update at a fixed rate, so the drawer gets one state per tick
+            long delay = nextTick - System.nanoTime();
+            if (delay > 0) {
+                try {
+                    Thread.sleep(delay / 1000000, (int) (delay % 1000000));
                 } catch (InterruptedException ignored) {
-                    cont = false;
+                    continue;
                 }
+            } else if (delay < -MAX_LAG) {
+                nextTick = System.nanoTime();
+            }
+            nextTick += TICK;
+            // Never tick while paused, so that a snapshot taken then is whole
+            synchronized (this) {
+                if (mRun && !mQuit) {
+                    tick();
+                }
+            }
+        }
+        // Let the next level reuse the world
+        mPhysics.release();
+    }
+
+    /**
+     * Does one update: applies input, steps the world and hands the new state
+     * to the drawer. Allocates nothing once warmed up.
+     */
+    void tick() {
+        if (mRewinding) {
+            // Step back a tick, or stay put once there is nothing older
+            mRewind.rewind(1, mPhysics);
+            mPhysics.refresh();
+            mPhysics.getState().hideGhost();
+            handOff();
+            return;
+        }
+        // Start over after dying, in place
+        if (mRestart || mPhysics.isBlobDead()) {
+            mRestart = false;
+            endAttempt();
+            mPhysics.reset();
+            InputLog recording = mRecording;
+            if (recording != null) {
+                recording.appendReset();
             }
-            input.run();
-            synchronized (mNextVel) {
-                mPhysics.setBlobVelocity(mNextVel[0], mNextVel[1]);
+        }
+        FrameTracer.begin(FrameTracer.INPUT);
+        input.run();
+        float x, y;
+        synchronized (mNextVel) {
+            x = mNextVel[0];
+            y = mNextVel[1];
+        }
+        applyMotion(mPhysics, mRecording, x, y);
+        setMotion(0, 0);
+        FrameTracer.end(FrameTracer.INPUT);
+        PerfStats stats = mStats;
+        long start = System.nanoTime();
+        mPhysics.run();
+        if (stats != null) {
+            stats.onTick(System.nanoTime() - start, mPhysics.getBodyCount(), mPhysics.getContactCount());
+        }
+        mRewind.record(mPhysics);
+        if (mAttempt != null) {
+            LevelState state = mPhysics.getState();
+            mAttempt.append(state.getBlobX(), state.getBlobY());
+            if (mGhostPlayer.next()) {
+                state.setGhost(mGhostPlayer.getX(), mGhostPlayer.getY());
+            } else {
+                state.hideGhost();
             }
-            setMotion(0, 0);
-            mPhysics.run();
-            mDrawer.setState(mPhysics.getState());
         }
+        handOff();
+    }
+
+    /**
+     * Gives the blob the velocity for the next tick, and records it if the
+     * input is being recorded. Every tick's input goes through here, whether
+     * it came from the player, through {@link UserInput} and
+     * {@link #setMotion}, or from {@link AutoPlayer}.
+     *
+     * @param physics   the world
+     * @param recording where to record the input, or {@code null}
+     * @param x         x velocity
+     * @param y         y velocity
+     */
+    static void applyMotion(LevelPhysicsUpdater physics, InputLog recording, float x, float y) {
+        if (recording != null) {
+            // Use exactly what a replay will
+            x = InputLog.quantize(x);
+            y = InputLog.quantize(y);
+            recording.append(x, y);
+        }
+        physics.setBlobVelocity(x, y);
+    }
+
+    /**
+     * Keeps the attempt that just ended as the ghost if it beat the ghost, and
+     * starts the ghost over for the next attempt.
+     */
+    private void endAttempt() {
+        if (mAttempt == null) {
+            return;
+        }
+        if (isAttemptBest()) {
+            // Swap, so that the old best's buffer records the next attempt
+            GhostRun best = mBest;
+            mBest = mAttempt;
+            mAttempt = best;
+            mBestChanged = true;
+        }
+        mAttempt.clear();
+        mGhostPlayer.start(mBest);
+    }
+
+    /**
+     * Checks whether the current attempt beats the ghost. Only attempts
+     * played straight through from the start count, which rules out those
+     * that were rewound or restored from a snapshot.
+     *
+     * @return whether or not the attempt is the best so far
+     */
+    private boolean isAttemptBest() {
+        return (mAttempt.size() == mPhysics.getTicks()) && mAttempt.isBetterThan(mBest);
+    }
+
+    /**
+     * Hands the current state to the drawer, and the one it gives back to
+     * the physics updater for refilling.
+     */
+    private void handOff() {
+        FrameTracer.begin(FrameTracer.HANDOFF);
+        mPhysics.recycle(mDrawer.setState(mPhysics.getState()));
+        FrameTracer.end(FrameTracer.HANDOFF);
+    }
+
+    /**
+     * Starts the level over on the next tick.
+     */
+    public void restart() {
+        mRestart = true;
+    }
+
+    /**
+     * Races a ghost: shows it alongside the blob, restarting with every
+     * attempt, and replaces it with any attempt that does better. Must be
+     * called before the updater is started.
+     *
+     * @param ghost the best attempt so far, or {@code null} if there is none
+     */
+    synchronized void setGhost(GhostRun ghost) {
+        mBest = (ghost != null) ? ghost : new GhostRun();
+        mAttempt = new GhostRun();
+        mBestChanged = false;
+        mGhostPlayer.start(mBest);
+    }
+
+    /**
+     * Returns a copy of the best attempt, if one has beaten the ghost given
+     * to {@link #setGhost} or the last one returned. The attempt in progress
+     * counts, so that nothing is lost if the level is left midway.
+     *
+     * @return the new best attempt, or {@code null} if there is none
+     */
+    synchronized GhostRun takeBestGhost() {
+        if (mAttempt == null) {
+            return null;
+        }
+        if (isAttemptBest()) {
+            return new GhostRun(mAttempt);
+        }
+        if (!mBestChanged) {
+            return null;
+        }
+        mBestChanged = false;
+        return new GhostRun(mBest);
+    }
+
+    /**
+     * Starts or stops going back in time, one tick per tick, through the last
+     * few seconds. Input is ignored while rewinding, so an {@link InputLog}
+     * recorded across a rewind doesn't replay the same.
+     *
+     * @param rewinding whether or not to go back in time
+     */
+    public void setRewinding(boolean rewinding) {
+        mRewinding = rewinding;
     }
 
     /**
@@ -114,12 +416,74 @@ public class LevelUpdater extends Thread {
         notifyAll();
     }
 
+    /**
+     * Ends the main loop for good, after which the world is released. Pausing
+     * is done with {@link #setRunning(boolean)} instead.
+     */
+    public void quit() {
+        synchronized (this) {
+            mQuit = true;
+            notifyAll();
+        }
+        interrupt();
+    }
+
+    /**
+     * Takes a snapshot of everything needed to carry on from the current
+     * tick, level included, for {@link #fromSnapshot(byte[])}. Waits for a
+     * tick in progress to finish.
+     *
+     * @return the snapshot
+     */
+    public synchronized byte[] snapshot() {
+        LevelState level = mPhysics.getLevel();
+        ByteBuffer out = ByteBuffer.allocate(LevelSnapshot.levelSize(level) + mPhysics.snapshotSize() + INPUT_BYTES);
+        LevelSnapshot.writeLevel(out, level);
+        mPhysics.save(out);
+        input.save(out);
+        synchronized (mNextVel) {
+            out.putFloat(mNextVel[0]).putFloat(mNextVel[1]);
+        }
+        return out.array();
+    }
+
+    /**
+     * Shows an overlay with performance numbers while the level is drawn, or
+     * hides it.
+     *
+     * @param shown whether or not to show it
+     */
+    public void setPerfHudShown(boolean shown) {
+        PerfStats stats = shown ? new PerfStats() : null;
+        mStats = stats;
+        mDrawer.setPerfStats(stats);
+    }
+
+    /**
+     * Starts or stops recording the input of every tick, so that the session
+     * can be replayed with {@link HeadlessRunner}. It only replays exactly if
+     * the level was created with a new world, and recorded from its start.
+     *
+     * @param recording where to record, or {@code null} to stop
+     */
+    void setRecording(InputLog recording) {
+        mRecording = recording;
+    }
+
+    /**
+     * Releases the resources held for drawing. Must be called once the level
+     * is no longer shown.
+     */
+    public void release() {
+        mDrawer.release();
+    }
+
     /**
      * Returns the {@link LevelDrawer} being used.
      *
      * @return the LevelDrawer
      */
-    Renderer getRenderer() {
+    LevelDrawer getRenderer() {
         return mDrawer;
     }
 
@@ -190,6 +554,35 @@ public class LevelUpdater extends Thread {
             }
         }
 
+        /**
+         * Writes the last sensor data passed in, for a snapshot.
+         *
+         * @param out where to write
+         */
+        void save(ByteBuffer out) {
+            out.putInt(dataType);
+            synchronized (sensorData) {
+                for (float value : sensorData) {
+                    out.putFloat(value);
+                }
+            }
+        }
+
+        /**
+         * Reads sensor data written by {@link #save}, as if it had just been
+         * passed in.
+         *
+         * @param in where to read from
+         */
+        void restore(ByteBuffer in) {
+            dataType = in.getInt();
+            synchronized (sensorData) {
+                for (int i = 0; i < sensorData.length; i++) {
+                    sensorData[i] = in.getFloat();
+                }
+            }
+        }
+
         /**
          * Converts an array of a given size to another size by padding with zeros
          * or clipping off the extra values.
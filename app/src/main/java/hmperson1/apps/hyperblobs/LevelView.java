@@ -1,20 +1,106 @@
 package hmperson1.apps.hyperblobs;
 
 import android.annotation.SuppressLint;
+import android.annotation.TargetApi;
 import android.content.Context;
 import android.opengl.GLSurfaceView;
+import android.os.Build;
+import android.view.Choreographer;
+
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
+ * Shows a level. By default, a frame is only drawn when the drawer has
+ * something new to draw, at the next vsync; while nothing is published, such
+ * as when paused, nothing is drawn at all.
+ *
  * @author HMPerson1
  */
 @SuppressLint("ViewConstructor")
 class LevelView extends GLSurfaceView {
 
-    public LevelView(Context context, Renderer renderer) {
+    /**
+     * Whether or not a frame has been asked for since the last one was
+     * requested.
+     */
+    private final AtomicBoolean mFramePending = new AtomicBoolean();
+    /**
+     * Waits for the next vsync, on the UI thread.
+     */
+    private final Runnable mWaitForVsync = new Runnable() {
+        @Override
+        public void run() {
+            waitForVsync();
+        }
+    };
+    /**
+     * Requests a frame at vsync. Only used on API 16 and up.
+     */
+    private Choreographer.FrameCallback mFrameCallback;
+
+    public LevelView(Context context, LevelDrawer drawer) {
         super(context);
         setEGLContextClientVersion(2);
         setEGLConfigChooser(8, 8, 8, 8, 16, 0);
-        setRenderer(renderer);
-        setRenderMode(RENDERMODE_CONTINUOUSLY);
+        setRenderer(drawer);
+        setOnDemand(true);
+        drawer.setOnStateListener(new Runnable() {
+            @Override
+            public void run() {
+                requestFrame();
+            }
+        });
+    }
+
+    /**
+     * Sets whether frames are only drawn when asked for, or all the time.
+     *
+     * @param onDemand whether or not to draw only when asked for
+     */
+    void setOnDemand(boolean onDemand) {
+        setRenderMode(onDemand ? RENDERMODE_WHEN_DIRTY : RENDERMODE_CONTINUOUSLY);
+    }
+
+    /**
+     * Asks for a frame to be drawn at the next vsync. Asking again before then
+     * does nothing, so at most one frame is drawn per vsync. May be called
+     * from any thread.
+     */
+    void requestFrame() {
+        if ((getRenderMode() == RENDERMODE_WHEN_DIRTY) && mFramePending.compareAndSet(false, true)) {
+            // Choreographer only works on a thread with a Looper
+            post(mWaitForVsync);
+        }
+    }
+
+    /**
+     * Requests a render at the next vsync, or right away if vsync can't be
+     * waited for. Must be called on the UI thread.
+     */
+    private void waitForVsync() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            postFrameCallback();
+        } else {
+            // Drawing still ends up blocked on vsync when buffers are swapped
+            mFramePending.set(false);
+            requestRender();
+        }
+    }
+
+    /**
+     * Requests a render from a {@link Choreographer} frame callback.
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void postFrameCallback() {
+        if (mFrameCallback == null) {
+            mFrameCallback = new Choreographer.FrameCallback() {
+                @Override
+                public void doFrame(long frameTimeNanos) {
+                    mFramePending.set(false);
+                    requestRender();
+                }
+            };
+        }
+        Choreographer.getInstance().postFrameCallback(mFrameCallback);
     }
 }
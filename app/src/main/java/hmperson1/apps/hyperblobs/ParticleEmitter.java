@@ -0,0 +1,162 @@
+package hmperson1.apps.hyperblobs;
+
+import java.nio.FloatBuffer;
+
+/**
+ * A fixed number of particles of one kind, stored as parallel arrays. Dead
+ * particles are replaced by the last live one, so the live particles are
+ * always the first {@link #size()}. Only used on the update thread.
+ *
+ * @author HMPerson1
+ */
+final class ParticleEmitter {
+
+    /**
+     * Floats written per particle by {@link #write}: X, Y, size and alpha.
+     */
+    static final int FLOATS_PER_PARTICLE = 4;
+    /**
+     * Maximum number of live particles.
+     */
+    private final int mCapacity;
+    /**
+     * Fraction of velocity kept after each second.
+     */
+    private final float mDrag;
+    /**
+     * Position of each particle, in screen units.
+     */
+    private final float[] mX, mY;
+    /**
+     * Velocity of each particle, in screen units per second.
+     */
+    private final float[] mVx, mVy;
+    /**
+     * Seconds each particle has left, and had at the start.
+     */
+    private final float[] mLife, mMaxLife;
+    /**
+     * Diameter of each particle, in screen units.
+     */
+    private final float[] mSize;
+    /**
+     * Number of live particles.
+     */
+    private int mCount;
+
+    /**
+     * Creates an emitter with no live particles.
+     *
+     * @param capacity maximum number of live particles
+     * @param drag     fraction of velocity kept after each second
+     */
+    ParticleEmitter(int capacity, float drag) {
+        mCapacity = capacity;
+        mDrag = drag;
+        mX = new float[capacity];
+        mY = new float[capacity];
+        mVx = new float[capacity];
+        mVy = new float[capacity];
+        mLife = new float[capacity];
+        mMaxLife = new float[capacity];
+        mSize = new float[capacity];
+    }
+
+    /**
+     * Adds a particle. Does nothing if the emitter is full.
+     *
+     * @param x    X position
+     * @param y    Y position
+     * @param vx   X velocity
+     * @param vy   Y velocity
+     * @param life seconds the particle lives for
+     * @param size diameter of the particle
+     */
+    void emit(float x, float y, float vx, float vy, float life, float size) {
+        if (mCount == mCapacity) {
+            return;
+        }
+        int i = mCount++;
+        mX[i] = x;
+        mY[i] = y;
+        mVx[i] = vx;
+        mVy[i] = vy;
+        mLife[i] = life;
+        mMaxLife[i] = life;
+        mSize[i] = size;
+    }
+
+    /**
+     * Moves every particle and removes the ones that died.
+     *
+     * @param dt seconds that passed
+     */
+    void step(float dt) {
+        float drag = (float) Math.pow(mDrag, dt);
+        int i = 0;
+        while (i < mCount) {
+            mLife[i] -= dt;
+            if (mLife[i] <= 0) {
+                // Move the last one into this slot, and look at it next
+                int last = --mCount;
+                mX[i] = mX[last];
+                mY[i] = mY[last];
+                mVx[i] = mVx[last];
+                mVy[i] = mVy[last];
+                mLife[i] = mLife[last];
+                mMaxLife[i] = mMaxLife[last];
+                mSize[i] = mSize[last];
+                continue;
+            }
+            mVx[i] *= drag;
+            mVy[i] *= drag;
+            mX[i] += mVx[i] * dt;
+            mY[i] += mVy[i] * dt;
+            i++;
+        }
+    }
+
+    /**
+     * Writes the live particles for drawing, as {@link #FLOATS_PER_PARTICLE}
+     * floats each. Particles fade out as they die.
+     *
+     * @param out where to write, with room for {@link #capacity()} particles
+     * @return the number of particles written
+     */
+    int write(FloatBuffer out) {
+        out.clear();
+        for (int i = 0; i < mCount; i++) {
+            out.put(mX[i]);
+            out.put(mY[i]);
+            out.put(mSize[i]);
+            out.put(mLife[i] / mMaxLife[i]);
+        }
+        out.flip();
+        return mCount;
+    }
+
+    /**
+     * Removes every particle.
+     */
+    void clear() {
+        mCount = 0;
+    }
+
+    /**
+     * Returns the number of live particles.
+     *
+     * @return the number of particles
+     */
+    int size() {
+        return mCount;
+    }
+
+    /**
+     * Returns the maximum number of live particles.
+     *
+     * @return the capacity
+     */
+    int capacity() {
+        return mCapacity;
+    }
+}
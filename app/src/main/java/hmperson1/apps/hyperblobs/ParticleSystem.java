@@ -0,0 +1,242 @@
+package hmperson1.apps.hyperblobs;
+
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+/**
+ * Effects made of particles: sparks where things hit walls, a trail behind the
+ * blob and bursts where spikes hit the blob. Particles are simulated on the
+ * update thread and handed to the drawer through three sets of buffers, so
+ * that neither thread waits for the other and nothing is allocated after
+ * construction.
+ *
+ * @author HMPerson1
+ */
+final class ParticleSystem {
+
+    /**
+     * Index of the spark emitter.
+     */
+    static final int SPARKS = 0;
+    /**
+     * Index of the trail emitter.
+     */
+    static final int TRAIL = 1;
+    /**
+     * Index of the burst emitter.
+     */
+    static final int BURSTS = 2;
+    /**
+     * Number of emitters.
+     */
+    static final int EMITTERS = 3;
+    /**
+     * Capacity of each emitter.
+     */
+    private static final int[] CAPACITIES = {1024, 512, 2048};
+    /**
+     * Fraction of velocity each emitter's particles keep after a second.
+     */
+    private static final float[] DRAGS = {0.05f, 0.5f, 0.2f};
+    /**
+     * Sparks made by an impact.
+     */
+    private static final int SPARKS_PER_IMPACT = 24;
+    /**
+     * Particles made by a burst.
+     */
+    private static final int PARTICLES_PER_BURST = 96;
+    /**
+     * Trail particles made per update.
+     */
+    private static final int TRAIL_PER_STEP = 2;
+    /**
+     * The emitters, by index.
+     */
+    private final ParticleEmitter[] mEmitters = new ParticleEmitter[EMITTERS];
+    /**
+     * Randomizes effects. Seeded, so that effects are the same every run.
+     */
+    private final Random mRandom = new Random(0);
+    /**
+     * Lock for handing over frames.
+     */
+    private final Object mFrameLock = new Object();
+    /**
+     * Frame being written by the update thread.
+     */
+    private Frame mBack;
+    /**
+     * Newest frame that was written. Guarded by {@code mFrameLock}.
+     */
+    private Frame mReady;
+    /**
+     * Frame being drawn by the GL thread.
+     */
+    private Frame mFront;
+    /**
+     * Whether or not {@code mReady} is newer than {@code mFront}. Guarded by
+     * {@code mFrameLock}.
+     */
+    private boolean mFresh;
+
+    /**
+     * Creates a system with no particles.
+     */
+    ParticleSystem() {
+        for (int i = 0; i < EMITTERS; i++) {
+            mEmitters[i] = new ParticleEmitter(CAPACITIES[i], DRAGS[i]);
+        }
+        mBack = new Frame();
+        mReady = new Frame();
+        mFront = new Frame();
+    }
+
+    /**
+     * Returns the maximum number of particles of an emitter.
+     *
+     * @param emitter index of the emitter
+     * @return the capacity
+     */
+    static int capacity(int emitter) {
+        return CAPACITIES[emitter];
+    }
+
+    /**
+     * Makes sparks fly off of a surface.
+     *
+     * @param x  X position of the impact
+     * @param y  Y position of the impact
+     * @param nx X component of the surface normal
+     * @param ny Y component of the surface normal
+     */
+    void impact(float x, float y, float nx, float ny) {
+        ParticleEmitter sparks = mEmitters[SPARKS];
+        for (int i = 0; i < SPARKS_PER_IMPACT; i++) {
+            // Within 60 degrees either side of the normal
+            float angle = (float) Math.atan2(ny, nx) + ((mRandom.nextFloat() - 0.5f) * 2.1f);
+            float speed = 150 + (mRandom.nextFloat() * 250);
+            sparks.emit(x, y, (float) Math.cos(angle) * speed, (float) Math.sin(angle) * speed,
+                    0.2f + (mRandom.nextFloat() * 0.3f), 3 + (mRandom.nextFloat() * 3));
+        }
+    }
+
+    /**
+     * Bursts a spike into particles.
+     *
+     * @param x X position of the spike
+     * @param y Y position of the spike
+     */
+    void burst(float x, float y) {
+        ParticleEmitter bursts = mEmitters[BURSTS];
+        for (int i = 0; i < PARTICLES_PER_BURST; i++) {
+            float angle = mRandom.nextFloat() * (float) (2 * Math.PI);
+            float speed = 50 + (mRandom.nextFloat() * 200);
+            bursts.emit(x, y, (float) Math.cos(angle) * speed, (float) Math.sin(angle) * speed,
+                    0.4f + (mRandom.nextFloat() * 0.6f), 4 + (mRandom.nextFloat() * 6));
+        }
+    }
+
+    /**
+     * Leaves a trail behind something that is moving.
+     *
+     * @param x  X position
+     * @param y  Y position
+     * @param vx X velocity
+     * @param vy Y velocity
+     */
+    void trail(float x, float y, float vx, float vy) {
+        ParticleEmitter trail = mEmitters[TRAIL];
+        for (int i = 0; i < TRAIL_PER_STEP; i++) {
+            float jitterX = (mRandom.nextFloat() - 0.5f) * 20;
+            float jitterY = (mRandom.nextFloat() - 0.5f) * 20;
+            trail.emit(x + jitterX, y + jitterY, -vx * 0.1f, -vy * 0.1f,
+                    0.5f + (mRandom.nextFloat() * 0.3f), 8 + (mRandom.nextFloat() * 8));
+        }
+    }
+
+    /**
+     * Moves every particle, then hands them to the drawer.
+     *
+     * @param dt seconds that passed
+     */
+    void step(float dt) {
+        Frame back = mBack;
+        for (int i = 0; i < EMITTERS; i++) {
+            mEmitters[i].step(dt);
+            back.counts[i] = mEmitters[i].write(back.data[i]);
+        }
+        synchronized (mFrameLock) {
+            mBack = mReady;
+            mReady = back;
+            mFresh = true;
+        }
+    }
+
+    /**
+     * Removes every particle.
+     */
+    void clear() {
+        for (ParticleEmitter emitter : mEmitters) {
+            emitter.clear();
+        }
+    }
+
+    /**
+     * Returns the number of live particles.
+     *
+     * @return the number of particles
+     */
+    int size() {
+        int size = 0;
+        for (ParticleEmitter emitter : mEmitters) {
+            size += emitter.size();
+        }
+        return size;
+    }
+
+    /**
+     * Returns the newest particles for drawing. The frame stays valid until the
+     * next call. Only used on the GL thread.
+     *
+     * @return the frame
+     */
+    Frame acquire() {
+        synchronized (mFrameLock) {
+            if (mFresh) {
+                Frame front = mFront;
+                mFront = mReady;
+                mReady = front;
+                mFresh = false;
+            }
+            return mFront;
+        }
+    }
+
+    /**
+     * Particles of every emitter at one point in time.
+     */
+    static final class Frame {
+
+        /**
+         * Particles of each emitter, as written by
+         * {@link ParticleEmitter#write}.
+         */
+        final FloatBuffer[] data = new FloatBuffer[EMITTERS];
+        /**
+         * Number of particles of each emitter.
+         */
+        final int[] counts = new int[EMITTERS];
+
+        /**
+         * Creates an empty frame.
+         */
+        Frame() {
+            for (int i = 0; i < EMITTERS; i++) {
+                data[i] = GLPolyTools.allocate(CAPACITIES[i] * ParticleEmitter.FLOATS_PER_PARTICLE * 4)
+                        .asFloatBuffer();
+                data[i].limit(0);
+            }
+        }
+    }
+}
@@ -0,0 +1,423 @@
+package hmperson1.apps.hyperblobs;
+
+import android.opengl.GLES20;
+import android.opengl.Matrix;
+
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Text overlay showing the numbers in a {@link PerfStats}. The text is laid
+ * out in a tiny built-in bitmap font as one mesh of quads, which is only
+ * rebuilt a couple of times per second, so drawing it every frame is two
+ * draw calls: a panel behind the text, then the text. The font texture is
+ * meant to be used as the alpha channel of a plain white texture. All calls
+ * must be made on the GL thread.
+ *
+ * @author HMPerson1
+ */
+final class PerfHud {
+
+    /**
+     * Each glyph of the font, from {@code ' '} to {@code 'Z'}, as 5 rows of 3
+     * bits, top row and left column in the highest bits.
+     */
+    private static final short[] GLYPHS = {
+            0x0000, 0, 0, 0, 0, 0x52A5, 0, 0,
+            0, 0, 0, 0, 0, 0x01C0, 0x0002, 0x12A4,
+            0x7B6F, 0x2C97, 0x73E7, 0x72CF, 0x5BC9, 0x79CF, 0x79EF, 0x7292,
+            0x7BEF, 0x7BCF, 0x0410, 0, 0, 0, 0, 0,
+            0, 0x2BED, 0x6BAE, 0x3923, 0x6B6E, 0x79A7, 0x79A4, 0x396B,
+            0x5BED, 0x7497, 0x126A, 0x5BAD, 0x4927, 0x5FED, 0x6B6D, 0x2B6A,
+            0x6BA4, 0x2B73, 0x6BAD, 0x388E, 0x7492, 0x5B6F, 0x5B6A, 0x5BFD,
+            0x5AAD, 0x5A92, 0x72A7,
+    };
+    /**
+     * First character in {@link #GLYPHS}.
+     */
+    private static final char FIRST_CHAR = ' ';
+    /**
+     * Size of a glyph, in texels.
+     */
+    private static final int GLYPH_WIDTH = 3, GLYPH_HEIGHT = 5;
+    /**
+     * Size of the cell each glyph takes up in the texture and on the screen,
+     * including spacing, in texels.
+     */
+    private static final int CELL_WIDTH = 4, CELL_HEIGHT = 6;
+    /**
+     * Number of glyphs in each row of the texture.
+     */
+    private static final int COLUMNS = 16;
+    /**
+     * Size of the font texture, in texels.
+     */
+    private static final int TEXTURE_WIDTH = 64, TEXTURE_HEIGHT = 32;
+    /**
+     * Most characters that can be shown.
+     */
+    private static final int MAX_CHARS = 160;
+    /**
+     * How often the text is rebuilt, in nanoseconds.
+     */
+    private static final long REFRESH_INTERVAL = 500000000;
+    /**
+     * Where to send OpenGL calls.
+     */
+    private final GLBackend mGL;
+    /**
+     * Used to bind the texture, so its idea of what is bound stays correct.
+     */
+    private final GLStateCache mGLState;
+    /**
+     * Where the numbers come from.
+     */
+    private final PerfStats mStats;
+    /**
+     * Quads of the visible characters.
+     */
+    private final ByteBuffer mMesh = GLPolyTools.allocate(4 * MAX_CHARS * GLPolyTools.VERTEX_STRIDE);
+    /**
+     * Quad of the panel behind the text.
+     */
+    private final ByteBuffer mPanel = GLPolyTools.allocate(4 * GLPolyTools.VERTEX_STRIDE);
+    /**
+     * Ordering of the quads, limited to the ones in use.
+     */
+    private final ShortBuffer mOrder = GLPolyTools.allocate(6 * MAX_CHARS * (Short.SIZE / Byte.SIZE)).asShortBuffer();
+    /**
+     * Transformation from pixels to the screen.
+     */
+    private final float[] mMatrix = new float[16];
+    /**
+     * The text being built, with {@code '\n'} between lines.
+     */
+    private final char[] mText = new char[MAX_CHARS];
+    /**
+     * Scratch array for sorting times.
+     */
+    private final int[] mSorted = new int[PerfStats.SAMPLES];
+    /**
+     * Scratch array for generating names.
+     */
+    private final int[] mNames = new int[1];
+    /**
+     * Used to measure how fast memory is allocated.
+     */
+    private final Runtime mRuntime = Runtime.getRuntime();
+    /**
+     * Number of characters in {@code mText}.
+     */
+    private int mLength;
+    /**
+     * Handle to the font texture, or 0 if there is none yet.
+     */
+    private int mTexture;
+    /**
+     * Size of the screen, in pixels.
+     */
+    private int mScreenWidth, mScreenHeight;
+    /**
+     * Size of a texel of the font on the screen, in pixels.
+     */
+    private int mPixelSize;
+    /**
+     * When the text was last rebuilt, or 0 if it never was.
+     */
+    private long mLastRefresh;
+    /**
+     * Counts from {@code mStats} when the text was last rebuilt.
+     */
+    private int mLastTicks, mLastFrames;
+    /**
+     * Heap in use when the text was last rebuilt, in bytes.
+     */
+    private long mLastUsed;
+    /**
+     * Most recent allocation rate, in KiB per second.
+     */
+    private long mAllocRate;
+
+    /**
+     * Creates a HUD with no texture yet.
+     *
+     * @param gl      where to send OpenGL calls
+     * @param glState state cache that is used with {@code gl}
+     * @param stats   where the numbers come from
+     */
+    PerfHud(GLBackend gl, GLStateCache glState, PerfStats stats) {
+        mGL = gl;
+        mGLState = glState;
+        mStats = stats;
+        mOrder.limit(0);
+    }
+
+    /**
+     * Returns where the numbers come from.
+     *
+     * @return the stats
+     */
+    PerfStats getStats() {
+        return mStats;
+    }
+
+    /**
+     * Must be called whenever the context is (re)created. The old texture
+     * went away with the old context.
+     */
+    void onContextCreated() {
+        mTexture = 0;
+    }
+
+    /**
+     * Sizes the text to the screen, if it has changed.
+     *
+     * @param width  width of the screen, in pixels
+     * @param height height of the screen, in pixels
+     */
+    void resize(int width, int height) {
+        if ((width == mScreenWidth) && (height == mScreenHeight)) {
+            return;
+        }
+        mScreenWidth = width;
+        Matrix.orthoM(mMatrix, 0, 0, width, 0, height, -1, 1);
+        mScreenHeight = height;
+        mPixelSize = Math.max(1, height / 240);
+        mLastRefresh = 0;
+    }
+
+    /**
+     * Returns the font texture, creating it if there is none.
+     *
+     * @return the texture handle
+     */
+    int getTexture() {
+        if (mTexture == 0) {
+            byte[] texels = new byte[TEXTURE_WIDTH * TEXTURE_HEIGHT];
+            for (int i = 0; i < GLYPHS.length; i++) {
+                int left = (i % COLUMNS) * CELL_WIDTH;
+                int top = (i / COLUMNS) * CELL_HEIGHT;
+                for (int bit = 0; bit < (GLYPH_WIDTH * GLYPH_HEIGHT); bit++) {
+                    if ((GLYPHS[i] & (1 << ((GLYPH_WIDTH * GLYPH_HEIGHT) - 1 - bit))) != 0) {
+                        texels[((top + (bit / GLYPH_WIDTH)) * TEXTURE_WIDTH) + left + (bit % GLYPH_WIDTH)] = -1;
+                    }
+                }
+            }
+            ByteBuffer pixels = GLPolyTools.allocate(texels.length);
+            pixels.put(texels).position(0);
+
+            // Blocky on purpose, and clamped since it isn't square
+            mGL.glGenTextures(1, mNames, 0);
+            mTexture = mNames[0];
+            mGLState.bindTexture(0, mTexture);
+            mGL.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
+            mGL.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
+            mGL.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+            mGL.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+            mGL.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_LUMINANCE, TEXTURE_WIDTH, TEXTURE_HEIGHT, 0,
+                    GLES20.GL_LUMINANCE, GLES20.GL_UNSIGNED_BYTE, pixels);
+        }
+        return mTexture;
+    }
+
+    /**
+     * Returns the quads of the text.
+     *
+     * @return the interleaved vertices
+     */
+    ByteBuffer getMesh() {
+        return mMesh;
+    }
+
+    /**
+     * Returns the quad of the panel behind the text, to be drawn first with
+     * the order of a box, whenever the text is.
+     *
+     * @return the interleaved vertices
+     */
+    ByteBuffer getPanel() {
+        return mPanel;
+    }
+
+    /**
+     * Returns the ordering of the quads in use.
+     *
+     * @return the ordering
+     */
+    ShortBuffer getOrder() {
+        return mOrder;
+    }
+
+    /**
+     * Returns the transformation from pixels to the screen.
+     *
+     * @return the matrix
+     */
+    float[] getMatrix() {
+        return mMatrix;
+    }
+
+    /**
+     * Rebuilds the text if it is time to.
+     *
+     * @param now the current time, from {@link System#nanoTime()}
+     */
+    void update(long now) {
+        if ((mLastRefresh != 0) && ((now - mLastRefresh) < REFRESH_INTERVAL)) {
+            return;
+        }
+        PerfStats stats = mStats;
+        int ticks = stats.getTicks();
+        int frames = stats.getFrames();
+        long used = mRuntime.totalMemory() - mRuntime.freeMemory();
+        long elapsed = now - mLastRefresh;
+        boolean first = mLastRefresh == 0;
+        mLastRefresh = now;
+        if (first) {
+            mLastTicks = ticks;
+            mLastFrames = frames;
+            mLastUsed = used;
+            return;
+        }
+
+        // Rates over the last interval, in tenths per second
+        int fps = (int) (((frames - mLastFrames) * 10000000000L) / elapsed);
+        int tps = (int) (((ticks - mLastTicks) * 10000000000L) / elapsed);
+        // The heap shrinks when collected; keep the last rate until it grows
+        if (used >= mLastUsed) {
+            mAllocRate = ((used - mLastUsed) * 1000000000L) / elapsed / 1024;
+        }
+        mLastTicks = ticks;
+        mLastFrames = frames;
+        mLastUsed = used;
+
+        mLength = 0;
+        append("FPS ");
+        appendFixed(fps, 10);
+        append(" TPS ");
+        appendFixed(tps, 10);
+        int count = stats.sortedStepMicros(mSorted);
+        append("\nSTEP P50 ");
+        appendFixed(PerfStats.percentile(mSorted, count, 50) / 10, 100);
+        append(" P99 ");
+        appendFixed(PerfStats.percentile(mSorted, count, 99) / 10, 100);
+        append(" MS");
+        count = stats.sortedFrameMicros(mSorted);
+        append("\nFRAME P50 ");
+        appendFixed(PerfStats.percentile(mSorted, count, 50) / 10, 100);
+        append(" P99 ");
+        appendFixed(PerfStats.percentile(mSorted, count, 99) / 10, 100);
+        append(" MS");
+        append("\nBODIES ");
+        appendFixed(stats.getBodies(), 1);
+        append(" CONTACTS ");
+        appendFixed(stats.getContacts(), 1);
+        append("\nDRAWS ");
+        appendFixed(stats.getDraws(), 1);
+        append(" ALLOC ");
+        appendFixed((int) Math.min(mAllocRate, Integer.MAX_VALUE), 1);
+        append(" KB/S");
+        append("\nTEXTURES ");
+        appendFixed(stats.getTextureMemory() / 1024, 1);
+        append(" KB");
+        layout();
+    }
+
+    /**
+     * Appends a string to the text, as far as it fits.
+     *
+     * @param s the string
+     */
+    private void append(String s) {
+        for (int i = 0; (i < s.length()) && (mLength < MAX_CHARS); i++) {
+            mText[mLength++] = s.charAt(i);
+        }
+    }
+
+    /**
+     * Appends a non-negative fixed-point number to the text, as far as it
+     * fits.
+     *
+     * @param value the number, times {@code scale}
+     * @param scale 1, 10 or 100: how many fractional digits to show
+     */
+    private void appendFixed(int value, int scale) {
+        value = Math.max(0, value);
+        int whole = value / scale;
+        // Digits come out backwards, so make room for them first
+        int digits = 1;
+        for (int i = whole; i >= 10; i /= 10) {
+            digits++;
+        }
+        if ((mLength + digits) > MAX_CHARS) {
+            return;
+        }
+        for (int i = digits - 1; i >= 0; i--) {
+            mText[mLength + i] = (char) ('0' + (whole % 10));
+            whole /= 10;
+        }
+        mLength += digits;
+        if ((scale > 1) && (mLength < MAX_CHARS)) {
+            mText[mLength++] = '.';
+            for (int unit = scale / 10; (unit > 0) && (mLength < MAX_CHARS); unit /= 10) {
+                mText[mLength++] = (char) ('0' + ((value / unit) % 10));
+            }
+        }
+    }
+
+    /**
+     * Rebuilds the quads from the text, starting at the top left corner.
+     */
+    private void layout() {
+        float cellWidth = CELL_WIDTH * mPixelSize;
+        float cellHeight = CELL_HEIGHT * mPixelSize;
+        float glyphWidth = GLYPH_WIDTH * mPixelSize;
+        float glyphHeight = GLYPH_HEIGHT * mPixelSize;
+        float x = cellWidth;
+        float y = mScreenHeight - cellHeight;
+        float right = x;
+        int quads = 0;
+        mMesh.position(0);
+        mOrder.limit(mOrder.capacity());
+        mOrder.position(0);
+        for (int i = 0; i < mLength; i++) {
+            char c = mText[i];
+            if (c == '\n') {
+                x = cellWidth;
+                y -= cellHeight;
+                continue;
+            }
+            int glyph = c - FIRST_CHAR;
+            if ((glyph > 0) && (glyph < GLYPHS.length) && (GLYPHS[glyph] != 0)) {
+                float s = (float) ((glyph % COLUMNS) * CELL_WIDTH) / TEXTURE_WIDTH;
+                float t = (float) ((glyph / COLUMNS) * CELL_HEIGHT) / TEXTURE_HEIGHT;
+                float s2 = s + ((float) GLYPH_WIDTH / TEXTURE_WIDTH);
+                float t2 = t + ((float) GLYPH_HEIGHT / TEXTURE_HEIGHT);
+                GLPolyTools.putVertex(mMesh, x + glyphWidth, y, s2, t);
+                GLPolyTools.putVertex(mMesh, x + glyphWidth, y - glyphHeight, s2, t2);
+                GLPolyTools.putVertex(mMesh, x, y - glyphHeight, s, t2);
+                GLPolyTools.putVertex(mMesh, x, y, s, t);
+                short first = (short) (quads * 4);
+                mOrder.put(first).put((short) (first + 1)).put((short) (first + 2));
+                mOrder.put(first).put((short) (first + 2)).put((short) (first + 3));
+                quads++;
+                right = Math.max(right, x + glyphWidth);
+            }
+            x += cellWidth;
+        }
+        mMesh.position(0);
+        mOrder.flip();
+
+        // Around the text, with as much room as between lines
+        float margin = cellHeight - glyphHeight;
+        float left = cellWidth - margin;
+        float top = (mScreenHeight - cellHeight) + margin;
+        float bottom = y - glyphHeight - margin;
+        mPanel.position(0);
+        GLPolyTools.putVertex(mPanel, right + margin, top, 1, 0);
+        GLPolyTools.putVertex(mPanel, right + margin, bottom, 1, 1);
+        GLPolyTools.putVertex(mPanel, left, bottom, 0, 1);
+        GLPolyTools.putVertex(mPanel, left, top, 0, 0);
+        mPanel.position(0);
+    }
+}
@@ -0,0 +1,185 @@
+package hmperson1.apps.hyperblobs;
+
+import java.util.Arrays;
+
+/**
+ * Collects performance numbers from the updater and the drawer for
+ * {@link PerfHud}. Each kind of number has a single writer thread; readers may
+ * see a sample that is one tick or frame old, which is fine for a display.
+ * Recording allocates nothing.
+ *
+ * @author HMPerson1
+ */
+final class PerfStats {
+
+    /**
+     * Number of recent step and frame times kept. Must be a power of two.
+     */
+    static final int SAMPLES = 128;
+    /**
+     * How long each recent physics step took, in microseconds.
+     */
+    private final int[] mStepMicros = new int[SAMPLES];
+    /**
+     * How long each recent frame took to draw, in microseconds.
+     */
+    private final int[] mFrameMicros = new int[SAMPLES];
+    /**
+     * Number of ticks so far. Written by the updater thread only.
+     */
+    private volatile int mTicks;
+    /**
+     * Number of frames so far. Written by the GL thread only.
+     */
+    private volatile int mFrames;
+    /**
+     * Number of bodies in the world as of the last tick.
+     */
+    private volatile int mBodies;
+    /**
+     * Number of contacts in the world as of the last tick.
+     */
+    private volatile int mContacts;
+    /**
+     * Number of draw calls in the last frame.
+     */
+    private volatile int mDraws;
+    /**
+     * Bytes of texture memory used as of the last frame.
+     */
+    private volatile int mTextureMemory;
+
+    /**
+     * Records a physics tick. Called on the updater thread.
+     *
+     * @param stepNanos how long the step took, in nanoseconds
+     * @param bodies    number of bodies in the world
+     * @param contacts  number of contacts in the world
+     */
+    void onTick(long stepNanos, int bodies, int contacts) {
+        int ticks = mTicks;
+        mStepMicros[ticks & (SAMPLES - 1)] = (int) (stepNanos / 1000);
+        mBodies = bodies;
+        mContacts = contacts;
+        mTicks = ticks + 1;
+    }
+
+    /**
+     * Records a drawn frame. Called on the GL thread.
+     *
+     * @param frameNanos    how long the frame took, in nanoseconds
+     * @param draws         number of draw calls in the frame
+     * @param textureMemory bytes of texture memory in use
+     */
+    void onFrame(long frameNanos, int draws, int textureMemory) {
+        int frames = mFrames;
+        mFrameMicros[frames & (SAMPLES - 1)] = (int) (frameNanos / 1000);
+        mDraws = draws;
+        mTextureMemory = textureMemory;
+        mFrames = frames + 1;
+    }
+
+    /**
+     * Returns the number of ticks so far.
+     *
+     * @return the tick count
+     */
+    int getTicks() {
+        return mTicks;
+    }
+
+    /**
+     * Returns the number of frames so far.
+     *
+     * @return the frame count
+     */
+    int getFrames() {
+        return mFrames;
+    }
+
+    /**
+     * Returns the number of bodies in the world as of the last tick.
+     *
+     * @return the body count
+     */
+    int getBodies() {
+        return mBodies;
+    }
+
+    /**
+     * Returns the number of contacts in the world as of the last tick.
+     *
+     * @return the contact count
+     */
+    int getContacts() {
+        return mContacts;
+    }
+
+    /**
+     * Returns the number of draw calls in the last frame.
+     *
+     * @return the draw call count
+     */
+    int getDraws() {
+        return mDraws;
+    }
+
+    /**
+     * Returns the amount of texture memory used as of the last frame.
+     *
+     * @return the number of bytes
+     */
+    int getTextureMemory() {
+        return mTextureMemory;
+    }
+
+    /**
+     * Copies the recent step times, sorted, into an array.
+     *
+     * @param out array of at least {@link #SAMPLES} elements
+     * @return the number of times copied
+     */
+    int sortedStepMicros(int[] out) {
+        return sorted(mStepMicros, mTicks, out);
+    }
+
+    /**
+     * Copies the recent frame times, sorted, into an array.
+     *
+     * @param out array of at least {@link #SAMPLES} elements
+     * @return the number of times copied
+     */
+    int sortedFrameMicros(int[] out) {
+        return sorted(mFrameMicros, mFrames, out);
+    }
+
+    /**
+     * Copies and sorts the valid part of a ring of samples.
+     *
+     * @param ring  the samples
+     * @param total number of samples ever written
+     * @param out   where to copy them
+     * @return the number of samples copied
+     */
+    private static int sorted(int[] ring, int total, int[] out) {
+        int count = Math.min(total, SAMPLES);
+        System.arraycopy(ring, 0, out, 0, count);
+        Arrays.sort(out, 0, count);
+        return count;
+    }
+
+    /**
+     * Returns a percentile of sorted samples.
+     *
+     * @param sorted  the samples, in ascending order
+     * @param count   number of samples
+     * @param percent the percentile, from 0 to 100
+     * @return the sample, or 0 if there are none
+     */
+    static int percentile(int[] sorted, int count, int percent) {
+        if (count == 0) {
+            return 0;
+        }
+        return sorted[Math.min(count - 1, (count * percent) / 100)];
+    }
+}
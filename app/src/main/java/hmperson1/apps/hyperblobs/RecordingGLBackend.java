@@ -0,0 +1,527 @@
+package hmperson1.apps.hyperblobs;
+
+import android.opengl.ETC1;
+import android.opengl.GLES20;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * {@link GLBackend} that draws nothing and instead counts what would have been
+ * sent to the driver each frame. Uses only plain Java at runtime (the
+ * {@code GLES20} constants are inlined by the compiler), so it can run without
+ * a device.
+ *
+ * @author HMPerson1
+ */
+final class RecordingGLBackend implements GLBackend {
+
+    /**
+     * Number of vertex attributes tracked.
+     */
+    private static final int VERTEX_ATTRIBS = 16;
+    /**
+     * Whether or not each vertex attribute array is enabled.
+     */
+    private final boolean[] mAttribEnabled = new boolean[VERTEX_ATTRIBS];
+    /**
+     * Number of bytes between consecutive vertices of each attribute array.
+     */
+    private final int[] mAttribStride = new int[VERTEX_ATTRIBS];
+    /**
+     * Buffer each vertex attribute array reads from.
+     */
+    private final Buffer[] mAttribBuffer = new Buffer[VERTEX_ATTRIBS];
+    /**
+     * Uniform locations handed out, by program and name.
+     */
+    private final Map<String, Integer> mUniformLocations = new HashMap<String, Integer>();
+    /**
+     * Number of uniform locations handed out for each program.
+     */
+    private final Map<Integer, Integer> mUniformCounts = new HashMap<Integer, Integer>();
+    /**
+     * Counts for the current frame.
+     */
+    private int mDrawCalls, mIndices, mProgramChanges, mTextureBinds,
+            mUniformUpdates, mStateChanges, mUploadedBytes, mCalls;
+    /**
+     * Next handle to give out for shaders, programs and textures.
+     */
+    private int mNextHandle = 1;
+    /**
+     * Number of frames ended so far.
+     */
+    private int mFrames;
+
+    /**
+     * Returns the size of one component of the given type.
+     *
+     * @param type the type
+     * @return the size in bytes
+     */
+    private static int sizeOf(int type) {
+        switch (type) {
+            case GLES20.GL_FLOAT:
+                return 4;
+            case GLES20.GL_SHORT:
+            case GLES20.GL_UNSIGNED_SHORT:
+                return 2;
+            default:
+                return 1;
+        }
+    }
+
+    /**
+     * Returns the size of one pixel of the given format and type.
+     *
+     * @param format the pixel format
+     * @param type   the pixel type
+     * @return the size in bytes
+     */
+    private static int pixelSize(int format, int type) {
+        if (type != GLES20.GL_UNSIGNED_BYTE) {
+            return 2; // Packed 16-bit formats
+        }
+        switch (format) {
+            case GLES20.GL_RGBA:
+                return 4;
+            case GLES20.GL_RGB:
+                return 3;
+            case GLES20.GL_LUMINANCE_ALPHA:
+                return 2;
+            default:
+                return 1;
+        }
+    }
+
+    /**
+     * Ends the current frame, returning what happened during it and resetting
+     * the counts for the next one.
+     *
+     * @return the counts for the frame
+     */
+    FrameStats endFrame() {
+        FrameStats stats = new FrameStats(mFrames++, mCalls, mDrawCalls, mIndices, mProgramChanges,
+                mTextureBinds, mUniformUpdates, mStateChanges, mUploadedBytes);
+        mCalls = 0;
+        mDrawCalls = 0;
+        mIndices = 0;
+        mProgramChanges = 0;
+        mTextureBinds = 0;
+        mUniformUpdates = 0;
+        mStateChanges = 0;
+        mUploadedBytes = 0;
+        return stats;
+    }
+
+    @Override
+    public int glCreateShader(int type) {
+        mCalls++;
+        return mNextHandle++;
+    }
+
+    @Override
+    public void glShaderSource(int shader, String source) {
+        mCalls++;
+    }
+
+    @Override
+    public void glCompileShader(int shader) {
+        mCalls++;
+    }
+
+    @Override
+    public int glCreateProgram() {
+        mCalls++;
+        return mNextHandle++;
+    }
+
+    @Override
+    public void glAttachShader(int program, int shader) {
+        mCalls++;
+    }
+
+    @Override
+    public void glBindAttribLocation(int program, int index, String name) {
+        mCalls++;
+    }
+
+    @Override
+    public void glLinkProgram(int program) {
+        mCalls++;
+    }
+
+    @Override
+    public int glGetUniformLocation(int program, String name) {
+        mCalls++;
+        String key = program + ":" + name;
+        Integer location = mUniformLocations.get(key);
+        if (location == null) {
+            // Numbered from 0 within each program, like drivers do, so that
+            // GLStateCache can track them
+            Integer count = mUniformCounts.get(program);
+            location = (count == null) ? 0 : count;
+            mUniformCounts.put(program, location + 1);
+            mUniformLocations.put(key, location);
+        }
+        return location;
+    }
+
+    @Override
+    public void glUseProgram(int program) {
+        mCalls++;
+        mProgramChanges++;
+    }
+
+    @Override
+    public void glGenTextures(int n, int[] textures, int offset) {
+        mCalls++;
+        for (int i = 0; i < n; i++) {
+            textures[offset + i] = mNextHandle++;
+        }
+    }
+
+    @Override
+    public void glDeleteTextures(int n, int[] textures, int offset) {
+        mCalls++;
+    }
+
+    @Override
+    public void glActiveTexture(int texture) {
+        mCalls++;
+        mStateChanges++;
+    }
+
+    @Override
+    public void glBindTexture(int target, int texture) {
+        mCalls++;
+        mTextureBinds++;
+    }
+
+    @Override
+    public void glTexParameteri(int target, int pname, int param) {
+        mCalls++;
+        mStateChanges++;
+    }
+
+    @Override
+    public void glTexImage2D(int target, int level, int internalformat, int width, int height,
+                             int border, int format, int type, Buffer pixels) {
+        mCalls++;
+        if (pixels != null) {
+            mUploadedBytes += width * height * pixelSize(format, type);
+        }
+    }
+
+    @Override
+    public void glTexSubImage2D(int target, int level, int xoffset, int yoffset, int width, int height,
+                                int format, int type, Buffer pixels) {
+        mCalls++;
+        mUploadedBytes += width * height * pixelSize(format, type);
+    }
+
+    @Override
+    public void glCompressedTexImage2D(int target, int level, int internalformat, int width, int height,
+                                       int border, int imageSize, Buffer data) {
+        mCalls++;
+        mUploadedBytes += imageSize;
+    }
+
+    @Override
+    public void glPixelStorei(int pname, int param) {
+        mCalls++;
+        mStateChanges++;
+    }
+
+    @Override
+    public void glGenBuffers(int n, int[] buffers, int offset) {
+        mCalls++;
+        for (int i = 0; i < n; i++) {
+            buffers[offset + i] = mNextHandle++;
+        }
+    }
+
+    @Override
+    public void glBindBuffer(int target, int buffer) {
+        mCalls++;
+        mStateChanges++;
+    }
+
+    @Override
+    public void glBufferData(int target, int size, Buffer data, int usage) {
+        mCalls++;
+        if (data != null) {
+            mUploadedBytes += size;
+        }
+    }
+
+    @Override
+    public void glBufferSubData(int target, int offset, int size, Buffer data) {
+        mCalls++;
+        mUploadedBytes += size;
+    }
+
+    @Override
+    public void glGenFramebuffers(int n, int[] framebuffers, int offset) {
+        mCalls++;
+        for (int i = 0; i < n; i++) {
+            framebuffers[offset + i] = mNextHandle++;
+        }
+    }
+
+    @Override
+    public void glDeleteFramebuffers(int n, int[] framebuffers, int offset) {
+        mCalls++;
+    }
+
+    @Override
+    public void glBindFramebuffer(int target, int framebuffer) {
+        mCalls++;
+        mStateChanges++;
+    }
+
+    @Override
+    public void glFramebufferTexture2D(int target, int attachment, int textarget, int texture, int level) {
+        mCalls++;
+        mStateChanges++;
+    }
+
+    @Override
+    public int glCheckFramebufferStatus(int target) {
+        mCalls++;
+        return GLES20.GL_FRAMEBUFFER_COMPLETE;
+    }
+
+    @Override
+    public void glEnable(int cap) {
+        mCalls++;
+        mStateChanges++;
+    }
+
+    @Override
+    public void glDisable(int cap) {
+        mCalls++;
+        mStateChanges++;
+    }
+
+    @Override
+    public void glBlendFunc(int sfactor, int dfactor) {
+        mCalls++;
+        mStateChanges++;
+    }
+
+    @Override
+    public void glCullFace(int mode) {
+        mCalls++;
+        mStateChanges++;
+    }
+
+    @Override
+    public void glClearColor(float red, float green, float blue, float alpha) {
+        mCalls++;
+        mStateChanges++;
+    }
+
+    @Override
+    public void glViewport(int x, int y, int width, int height) {
+        mCalls++;
+        mStateChanges++;
+    }
+
+    @Override
+    public void glGetIntegerv(int pname, int[] params, int offset) {
+        mCalls++;
+        if (pname == GLES20.GL_NUM_COMPRESSED_TEXTURE_FORMATS) {
+            params[offset] = 1;
+        } else if (pname == GLES20.GL_COMPRESSED_TEXTURE_FORMATS) {
+            params[offset] = ETC1.ETC1_RGB8_OES;
+        }
+    }
+
+    @Override
+    public void glEnableVertexAttribArray(int index) {
+        mCalls++;
+        mStateChanges++;
+        if (index < VERTEX_ATTRIBS) {
+            mAttribEnabled[index] = true;
+        }
+    }
+
+    @Override
+    public void glDisableVertexAttribArray(int index) {
+        mCalls++;
+        mStateChanges++;
+        if (index < VERTEX_ATTRIBS) {
+            mAttribEnabled[index] = false;
+        }
+    }
+
+    @Override
+    public void glVertexAttribPointer(int index, int size, int type, boolean normalized,
+                                      int stride, Buffer ptr) {
+        mCalls++;
+        mStateChanges++;
+        if (index < VERTEX_ATTRIBS) {
+            mAttribStride[index] = (stride != 0) ? stride : (size * sizeOf(type));
+            mAttribBuffer[index] = ptr;
+        }
+    }
+
+    @Override
+    public void glVertexAttribPointer(int index, int size, int type, boolean normalized,
+                                      int stride, int offset) {
+        mCalls++;
+        mStateChanges++;
+        if (index < VERTEX_ATTRIBS) {
+            // Reads from a buffer object, which isn't uploaded with each draw
+            mAttribStride[index] = 0;
+            mAttribBuffer[index] = null;
+        }
+    }
+
+    @Override
+    public void glUniform1i(int location, int x) {
+        mCalls++;
+        mUniformUpdates++;
+    }
+
+    @Override
+    public void glUniform1f(int location, float x) {
+        mCalls++;
+        mUniformUpdates++;
+    }
+
+    @Override
+    public void glUniform4fv(int location, int count, float[] v, int offset) {
+        mCalls++;
+        mUniformUpdates++;
+    }
+
+    @Override
+    public void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value, int offset) {
+        mCalls++;
+        mUniformUpdates++;
+    }
+
+    @Override
+    public void glClear(int mask) {
+        mCalls++;
+    }
+
+    @Override
+    public void glDrawElements(int mode, int count, int type, Buffer indices) {
+        mCalls++;
+        mDrawCalls++;
+        mIndices += count;
+
+        // Client-side arrays are copied on every draw, up to the highest index
+        int vertices = 0;
+        int start = indices.position();
+        for (int i = 0; i < count; i++) {
+            int index;
+            if (indices instanceof ShortBuffer) {
+                index = ((ShortBuffer) indices).get(start + i) & 0xFFFF;
+            } else {
+                index = ((ByteBuffer) indices).get(start + i) & 0xFF;
+            }
+            vertices = Math.max(vertices, index + 1);
+        }
+        mUploadedBytes += count * sizeOf(type);
+        for (int i = 0; i < VERTEX_ATTRIBS; i++) {
+            if (mAttribEnabled[i] && !isSharedStream(i)) {
+                mUploadedBytes += vertices * mAttribStride[i];
+            }
+        }
+    }
+
+    @Override
+    public void glDrawArrays(int mode, int first, int count) {
+        mCalls++;
+        mDrawCalls++;
+        mIndices += count;
+    }
+
+    /**
+     * Checks whether an attribute reads from the same interleaved buffer as an
+     * enabled attribute before it, whose vertices are already counted.
+     *
+     * @param index the attribute index
+     * @return whether or not the buffer is shared
+     */
+    private boolean isSharedStream(int index) {
+        for (int i = 0; i < index; i++) {
+            if (mAttribEnabled[i] && (mAttribBuffer[i] == mAttribBuffer[index])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * What was sent to the driver during one frame.
+     */
+    static final class FrameStats {
+
+        /**
+         * Which frame this is, counting from 0.
+         */
+        final int frame;
+        /**
+         * Number of calls of any kind.
+         */
+        final int calls;
+        /**
+         * Number of draw calls.
+         */
+        final int drawCalls;
+        /**
+         * Number of indices drawn.
+         */
+        final int indices;
+        /**
+         * Number of {@code glUseProgram} calls.
+         */
+        final int programChanges;
+        /**
+         * Number of {@code glBindTexture} calls.
+         */
+        final int textureBinds;
+        /**
+         * Number of uniform updates.
+         */
+        final int uniformUpdates;
+        /**
+         * Number of other state changes.
+         */
+        final int stateChanges;
+        /**
+         * Number of bytes of texture and vertex data sent to the driver.
+         */
+        final int uploadedBytes;
+
+        FrameStats(int frame, int calls, int drawCalls, int indices, int programChanges,
+                   int textureBinds, int uniformUpdates, int stateChanges, int uploadedBytes) {
+            this.frame = frame;
+            this.calls = calls;
+            this.drawCalls = drawCalls;
+            this.indices = indices;
+            this.programChanges = programChanges;
+            this.textureBinds = textureBinds;
+            this.uniformUpdates = uniformUpdates;
+            this.stateChanges = stateChanges;
+            this.uploadedBytes = uploadedBytes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Frame %d: %d calls, %d draws (%d indices), %d programs, "
+                            + "%d binds, %d uniforms, %d other, %d bytes uploaded",
+                    frame, calls, drawCalls, indices, programChanges,
+                    textureBinds, uniformUpdates, stateChanges, uploadedBytes);
+        }
+    }
+}
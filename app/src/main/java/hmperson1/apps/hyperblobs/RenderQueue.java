@@ -0,0 +1,315 @@
+package hmperson1.apps.hyperblobs;
+
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+/**
+ * Collects the draws of a frame, each with a 64-bit sort key, and sorts them
+ * so that draws needing the same state end up next to each other. From the
+ * most significant bits down, a key holds:
+ * <ul>
+ * <li>the layer (8 bits), so that layers are always drawn in order,</li>
+ * <li>the blend mode (4 bits),</li>
+ * <li>the program (4 bits) and a variant of it, such as the shape (4 bits),</li>
+ * <li>the texture (16 bits),</li>
+ * <li>and the depth (16 bits), lowest first.</li>
+ * </ul>
+ * Draws with equal keys stay in the order they were added. Arrays only grow,
+ * so once they are big enough, no frame allocates anything.
+ *
+ * @author HMPerson1
+ */
+final class RenderQueue {
+
+    /**
+     * Blend mode for draws that cover what's behind them.
+     */
+    static final int BLEND_OPAQUE = 0;
+    /**
+     * Blend mode for draws that are blended by their alpha.
+     */
+    static final int BLEND_ALPHA = 1;
+    /**
+     * Blend mode for draws that add their color, scaled by their alpha, to
+     * what's behind them.
+     */
+    static final int BLEND_ADD = 2;
+    /**
+     * Floats in a matrix.
+     */
+    private static final int MATRIX_SIZE = 16;
+    /**
+     * Bits sorted per radix pass.
+     */
+    private static final int RADIX_BITS = 8;
+    /**
+     * Number of buckets per radix pass.
+     */
+    private static final int RADIX = 1 << RADIX_BITS;
+    /**
+     * Bucket counts for a radix pass.
+     */
+    private final int[] mCounts = new int[RADIX];
+    /**
+     * Sort key of each draw, in the order they were added.
+     */
+    private long[] mKeys;
+    /**
+     * Keys and draws being sorted, and where each pass puts them.
+     */
+    private long[] mSortKeys, mSortKeysTmp;
+    /**
+     * Draws in sorted order, and where each pass puts them.
+     */
+    private int[] mSorted, mSortedTmp;
+    /**
+     * Mesh of each draw.
+     */
+    private ByteBuffer[] mMeshes;
+    /**
+     * Ordering of each draw.
+     */
+    private ShortBuffer[] mOrders;
+    /**
+     * Program, blend mode and shape of each draw.
+     */
+    private int[] mPrograms, mBlends, mShapes;
+    /**
+     * Texture and alpha channel handles of each draw.
+     */
+    private int[] mTextures, mAlphas;
+    /**
+     * Color of each draw.
+     */
+    private int[] mColors;
+    /**
+     * Radius of the shape of each draw.
+     */
+    private float[] mRadii;
+    /**
+     * Transformation matrix of each draw, one after another.
+     */
+    private float[] mMatrices;
+    /**
+     * Number of draws added.
+     */
+    private int mSize;
+
+    /**
+     * Creates an empty queue.
+     *
+     * @param capacity number of draws to make room for
+     */
+    RenderQueue(int capacity) {
+        allocate(Math.max(1, capacity));
+    }
+
+    /**
+     * Makes a sort key.
+     *
+     * @param layer   layer, from 0 to 255
+     * @param blend   {@link #BLEND_OPAQUE}, {@link #BLEND_ALPHA} or {@link #BLEND_ADD}
+     * @param program program, from 0 to 15
+     * @param variant variant of the program, from 0 to 15
+     * @param texture texture handle; only the low 16 bits are used
+     * @param depth   depth within the layer, from 0 to 65535
+     * @return the sort key
+     */
+    static long key(int layer, int blend, int program, int variant, int texture, int depth) {
+        return ((long) (layer & 0xFF) << 56)
+                | ((long) (blend & 0xF) << 52)
+                | ((long) (program & 0xF) << 48)
+                | ((long) (variant & 0xF) << 44)
+                | ((long) (texture & 0xFFFF) << 28)
+                | ((long) (depth & 0xFFFF) << 12);
+    }
+
+    /**
+     * Allocates room for draws, keeping the ones already added.
+     *
+     * @param capacity number of draws to make room for
+     */
+    private void allocate(int capacity) {
+        mKeys = (mKeys == null) ? new long[capacity] : Arrays.copyOf(mKeys, capacity);
+        mSortKeys = new long[capacity];
+        mSortKeysTmp = new long[capacity];
+        mSorted = new int[capacity];
+        mSortedTmp = new int[capacity];
+        mMeshes = (mMeshes == null) ? new ByteBuffer[capacity] : Arrays.copyOf(mMeshes, capacity);
+        mOrders = (mOrders == null) ? new ShortBuffer[capacity] : Arrays.copyOf(mOrders, capacity);
+        mPrograms = (mPrograms == null) ? new int[capacity] : Arrays.copyOf(mPrograms, capacity);
+        mBlends = (mBlends == null) ? new int[capacity] : Arrays.copyOf(mBlends, capacity);
+        mShapes = (mShapes == null) ? new int[capacity] : Arrays.copyOf(mShapes, capacity);
+        mTextures = (mTextures == null) ? new int[capacity] : Arrays.copyOf(mTextures, capacity);
+        mAlphas = (mAlphas == null) ? new int[capacity] : Arrays.copyOf(mAlphas, capacity);
+        mColors = (mColors == null) ? new int[capacity] : Arrays.copyOf(mColors, capacity);
+        mRadii = (mRadii == null) ? new float[capacity] : Arrays.copyOf(mRadii, capacity);
+        mMatrices = (mMatrices == null) ? new float[capacity * MATRIX_SIZE]
+                : Arrays.copyOf(mMatrices, capacity * MATRIX_SIZE);
+    }
+
+    /**
+     * Adds a draw.
+     *
+     * @param key          the sort key, from {@link #key}
+     * @param mesh         interleaved vertices
+     * @param order        ordering
+     * @param program      which program to use
+     * @param blend        {@link #BLEND_OPAQUE}, {@link #BLEND_ALPHA} or {@link #BLEND_ADD}
+     * @param shape        which shape an analytic program should draw
+     * @param radius       radius of the shape in world units
+     * @param texture      texture handle
+     * @param alpha        handle of the texture's alpha channel
+     * @param color        color of the draw
+     * @param matrix       array containing the transformation matrix
+     * @param matrixOffset offset of the matrix in {@code matrix}
+     */
+    void add(long key, ByteBuffer mesh, ShortBuffer order, int program, int blend, int shape, float radius,
+             int texture, int alpha, int color, float[] matrix, int matrixOffset) {
+        if (mSize == mKeys.length) {
+            allocate(mSize * 2);
+        }
+        int i = mSize++;
+        mKeys[i] = key;
+        mMeshes[i] = mesh;
+        mOrders[i] = order;
+        mPrograms[i] = program;
+        mBlends[i] = blend;
+        mShapes[i] = shape;
+        mRadii[i] = radius;
+        mTextures[i] = texture;
+        mAlphas[i] = alpha;
+        mColors[i] = color;
+        System.arraycopy(matrix, matrixOffset, mMatrices, i * MATRIX_SIZE, MATRIX_SIZE);
+    }
+
+    /**
+     * Sorts the draws by key with an LSD radix sort, which keeps draws with
+     * equal keys in order. Passes over bytes that are the same in every key
+     * are skipped.
+     */
+    void sort() {
+        int n = mSize;
+        long[] keys = mSortKeys;
+        long[] keysTmp = mSortKeysTmp;
+        int[] sorted = mSorted;
+        int[] sortedTmp = mSortedTmp;
+        System.arraycopy(mKeys, 0, keys, 0, n);
+        for (int i = 0; i < n; i++) {
+            sorted[i] = i;
+        }
+
+        for (int shift = 0; (shift < Long.SIZE) && (n > 1); shift += RADIX_BITS) {
+            int[] counts = mCounts;
+            Arrays.fill(counts, 0);
+            for (int i = 0; i < n; i++) {
+                counts[(int) (keys[i] >>> shift) & (RADIX - 1)]++;
+            }
+            if (counts[(int) (keys[0] >>> shift) & (RADIX - 1)] == n) {
+                continue;
+            }
+            int sum = 0;
+            for (int b = 0; b < RADIX; b++) {
+                int count = counts[b];
+                counts[b] = sum;
+                sum += count;
+            }
+            for (int i = 0; i < n; i++) {
+                int idx = counts[(int) (keys[i] >>> shift) & (RADIX - 1)]++;
+                keysTmp[idx] = keys[i];
+                sortedTmp[idx] = sorted[i];
+            }
+
+            // The sorted draws are now in the temporary arrays
+            long[] swapKeys = keys;
+            keys = keysTmp;
+            keysTmp = swapKeys;
+            int[] swapSorted = sorted;
+            sorted = sortedTmp;
+            sortedTmp = swapSorted;
+        }
+        mSortKeys = keys;
+        mSortKeysTmp = keysTmp;
+        mSorted = sorted;
+        mSortedTmp = sortedTmp;
+    }
+
+    /**
+     * Removes every draw.
+     */
+    void clear() {
+        mSize = 0;
+    }
+
+    /**
+     * Returns the number of draws added.
+     *
+     * @return the number of draws
+     */
+    int size() {
+        return mSize;
+    }
+
+    /**
+     * Returns a draw in sorted order. Only valid after {@link #sort()}.
+     *
+     * @param i position in sorted order
+     * @return the draw, for passing to the other getters
+     */
+    int get(int i) {
+        return mSorted[i];
+    }
+
+    //<editor-fold defaultstate="collapsed" desc="Getters">
+    ByteBuffer getMesh(int draw) {
+        return mMeshes[draw];
+    }
+
+    ShortBuffer getOrder(int draw) {
+        return mOrders[draw];
+    }
+
+    int getProgram(int draw) {
+        return mPrograms[draw];
+    }
+
+    int getBlend(int draw) {
+        return mBlends[draw];
+    }
+
+    int getShape(int draw) {
+        return mShapes[draw];
+    }
+
+    float getRadius(int draw) {
+        return mRadii[draw];
+    }
+
+    int getTexture(int draw) {
+        return mTextures[draw];
+    }
+
+    int getAlpha(int draw) {
+        return mAlphas[draw];
+    }
+
+    int getColor(int draw) {
+        return mColors[draw];
+    }
+
+    /**
+     * Returns the array holding the matrices of every draw. The matrix of a
+     * draw starts at {@link #getMatrixOffset}.
+     *
+     * @return the matrices
+     */
+    float[] getMatrices() {
+        return mMatrices;
+    }
+
+    int getMatrixOffset(int draw) {
+        return draw * MATRIX_SIZE;
+    }
+    //</editor-fold>
+}
@@ -0,0 +1,174 @@
+package hmperson1.apps.hyperblobs;
+
+import android.opengl.GLES20;
+
+import java.nio.ByteBuffer;
+
+/**
+ * An offscreen framebuffer as big as the screen, of which only the bottom left
+ * corner is drawn into when rendering at less than full resolution. Keeping
+ * the texture the same size means changing the scale never reallocates it.
+ * All calls must be made on the GL thread.
+ *
+ * @author HMPerson1
+ */
+final class RenderTarget {
+
+    /**
+     * Where to send OpenGL calls.
+     */
+    private final GLBackend mGL;
+    /**
+     * Used to bind the texture, so its idea of what is bound stays correct.
+     */
+    private final GLStateCache mGLState;
+    /**
+     * Mesh covering the screen, textured with the part drawn into.
+     */
+    private final ByteBuffer mMesh = GLPolyTools.allocate(4 * GLPolyTools.VERTEX_STRIDE);
+    /**
+     * Scratch array for generating names.
+     */
+    private final int[] mNames = new int[1];
+    /**
+     * Handles to the framebuffer and its texture, or 0 if there are none.
+     */
+    private int mFramebuffer, mTexture;
+    /**
+     * Size of the screen, and so of the texture.
+     */
+    private int mWidth, mHeight;
+    /**
+     * Size of the part drawn into.
+     */
+    private int mScaledWidth, mScaledHeight;
+
+    /**
+     * Creates a target with no framebuffer yet.
+     *
+     * @param gl      where to send OpenGL calls
+     * @param glState state cache that is used with {@code gl}
+     */
+    RenderTarget(GLBackend gl, GLStateCache glState) {
+        mGL = gl;
+        mGLState = glState;
+    }
+
+    /**
+     * Must be called whenever the context is (re)created. The old handles
+     * went away with the old context.
+     */
+    void onContextCreated() {
+        mFramebuffer = 0;
+        mTexture = 0;
+    }
+
+    /**
+     * Makes the framebuffer as big as the screen.
+     *
+     * @param width  width of the screen, in pixels
+     * @param height height of the screen, in pixels
+     */
+    void resize(int width, int height) {
+        if (mFramebuffer != 0) {
+            mNames[0] = mFramebuffer;
+            mGL.glDeleteFramebuffers(1, mNames, 0);
+            mNames[0] = mTexture;
+            mGL.glDeleteTextures(1, mNames, 0);
+        }
+        mWidth = width;
+        mHeight = height;
+
+        // Filtered when scaled up, and clamped since it isn't a power of two
+        mGL.glGenTextures(1, mNames, 0);
+        mTexture = mNames[0];
+        mGLState.bindTexture(0, mTexture);
+        mGL.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+        mGL.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+        mGL.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        mGL.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+        // Nothing drawn is transparent, so 16 bits are enough
+        mGL.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGB, width, height, 0,
+                GLES20.GL_RGB, GLES20.GL_UNSIGNED_SHORT_5_6_5, null);
+
+        mGL.glGenFramebuffers(1, mNames, 0);
+        mFramebuffer = mNames[0];
+        mGL.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mFramebuffer);
+        mGL.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0,
+                GLES20.GL_TEXTURE_2D, mTexture, 0);
+        boolean complete = mGL.glCheckFramebufferStatus(GLES20.GL_FRAMEBUFFER) == GLES20.GL_FRAMEBUFFER_COMPLETE;
+        mGL.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+        if (!complete) {
+            // Always draw straight to the screen instead
+            mNames[0] = mFramebuffer;
+            mGL.glDeleteFramebuffers(1, mNames, 0);
+            mNames[0] = mTexture;
+            mGL.glDeleteTextures(1, mNames, 0);
+            mFramebuffer = 0;
+            mTexture = 0;
+        }
+        mScaledWidth = 0;
+        mScaledHeight = 0;
+    }
+
+    /**
+     * Checks whether there is a framebuffer to draw into.
+     *
+     * @return whether or not {@link #bind} can be used
+     */
+    boolean isAvailable() {
+        return mFramebuffer != 0;
+    }
+
+    /**
+     * Starts drawing into the framebuffer at a fraction of the screen's
+     * resolution.
+     *
+     * @param scale the fraction, at most 1
+     */
+    void bind(float scale) {
+        int width = Math.max(1, Math.round(mWidth * scale));
+        int height = Math.max(1, Math.round(mHeight * scale));
+        if ((width != mScaledWidth) || (height != mScaledHeight)) {
+            mScaledWidth = width;
+            mScaledHeight = height;
+            float s = (float) width / mWidth;
+            float t = (float) height / mHeight;
+            mMesh.position(0);
+            GLPolyTools.putVertex(mMesh, +1, +1, s, t);
+            GLPolyTools.putVertex(mMesh, +1, -1, s, 0);
+            GLPolyTools.putVertex(mMesh, -1, -1, 0, 0);
+            GLPolyTools.putVertex(mMesh, -1, +1, 0, t);
+            mMesh.position(0);
+        }
+        mGL.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mFramebuffer);
+        mGL.glViewport(0, 0, width, height);
+    }
+
+    /**
+     * Goes back to drawing onto the screen.
+     */
+    void unbind() {
+        mGL.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+        mGL.glViewport(0, 0, mWidth, mHeight);
+    }
+
+    /**
+     * Returns the texture that was drawn into.
+     *
+     * @return the texture handle
+     */
+    int getTexture() {
+        return mTexture;
+    }
+
+    /**
+     * Returns a mesh covering the screen, textured with the part that was
+     * drawn into.
+     *
+     * @return the mesh
+     */
+    ByteBuffer getMesh() {
+        return mMesh;
+    }
+}
@@ -0,0 +1,131 @@
+package hmperson1.apps.hyperblobs;
+
+/**
+ * Picks the scale to render at from whether drawing keeps up with the
+ * updates. Lowers the scale quickly when frames are missed and raises it
+ * slowly while they aren't, always staying within the bounds it was given.
+ * <p/>
+ * OpenGL ES 2.0 has no timer queries, and the time between frames mostly
+ * measures how the update thread is paced, so neither is used. Instead each
+ * frame says how many states were handed to the drawer since the last one.
+ * {@code eglSwapBuffers} blocks while the GPU is behind, so a GPU that can't
+ * keep up shows up as states that were replaced before they were drawn, and
+ * a slow update thread shows up as nothing at all, since drawing at a lower
+ * resolution wouldn't help it.
+ *
+ * @author HMPerson1
+ */
+final class ResolutionScaler {
+
+    /**
+     * Frames with more states than this since the last one came after a
+     * pause or a hitch, not a slow frame: a quarter of a second of updates.
+     */
+    private static final int MAX_STATES = 15;
+    /**
+     * Weight of the newest frame in the average.
+     */
+    private static final float SMOOTHING = 0.1f;
+    /**
+     * Frames to wait after a change before lowering the scale again.
+     */
+    private static final int LOWER_AFTER = 30;
+    /**
+     * Frames to wait after a change before raising the scale again.
+     */
+    private static final int RAISE_AFTER = 180;
+    /**
+     * How much the scale changes at a time. The scale is always a multiple of
+     * this, so that it doesn't drift around.
+     */
+    private static final float STEP = 0.05f;
+    /**
+     * Bounds of the scale.
+     */
+    private volatile float mMin, mMax;
+    /**
+     * Current scale.
+     */
+    private float mScale;
+    /**
+     * Average number of states per frame, or 0 if not known.
+     */
+    private float mAverage;
+    /**
+     * Number of frames since the scale last changed.
+     */
+    private int mFramesSinceChange;
+
+    /**
+     * Creates a scaler that starts at the highest scale.
+     *
+     * @param min lowest scale allowed
+     * @param max highest scale allowed
+     */
+    ResolutionScaler(float min, float max) {
+        setBounds(min, max);
+        mScale = mMax;
+    }
+
+    /**
+     * Sets the bounds of the scale. The current scale is moved within them on
+     * the next frame. May be called from any thread.
+     *
+     * @param min lowest scale allowed, more than 0
+     * @param max highest scale allowed, at most 1
+     */
+    void setBounds(float min, float max) {
+        if ((min <= 0) || (max > 1) || (min > max)) {
+            throw new IllegalArgumentException("Bad scale bounds: " + min + ", " + max);
+        }
+        mMin = min;
+        mMax = max;
+    }
+
+    /**
+     * Forgets how frames have been keeping up. Must be called when drawing
+     * starts over, such as on a new context.
+     */
+    void reset() {
+        mAverage = 0;
+        mFramesSinceChange = 0;
+    }
+
+    /**
+     * Records that a frame is starting, and adjusts the scale. A frame that
+     * draws every state is on time; one that comes after two states missed
+     * one.
+     *
+     * @param states number of states handed to the drawer since the last
+     *               frame; frames without a new state aren't counted
+     * @return whether or not the scale changed
+     */
+    boolean onFrame(int states) {
+        float scale = mScale;
+        if ((states > 0) && (states <= MAX_STATES)) {
+            mAverage = (mAverage == 0) ? states : (mAverage + ((states - mAverage) * SMOOTHING));
+            mFramesSinceChange++;
+            if ((mFramesSinceChange >= LOWER_AFTER) && (mAverage > 1.2f)) {
+                scale -= 2 * STEP;
+            } else if ((mFramesSinceChange >= RAISE_AFTER) && (mAverage < 1.05f)) {
+                scale += STEP;
+            }
+        }
+        scale = Math.max(mMin, Math.min(mMax, Math.round(scale / STEP) * STEP));
+        if (scale == mScale) {
+            return false;
+        }
+        mScale = scale;
+        mFramesSinceChange = 0;
+        return true;
+    }
+
+    /**
+     * Returns the scale to render at.
+     *
+     * @return the scale, between the bounds
+     */
+    float getScale() {
+        return mScale;
+    }
+}
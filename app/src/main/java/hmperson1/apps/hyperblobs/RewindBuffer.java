@@ -0,0 +1,433 @@
+package hmperson1.apps.hyperblobs;
+
+/**
+ * The last few seconds of a world, one frame per tick, for going back in time.
+ * Frames are captured with {@link LevelPhysicsUpdater#capture(int[])}: a
+ * header, then a group of values for each moving body. Every so often a
+ * keyframe holds every value; the frames between hold, for each body, either
+ * a single byte saying it didn't change or the zigzag varint encoded change
+ * of each of its values. Everything lives in one array of fixed size, and the
+ * oldest frames are dropped, a keyframe at a time, to make room, so the memory
+ * used never grows and recording allocates nothing.
+ *
+ * @author HMPerson1
+ */
+final class RewindBuffer {
+
+    /**
+     * Encoded frames, as a ring.
+     */
+    private final byte[] mData;
+    /**
+     * Where each frame starts in {@code mData}, indexed by frame number modulo
+     * its length.
+     */
+    private final int[] mStarts;
+    /**
+     * Whether each frame is a keyframe, indexed like {@code mStarts}.
+     */
+    private final boolean[] mKeys;
+    /**
+     * Number of frames from one keyframe to the next.
+     */
+    private final int mKeyInterval;
+    /**
+     * Values of the newest frame.
+     */
+    private final int[] mLast;
+    /**
+     * Scratch frame for decoding.
+     */
+    private final int[] mScratch;
+    /**
+     * Number of the oldest frame kept.
+     */
+    private int mOldest;
+    /**
+     * Number of the frame after the newest one kept.
+     */
+    private int mEnd;
+    /**
+     * Where the next frame will be written in {@code mData}.
+     */
+    private int mHead;
+    /**
+     * Frames recorded since the last keyframe.
+     */
+    private int mSinceKey;
+    /**
+     * Where the next byte will be read from in {@code mData}.
+     */
+    private int mReadPos;
+
+    /**
+     * Creates an empty buffer.
+     *
+     * @param frameSize   number of values in a frame, as given by
+     *                    {@link LevelPhysicsUpdater#captureSize()}
+     * @param frames      most frames to keep
+     * @param bytes       most bytes to keep them in; raised to what two of the
+     *                    largest frames need, if less
+     * @param keyInterval frames from one keyframe to the next
+     */
+    RewindBuffer(int frameSize, int frames, int bytes, int keyInterval) {
+        mData = new byte[Math.max(bytes, 2 * worstSize(frameSize))];
+        mStarts = new int[frames];
+        mKeys = new boolean[frames];
+        mKeyInterval = keyInterval;
+        mLast = new int[frameSize];
+        mScratch = new int[frameSize];
+    }
+
+    /**
+     * Records the world as it is now, dropping the oldest frames if there is
+     * no room. Allocates nothing.
+     *
+     * @param physics the world
+     */
+    void record(LevelPhysicsUpdater physics) {
+        physics.capture(mScratch);
+        append();
+    }
+
+    /**
+     * Records a frame captured some other way, dropping the oldest frames if
+     * there is no room. Allocates nothing.
+     *
+     * @param frame the values, as {@link LevelPhysicsUpdater#capture} writes
+     *              them
+     */
+    void record(int[] frame) {
+        System.arraycopy(frame, 0, mScratch, 0, mScratch.length);
+        append();
+    }
+
+    /**
+     * Encodes {@code mScratch} as the newest frame.
+     */
+    private void append() {
+        boolean key = (mOldest == mEnd) || (mSinceKey >= mKeyInterval);
+        int worst = worstSize(mScratch.length);
+        // Make room for the frame and its entry, never filling up completely
+        while ((mOldest != mEnd) && ((free() <= worst) || ((mEnd - mOldest) >= mStarts.length))) {
+            dropOldest();
+        }
+        if (mOldest == mEnd) {
+            key = true;
+        }
+        mStarts[mEnd % mStarts.length] = mHead;
+        mKeys[mEnd % mKeys.length] = key;
+        if (key) {
+            for (int value : mScratch) {
+                writeVarint(zigzag(value));
+            }
+            mSinceKey = 0;
+        } else {
+            writeDelta();
+        }
+        System.arraycopy(mScratch, 0, mLast, 0, mLast.length);
+        mSinceKey++;
+        mEnd++;
+    }
+
+    /**
+     * Goes back in time: puts the world back as it was a number of frames
+     * ago, and forgets every frame after that one, so that recording carries
+     * on from there. Goes back as far as possible if there aren't that many
+     * frames. Allocates nothing.
+     *
+     * @param frames  number of frames to go back
+     * @param physics the world
+     * @return whether or not there was anything to go back to
+     */
+    boolean rewind(int frames, LevelPhysicsUpdater physics) {
+        if (!rewind(frames)) {
+            return false;
+        }
+        physics.restore(mLast);
+        return true;
+    }
+
+    /**
+     * Goes back in time like {@link #rewind(int, LevelPhysicsUpdater)}, but
+     * gives the values of the frame gone back to instead of restoring a
+     * world. Allocates nothing.
+     *
+     * @param frames number of frames to go back
+     * @param out    where to put the values of the frame
+     * @return whether or not there was anything to go back to
+     */
+    boolean rewind(int frames, int[] out) {
+        if (!rewind(frames)) {
+            return false;
+        }
+        System.arraycopy(mLast, 0, out, 0, mLast.length);
+        return true;
+    }
+
+    /**
+     * Decodes the frame a number of frames ago into {@code mLast}, and
+     * forgets every frame after it.
+     *
+     * @param frames number of frames to go back
+     * @return whether or not there was anything to go back to
+     */
+    private boolean rewind(int frames) {
+        if ((mEnd - mOldest) < 2) {
+            return false;
+        }
+        int target = Math.max(mEnd - 1 - frames, mOldest);
+        decode(target, mLast);
+        // Pick up where the target frame left off
+        if ((target + 1) < mEnd) {
+            mHead = mStarts[(target + 1) % mStarts.length];
+            mEnd = target + 1;
+        }
+        mSinceKey = 0;
+        for (int frame = target; !mKeys[frame % mKeys.length]; frame--) {
+            mSinceKey++;
+        }
+        mSinceKey++;
+        return true;
+    }
+
+    /**
+     * Puts the world back as it was at a frame, without forgetting anything.
+     * Allocates nothing.
+     *
+     * @param frame   the frame number, from {@link #getOldest()} up to but not
+     *                including {@link #getEnd()}
+     * @param physics the world
+     * @throws IndexOutOfBoundsException if the frame isn't kept
+     */
+    void restore(int frame, LevelPhysicsUpdater physics) {
+        if ((frame < mOldest) || (frame >= mEnd)) {
+            throw new IndexOutOfBoundsException("Frame not kept: " + frame);
+        }
+        decode(frame, mScratch);
+        physics.restore(mScratch);
+    }
+
+    /**
+     * Gives the values of a frame, without forgetting anything. Allocates
+     * nothing.
+     *
+     * @param frame the frame number, from {@link #getOldest()} up to but not
+     *              including {@link #getEnd()}
+     * @param out   where to put the values
+     * @throws IndexOutOfBoundsException if the frame isn't kept
+     */
+    void restore(int frame, int[] out) {
+        if ((frame < mOldest) || (frame >= mEnd)) {
+            throw new IndexOutOfBoundsException("Frame not kept: " + frame);
+        }
+        decode(frame, out);
+    }
+
+    /**
+     * Forgets every frame.
+     */
+    void clear() {
+        mOldest = mEnd;
+        mHead = 0;
+        mSinceKey = 0;
+    }
+
+    /**
+     * Returns the number of the oldest frame kept.
+     *
+     * @return the frame number
+     */
+    int getOldest() {
+        return mOldest;
+    }
+
+    /**
+     * Returns the number of the frame after the newest one kept.
+     *
+     * @return the frame number
+     */
+    int getEnd() {
+        return mEnd;
+    }
+
+    /**
+     * Returns the number of bytes used by the frames kept.
+     *
+     * @return the size, in bytes
+     */
+    int getBytesUsed() {
+        return (mOldest == mEnd) ? 0 : (mData.length - free());
+    }
+
+    /**
+     * Decodes a frame by starting at the keyframe before it and applying
+     * every change up to it.
+     *
+     * @param frame the frame number
+     * @param out   where to put its values
+     */
+    private void decode(int frame, int[] out) {
+        int key = frame;
+        while (!mKeys[key % mKeys.length]) {
+            key--;
+        }
+        mReadPos = mStarts[key % mStarts.length];
+        for (int i = 0; i < out.length; i++) {
+            out[i] = readSigned();
+        }
+        for (int f = key + 1; f <= frame; f++) {
+            mReadPos = mStarts[f % mStarts.length];
+            applyDelta(out);
+        }
+    }
+
+    /**
+     * Writes the changes from {@code mLast} to {@code mScratch}: the header
+     * values, then for each body a flag byte and, if it moved, each of its
+     * values.
+     */
+    private void writeDelta() {
+        int header = LevelPhysicsUpdater.CAPTURE_HEADER;
+        int body = LevelPhysicsUpdater.CAPTURE_BODY;
+        for (int i = 0; i < header; i++) {
+            writeVarint(zigzag(mScratch[i] - mLast[i]));
+        }
+        for (int start = header; start < mScratch.length; start += body) {
+            boolean moved = false;
+            for (int i = start; i < (start + body); i++) {
+                if (mScratch[i] != mLast[i]) {
+                    moved = true;
+                    break;
+                }
+            }
+            writeByte(moved ? 1 : 0);
+            if (moved) {
+                for (int i = start; i < (start + body); i++) {
+                    writeVarint(zigzag(mScratch[i] - mLast[i]));
+                }
+            }
+        }
+    }
+
+    /**
+     * Applies the changes written by {@link #writeDelta()}, starting at
+     * {@code mReadPos}.
+     *
+     * @param values the values to change
+     */
+    private void applyDelta(int[] values) {
+        int header = LevelPhysicsUpdater.CAPTURE_HEADER;
+        int body = LevelPhysicsUpdater.CAPTURE_BODY;
+        for (int i = 0; i < values.length; i++) {
+            if ((i >= header) && (((i - header) % body) == 0)) {
+                byte moved = mData[mReadPos];
+                mReadPos = next(mReadPos);
+                if (moved == 0) {
+                    // Skip the whole body
+                    i += body - 1;
+                    continue;
+                }
+            }
+            values[i] += readSigned();
+        }
+    }
+
+    /**
+     * Drops the oldest frame, along with the changes after it up to the next
+     * keyframe, which can't be decoded without it.
+     */
+    private void dropOldest() {
+        do {
+            mOldest++;
+        } while ((mOldest != mEnd) && !mKeys[mOldest % mKeys.length]);
+    }
+
+    /**
+     * Returns the number of bytes that can be written without overwriting
+     * the oldest frame.
+     *
+     * @return the free space, in bytes
+     */
+    private int free() {
+        if (mOldest == mEnd) {
+            return mData.length;
+        }
+        int oldest = mStarts[mOldest % mStarts.length];
+        return (oldest > mHead) ? (oldest - mHead) : ((mData.length - mHead) + oldest);
+    }
+
+    /**
+     * Returns the most bytes a frame can take.
+     *
+     * @param frameSize number of values in a frame
+     * @return the size, in bytes
+     */
+    private static int worstSize(int frameSize) {
+        // Five bytes for any varint, and no more flag bytes than values
+        return 6 * frameSize;
+    }
+
+    /**
+     * Maps a signed value to an unsigned one, so that small changes either
+     * way take few bytes.
+     *
+     * @param value the value
+     * @return the zigzag encoded value
+     */
+    private static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    /**
+     * Writes a value as a varint.
+     *
+     * @param value the value, taken as unsigned
+     */
+    private void writeVarint(int value) {
+        while ((value & ~0x7F) != 0) {
+            writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        writeByte(value);
+    }
+
+    /**
+     * Reads a zigzag encoded varint at {@code mReadPos}.
+     *
+     * @return the value
+     */
+    private int readSigned() {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = mData[mReadPos];
+            mReadPos = next(mReadPos);
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Writes a byte at the head.
+     *
+     * @param b the byte
+     */
+    private void writeByte(int b) {
+        mData[mHead] = (byte) b;
+        mHead = next(mHead);
+    }
+
+    /**
+     * Returns the position after another in {@code mData}.
+     *
+     * @param pos the position
+     * @return the next position
+     */
+    private int next(int pos) {
+        pos++;
+        return (pos == mData.length) ? 0 : pos;
+    }
+}
@@ -0,0 +1,431 @@
+package hmperson1.apps.hyperblobs;
+
+/**
+ * Immutable uniform grid over axis-aligned boxes. Each box is referred to by
+ * its index in the order it was given, and is stored in every cell it
+ * overlaps. Queries only read the grid and take their output arrays from the
+ * caller, so any number of threads can query it at once, and none of them
+ * allocate.
+ *
+ * @author HMPerson1
+ */
+final class SpatialGrid {
+
+    /**
+     * Default length of the side of a cell, in world units.
+     */
+    static final int DEFAULT_CELL_SIZE = 128;
+    /**
+     * Most cells per box that {@link #chooseCellSize} allows, so that sparse
+     * levels don't get huge grids.
+     */
+    private static final int MAX_CELLS_PER_BOX = 4;
+    /**
+     * Bounds of each box: min x, min y, max x, max y.
+     */
+    private final int[] mBounds;
+    /**
+     * Number of boxes.
+     */
+    private final int mCount;
+    /**
+     * Length of the side of a cell.
+     */
+    private final int mCellSize;
+    /**
+     * Lower-left corner of the grid.
+     */
+    private final int mOriginX, mOriginY;
+    /**
+     * Number of cells in each direction.
+     */
+    private final int mColumns, mRows;
+    /**
+     * Index into {@code mCellItems} at which each cell's items start. Has one
+     * extra entry at the end so that cell {@code c} spans
+     * {@code [mCellStart[c], mCellStart[c + 1])}.
+     */
+    private final int[] mCellStart;
+    /**
+     * Indices of the boxes in each cell, one cell after another.
+     */
+    private final int[] mCellItems;
+
+    /**
+     * Builds a grid over the given boxes.
+     *
+     * @param bounds   min x, min y, max x and max y of each box; copied
+     * @param count    number of boxes
+     * @param cellSize length of the side of a cell
+     */
+    SpatialGrid(int[] bounds, int count, int cellSize) {
+        if (cellSize <= 0) {
+            throw new IllegalArgumentException("Cell size must be positive: " + cellSize);
+        }
+        mCount = count;
+        mCellSize = cellSize;
+        mBounds = new int[count * 4];
+        System.arraycopy(bounds, 0, mBounds, 0, mBounds.length);
+
+        // Find the extents of everything
+        int minX = 0, minY = 0, maxX = 0, maxY = 0;
+        for (int i = 0; i < count; i++) {
+            int idx = i * 4;
+            if ((i == 0) || (mBounds[idx + 0] < minX)) minX = mBounds[idx + 0];
+            if ((i == 0) || (mBounds[idx + 1] < minY)) minY = mBounds[idx + 1];
+            if ((i == 0) || (mBounds[idx + 2] > maxX)) maxX = mBounds[idx + 2];
+            if ((i == 0) || (mBounds[idx + 3] > maxY)) maxY = mBounds[idx + 3];
+        }
+        mOriginX = minX;
+        mOriginY = minY;
+        mColumns = ((maxX - minX) / cellSize) + 1;
+        mRows = ((maxY - minY) / cellSize) + 1;
+
+        // Count how many boxes are in each cell
+        mCellStart = new int[(mColumns * mRows) + 1];
+        for (int i = 0; i < count; i++) {
+            int idx = i * 4;
+            for (int cy = row(mBounds[idx + 1]); cy <= row(mBounds[idx + 3]); cy++) {
+                for (int cx = column(mBounds[idx + 0]); cx <= column(mBounds[idx + 2]); cx++) {
+                    mCellStart[(cy * mColumns) + cx + 1]++;
+                }
+            }
+        }
+        for (int c = 0; c < (mColumns * mRows); c++) {
+            mCellStart[c + 1] += mCellStart[c];
+        }
+
+        // Fill in the cells
+        mCellItems = new int[mCellStart[mColumns * mRows]];
+        int[] fill = new int[mColumns * mRows];
+        System.arraycopy(mCellStart, 0, fill, 0, fill.length);
+        for (int i = 0; i < count; i++) {
+            int idx = i * 4;
+            for (int cy = row(mBounds[idx + 1]); cy <= row(mBounds[idx + 3]); cy++) {
+                for (int cx = column(mBounds[idx + 0]); cx <= column(mBounds[idx + 2]); cx++) {
+                    mCellItems[fill[(cy * mColumns) + cx]++] = i;
+                }
+            }
+        }
+    }
+
+    /**
+     * Picks a cell size for the given boxes: about as big as a typical box,
+     * so that each cell holds a few boxes, unless that would make too many
+     * cells.
+     *
+     * @param bounds min x, min y, max x and max y of each box
+     * @param count  number of boxes
+     * @return the cell size
+     */
+    static int chooseCellSize(int[] bounds, int count) {
+        if (count == 0) {
+            return DEFAULT_CELL_SIZE;
+        }
+        long total = 0;
+        int minX = bounds[0], minY = bounds[1], maxX = bounds[2], maxY = bounds[3];
+        for (int i = 0; i < count; i++) {
+            int idx = i * 4;
+            total += Math.max(bounds[idx + 2] - bounds[idx + 0], bounds[idx + 3] - bounds[idx + 1]);
+            minX = Math.min(minX, bounds[idx + 0]);
+            minY = Math.min(minY, bounds[idx + 1]);
+            maxX = Math.max(maxX, bounds[idx + 2]);
+            maxY = Math.max(maxY, bounds[idx + 3]);
+        }
+        int size = (int) Math.max(total / count, 1);
+        while ((((long) ((maxX - minX) / size) + 1) * (((maxY - minY) / size) + 1)) > ((long) MAX_CELLS_PER_BOX * count)) {
+            size *= 2;
+        }
+        return size;
+    }
+
+    /**
+     * Returns the number of boxes in the grid.
+     *
+     * @return the number of boxes
+     */
+    int size() {
+        return mCount;
+    }
+
+    /**
+     * Finds every box that overlaps the given region. Each box is reported
+     * once, in no particular order.
+     *
+     * @param minX left edge of the region
+     * @param minY bottom edge of the region
+     * @param maxX right edge of the region
+     * @param maxY top edge of the region
+     * @param out  array to store the indices of the boxes in; must be able to
+     *             hold {@link #size()} indices
+     * @return the number of indices stored in {@code out}
+     */
+    int query(int minX, int minY, int maxX, int maxY, int[] out) {
+        if ((mCount == 0) || (maxX < minX) || (maxY < minY)) {
+            return 0;
+        }
+        int c0 = column(minX), c1 = column(maxX);
+        int r0 = row(minY), r1 = row(maxY);
+        int found = 0;
+        for (int cy = r0; cy <= r1; cy++) {
+            for (int cx = c0; cx <= c1; cx++) {
+                int cell = (cy * mColumns) + cx;
+                for (int j = mCellStart[cell]; j < mCellStart[cell + 1]; j++) {
+                    int i = mCellItems[j];
+                    int idx = i * 4;
+                    // Only report a box from the first cell both it and the
+                    // region share, so that it is reported once
+                    if ((cx != Math.max(column(mBounds[idx + 0]), c0))
+                            || (cy != Math.max(row(mBounds[idx + 1]), r0))) {
+                        continue;
+                    }
+                    if ((mBounds[idx + 0] <= maxX) && (mBounds[idx + 2] >= minX)
+                            && (mBounds[idx + 1] <= maxY) && (mBounds[idx + 3] >= minY)) {
+                        out[found++] = i;
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Finds every box that contains the given point, edges included. Each box
+     * is reported once, in no particular order.
+     *
+     * @param x   x coordinate of the point
+     * @param y   y coordinate of the point
+     * @param out array to store the indices of the boxes in; must be able to
+     *            hold {@link #size()} indices
+     * @return the number of indices stored in {@code out}
+     */
+    int queryPoint(int x, int y, int[] out) {
+        return query(x, y, x, y, out);
+    }
+
+    /**
+     * Finds the box nearest to the given point. Searches outward from the
+     * point's cell, one ring of cells at a time, until no farther ring can
+     * hold anything nearer.
+     *
+     * @param x x coordinate of the point
+     * @param y y coordinate of the point
+     * @return index of the nearest box, or -1 if there are none; ties go to
+     * whichever is found first
+     */
+    int nearest(int x, int y) {
+        if (mCount == 0) {
+            return -1;
+        }
+        int cx = column(x), cy = row(y);
+        int rings = Math.max(mColumns, mRows);
+        int best = -1;
+        long bestDist = Long.MAX_VALUE;
+        for (int ring = 0; ring < rings; ring++) {
+            // Everything in this ring is at least this far from the point
+            long reach = (long) Math.max(ring - 1, 0) * mCellSize;
+            if ((best >= 0) && ((reach * reach) > bestDist)) {
+                break;
+            }
+            for (int ry = cy - ring; ry <= (cy + ring); ry++) {
+                if ((ry < 0) || (ry >= mRows)) {
+                    continue;
+                }
+                // Only the edges of the ring, except on its top and bottom
+                int step = ((ry == (cy - ring)) || (ry == (cy + ring))) ? 1 : Math.max(2 * ring, 1);
+                for (int rx = cx - ring; rx <= (cx + ring); rx += step) {
+                    if ((rx < 0) || (rx >= mColumns)) {
+                        continue;
+                    }
+                    int cell = (ry * mColumns) + rx;
+                    for (int j = mCellStart[cell]; j < mCellStart[cell + 1]; j++) {
+                        int i = mCellItems[j];
+                        long dist = distanceSquared(i, x, y);
+                        if (dist < bestDist) {
+                            bestDist = dist;
+                            best = i;
+                        }
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Returns how far a point is from a box.
+     *
+     * @param index index of the box
+     * @param x     x coordinate of the point
+     * @param y     y coordinate of the point
+     * @return the distance, or 0 if the box contains the point
+     */
+    float distance(int index, int x, int y) {
+        return (float) Math.sqrt(distanceSquared(index, x, y));
+    }
+
+    /**
+     * Finds the first box a ray hits, walking the cells along it in order so
+     * that only boxes near the ray are looked at.
+     *
+     * @param x    x coordinate of the start of the ray
+     * @param y    y coordinate of the start of the ray
+     * @param dx   x component of the direction of the ray
+     * @param dy   y component of the direction of the ray
+     * @param maxT length of the ray, in multiples of its direction
+     * @param hit  array to store, at index 0, how far along the ray the box
+     *             was hit, in multiples of its direction; or {@code null}
+     * @return index of the box hit, or -1 if the ray hits nothing; a box that
+     * contains the start of the ray is hit at 0
+     */
+    int raycast(float x, float y, float dx, float dy, float maxT, float[] hit) {
+        if ((mCount == 0) || (maxT < 0) || ((dx == 0) && (dy == 0))) {
+            return -1;
+        }
+        // Start where the ray enters the grid, if it does
+        float t = slab(x, y, dx, dy, maxT, mOriginX, mOriginY,
+                mOriginX + (mColumns * mCellSize), mOriginY + (mRows * mCellSize));
+        if (t < 0) {
+            return -1;
+        }
+        int cx = clamp((int) Math.floor(((x + (dx * t)) - mOriginX) / mCellSize), mColumns);
+        int cy = clamp((int) Math.floor(((y + (dy * t)) - mOriginY) / mCellSize), mRows);
+        int stepX = (dx > 0) ? 1 : -1;
+        int stepY = (dy > 0) ? 1 : -1;
+        // Where the ray crosses into the next column and row
+        float nextX = (dx == 0) ? Float.POSITIVE_INFINITY
+                : (((mOriginX + ((cx + ((dx > 0) ? 1 : 0)) * mCellSize)) - x) / dx);
+        float nextY = (dy == 0) ? Float.POSITIVE_INFINITY
+                : (((mOriginY + ((cy + ((dy > 0) ? 1 : 0)) * mCellSize)) - y) / dy);
+        float deltaX = (dx == 0) ? Float.POSITIVE_INFINITY : (mCellSize / Math.abs(dx));
+        float deltaY = (dy == 0) ? Float.POSITIVE_INFINITY : (mCellSize / Math.abs(dy));
+
+        int best = -1;
+        float bestT = maxT;
+        while (true) {
+            int cell = (cy * mColumns) + cx;
+            for (int j = mCellStart[cell]; j < mCellStart[cell + 1]; j++) {
+                int i = mCellItems[j];
+                int idx = i * 4;
+                float boxT = slab(x, y, dx, dy, bestT, mBounds[idx + 0], mBounds[idx + 1],
+                        mBounds[idx + 2], mBounds[idx + 3]);
+                if ((boxT >= 0) && ((best < 0) || (boxT < bestT))) {
+                    bestT = boxT;
+                    best = i;
+                }
+            }
+            // Nothing in a later cell can be hit sooner
+            float exit = Math.min(nextX, nextY);
+            if (((best >= 0) && (bestT <= exit)) || (exit > maxT)) {
+                break;
+            }
+            if (nextX < nextY) {
+                cx += stepX;
+                nextX += deltaX;
+                if ((cx < 0) || (cx >= mColumns)) {
+                    break;
+                }
+            } else {
+                cy += stepY;
+                nextY += deltaY;
+                if ((cy < 0) || (cy >= mRows)) {
+                    break;
+                }
+            }
+        }
+        if ((best >= 0) && (hit != null)) {
+            hit[0] = bestT;
+        }
+        return best;
+    }
+
+    /**
+     * Returns the square of how far a point is from a box.
+     *
+     * @param index index of the box
+     * @param x     x coordinate of the point
+     * @param y     y coordinate of the point
+     * @return the squared distance, or 0 if the box contains the point
+     */
+    private long distanceSquared(int index, int x, int y) {
+        int idx = index * 4;
+        long dx = Math.max(Math.max(mBounds[idx + 0] - x, x - mBounds[idx + 2]), 0);
+        long dy = Math.max(Math.max(mBounds[idx + 1] - y, y - mBounds[idx + 3]), 0);
+        return (dx * dx) + (dy * dy);
+    }
+
+    /**
+     * Finds where a ray enters a box.
+     *
+     * @param x    x coordinate of the start of the ray
+     * @param y    y coordinate of the start of the ray
+     * @param dx   x component of the direction of the ray
+     * @param dy   y component of the direction of the ray
+     * @param maxT length of the ray, in multiples of its direction
+     * @param minX left edge of the box
+     * @param minY bottom edge of the box
+     * @param maxX right edge of the box
+     * @param maxY top edge of the box
+     * @return how far along the ray it enters, 0 if it starts inside, or -1
+     * if it misses
+     */
+    private static float slab(float x, float y, float dx, float dy, float maxT,
+                              float minX, float minY, float maxX, float maxY) {
+        float t0 = 0, t1 = maxT;
+        if (dx == 0) {
+            if ((x < minX) || (x > maxX)) {
+                return -1;
+            }
+        } else {
+            float near = (minX - x) / dx;
+            float far = (maxX - x) / dx;
+            t0 = Math.max(t0, Math.min(near, far));
+            t1 = Math.min(t1, Math.max(near, far));
+        }
+        if (dy == 0) {
+            if ((y < minY) || (y > maxY)) {
+                return -1;
+            }
+        } else {
+            float near = (minY - y) / dy;
+            float far = (maxY - y) / dy;
+            t0 = Math.max(t0, Math.min(near, far));
+            t1 = Math.min(t1, Math.max(near, far));
+        }
+        return (t0 <= t1) ? t0 : -1;
+    }
+
+    /**
+     * Returns the column containing the given x coordinate, clamped to the
+     * grid.
+     *
+     * @param x the x coordinate
+     * @return the column
+     */
+    private int column(int x) {
+        return clamp((x - mOriginX) / mCellSize, mColumns);
+    }
+
+    /**
+     * Returns the row containing the given y coordinate, clamped to the grid.
+     *
+     * @param y the y coordinate
+     * @return the row
+     */
+    private int row(int y) {
+        return clamp((y - mOriginY) / mCellSize, mRows);
+    }
+
+    /**
+     * Clamps a cell coordinate to {@code [0, cells)}.
+     *
+     * @param c     the cell coordinate
+     * @param cells number of cells
+     * @return the clamped coordinate
+     */
+    private static int clamp(int c, int cells) {
+        if (c < 0) return 0;
+        if (c >= cells) return cells - 1;
+        return c;
+    }
+}
@@ -0,0 +1,750 @@
+package hmperson1.apps.hyperblobs;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.opengl.ETC1;
+import android.opengl.GLES20;
+import android.util.Log;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Decodes textures in the background and uploads them a few rows at a time on
+ * the GL thread. Until a texture is completely uploaded, a plain white
+ * placeholder is used in its place. Decoded pixels are kept so that textures
+ * can be uploaded again when the context is lost, without decoding them again.
+ * <p/>
+ * Each texture is loaded in the smallest format available: ETC1 from
+ * {@code assets/textures/<name>.pkm} if the context supports it, then RGB565
+ * from {@code assets/textures/<name>.565}, and finally the original PNG as
+ * RGBA. The assets are made by the {@code compressTextures} build task. Since
+ * neither ETC1 nor RGB565 has an alpha channel, transparency is kept in a
+ * separate {@code <name>_alpha} texture, which the shaders read from unit 1.
+ *
+ * @author HMPerson1
+ */
+final class TextureCache {
+
+    /**
+     * Directory of the compressed textures in the assets.
+     */
+    private static final String ASSET_DIR = "textures/";
+    /**
+     * Appended to the name of a texture to get the name of its alpha channel.
+     */
+    private static final String ALPHA_SUFFIX = "_alpha";
+    /**
+     * Extension of ETC1 textures.
+     */
+    private static final String EXT_ETC1 = ".pkm";
+    /**
+     * Extension of RGB565 textures.
+     */
+    private static final String EXT_RGB565 = ".565";
+    /**
+     * Extension of 8-bit alpha channels.
+     */
+    private static final String EXT_ALPHA8 = ".a8";
+    /**
+     * Magic number at the start of an RGB565 texture: {@code "R565"}.
+     */
+    private static final int MAGIC_RGB565 = 0x52353635;
+    /**
+     * Magic number at the start of an 8-bit alpha channel: {@code "ALP8"}.
+     */
+    private static final int MAGIC_ALPHA8 = 0x414C5038;
+    /**
+     * Marks a texture as compressed, in place of a pixel type.
+     */
+    private static final int TYPE_COMPRESSED = 0;
+    /**
+     * Number of rows uploaded at a time.
+     */
+    private static final int ROWS_PER_UPLOAD = 32;
+    /**
+     * Options for loading {@link Bitmap}s into textures.
+     */
+    private static final BitmapFactory.Options OPTIONS = new BitmapFactory.Options();
+    /**
+     * Decodes textures off of the GL thread.
+     */
+    private static final ExecutorService DECODER = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "TextureDecoder");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    });
+    /**
+     * Pixel buffers that are no longer used, ready to be reused by the next
+     * decode.
+     */
+    private static final List<ByteBuffer> FREE_BUFFERS = new ArrayList<ByteBuffer>();
+    /**
+     * One white pixel.
+     */
+    private static final ByteBuffer PLACEHOLDER = ByteBuffer.allocateDirect(4);
+
+    static {
+        OPTIONS.inScaled = false;
+        PLACEHOLDER.put(new byte[]{-1, -1, -1, -1}).position(0);
+    }
+
+    /**
+     * {@link Resources} to load textures from.
+     */
+    private static Resources res;
+    /**
+     * Whether or not ETC1 textures can be used. Every OpenGL ES 2.0 device
+     * should support them, so this is assumed until a context says otherwise.
+     */
+    private static volatile boolean etc1Supported = true;
+    /**
+     * Where to send OpenGL calls.
+     */
+    private final GLBackend mGL;
+    /**
+     * Used to bind textures, so its idea of what is bound stays correct.
+     */
+    private final GLStateCache mGLState;
+    /**
+     * Every texture requested, by id, followed by the separate alpha channels.
+     */
+    private final List<Texture> mTextures = new ArrayList<Texture>();
+    /**
+     * Textures that were released, to be deleted on the GL thread. Guarded by
+     * {@code mTextures}.
+     */
+    private final List<Texture> mDeleted = new ArrayList<Texture>();
+    /**
+     * Scratch array for generating texture names and querying the context.
+     */
+    private final int[] mScratch = new int[1];
+    /**
+     * Handle to the placeholder texture.
+     */
+    private int mPlaceholder;
+    /**
+     * Bytes of texture memory used in the current context.
+     */
+    private volatile int mTextureMemory;
+    /**
+     * Bytes of decoded pixels kept for uploading. Guarded by
+     * {@code mTextures}.
+     */
+    private int mRetainedMemory;
+    /**
+     * Whether or not {@link #release()} has been called, after which decoded
+     * pixels go straight back to the pool. Guarded by {@code mTextures}.
+     */
+    private boolean mReleased;
+
+    /**
+     * Creates an empty cache.
+     *
+     * @param gl      where to send OpenGL calls
+     * @param glState state cache that is used with {@code gl}
+     */
+    TextureCache(GLBackend gl, GLStateCache glState) {
+        mGL = gl;
+        mGLState = glState;
+    }
+
+    /**
+     * Initialize with the {@link Resources} for texture loading.
+     *
+     * @param r the Resources from our package
+     */
+    static void init(Resources r) {
+        res = r;
+    }
+
+    /**
+     * Takes a buffer from the pool, or allocates one if there is none big
+     * enough.
+     *
+     * @param capacity minimum capacity of the buffer
+     * @return a cleared buffer, limited to {@code capacity}
+     */
+    private static ByteBuffer obtainBuffer(int capacity) {
+        synchronized (FREE_BUFFERS) {
+            for (int i = 0; i < FREE_BUFFERS.size(); i++) {
+                if (FREE_BUFFERS.get(i).capacity() >= capacity) {
+                    ByteBuffer buffer = FREE_BUFFERS.remove(i);
+                    buffer.clear();
+                    buffer.limit(capacity);
+                    return buffer;
+                }
+            }
+        }
+        return ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Returns a buffer to the pool.
+     *
+     * @param buffer the buffer
+     */
+    private static void recycleBuffer(ByteBuffer buffer) {
+        synchronized (FREE_BUFFERS) {
+            FREE_BUFFERS.add(buffer);
+        }
+    }
+
+    /**
+     * Opens a compressed texture.
+     *
+     * @param name file name of the texture
+     * @return the texture data, or {@code null} if there is no such texture
+     */
+    private static InputStream openAsset(String name) {
+        try {
+            return res.getAssets().open(ASSET_DIR + name);
+        } catch (IOException ignored) {
+            return null;
+        }
+    }
+
+    /**
+     * Starts decoding a texture in the background. May be called from any
+     * thread.
+     *
+     * @param resId resource id of the texture
+     * @return the id to get the texture's handles with
+     */
+    int request(int resId) {
+        Texture texture = new Texture(resId);
+        int id;
+        synchronized (mTextures) {
+            id = mTextures.size();
+            mTextures.add(texture);
+        }
+        decode(texture);
+        return id;
+    }
+
+    /**
+     * Decodes a texture in the background, in the smallest format available.
+     *
+     * @param texture the texture
+     */
+    private void decode(final Texture texture) {
+        DECODER.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (mTextures) {
+                    if (mReleased) {
+                        return;
+                    }
+                }
+                String name = res.getResourceEntryName(texture.resId);
+                try {
+                    if ((etc1Supported && load(texture, name, EXT_ETC1, EXT_ETC1))
+                            || load(texture, name, EXT_RGB565, EXT_ALPHA8)) {
+                        return;
+                    }
+                } catch (IOException e) {
+                    Log.w(LevelActivity.NAME_LOGGING, "Failed to load compressed texture: " + name, e);
+                }
+                decodeBitmap(texture);
+            }
+        });
+    }
+
+    /**
+     * Loads a compressed texture and its alpha channel, if it has one.
+     *
+     * @param texture        the texture
+     * @param name           name of the texture
+     * @param extension      extension of the texture
+     * @param alphaExtension extension of its alpha channel
+     * @return whether or not the texture exists in this format
+     * @throws IOException if the texture could not be read
+     */
+    private boolean load(Texture texture, String name, String extension, String alphaExtension)
+            throws IOException {
+        InputStream in = openAsset(name + extension);
+        if (in == null) {
+            return false;
+        }
+        ByteBuffer data;
+        try {
+            data = read(texture, in, extension);
+        } finally {
+            in.close();
+        }
+
+        Texture alpha = null;
+        in = openAsset(name + ALPHA_SUFFIX + alphaExtension);
+        if (in != null) {
+            alpha = new Texture(texture.resId);
+            try {
+                alpha.pixels = read(alpha, in, alphaExtension); // Publishes the fields set by read
+            } catch (IOException e) {
+                recycleBuffer(data);
+                throw e;
+            } finally {
+                in.close();
+            }
+        }
+        publish(texture, data, alpha);
+        return true;
+    }
+
+    /**
+     * Hands the pixels of a decoded texture over for uploading, or back to
+     * the pool if the cache was released while it was decoding.
+     *
+     * @param texture the texture, with everything but its pixels set
+     * @param pixels  its pixels
+     * @param alpha   its separate alpha channel, or {@code null}
+     */
+    private void publish(Texture texture, ByteBuffer pixels, Texture alpha) {
+        synchronized (mTextures) {
+            if (mReleased) {
+                recycleBuffer(pixels);
+                if (alpha != null) {
+                    recycleBuffer(alpha.pixels);
+                }
+                return;
+            }
+            if (alpha != null) {
+                texture.alpha = alpha;
+                mTextures.add(alpha);
+                mRetainedMemory += alpha.size();
+            }
+            mRetainedMemory += texture.size();
+            texture.pixels = pixels; // Publishes the fields above
+        }
+    }
+
+    /**
+     * Reads a compressed texture, setting its dimensions, format and type.
+     *
+     * @param texture   the texture
+     * @param in        the texture data
+     * @param extension extension of the texture, which says how to read it
+     * @return the pixels, positioned at 0
+     * @throws IOException if the texture could not be read
+     */
+    private static ByteBuffer read(Texture texture, InputStream in, String extension) throws IOException {
+        DataInputStream header = new DataInputStream(in);
+        if (EXT_ETC1.equals(extension)) {
+            // PKM: "PKM 10", format, padded width and height, width and height
+            byte[] magic = new byte[8];
+            header.readFully(magic);
+            int paddedWidth = header.readUnsignedShort();
+            int paddedHeight = header.readUnsignedShort();
+            texture.width = header.readUnsignedShort();
+            texture.height = header.readUnsignedShort();
+            if ((magic[0] != 'P') || (magic[1] != 'K') || (magic[2] != 'M')
+                    || (paddedWidth != texture.width) || (paddedHeight != texture.height)) {
+                throw new IOException("Not an ETC1 texture with dimensions divisible by 4");
+            }
+            texture.format = ETC1.ETC1_RGB8_OES;
+            texture.type = TYPE_COMPRESSED;
+        } else {
+            int magic = header.readInt();
+            texture.width = header.readInt();
+            texture.height = header.readInt();
+            if (EXT_RGB565.equals(extension) && (magic == MAGIC_RGB565)) {
+                texture.format = GLES20.GL_RGB;
+                texture.type = GLES20.GL_UNSIGNED_SHORT_5_6_5;
+            } else if (EXT_ALPHA8.equals(extension) && (magic == MAGIC_ALPHA8)) {
+                // Luminance, so that the shaders find it in the red channel
+                texture.format = GLES20.GL_LUMINANCE;
+                texture.type = GLES20.GL_UNSIGNED_BYTE;
+            } else {
+                throw new IOException("Bad magic number: " + Integer.toHexString(magic));
+            }
+        }
+
+        ByteBuffer data = obtainBuffer(texture.size());
+        byte[] chunk = new byte[8192];
+        while (data.hasRemaining()) {
+            int read = header.read(chunk, 0, Math.min(chunk.length, data.remaining()));
+            if (read < 0) {
+                recycleBuffer(data);
+                throw new IOException("Texture data ended early");
+            }
+            data.put(chunk, 0, read);
+        }
+        data.position(0);
+        return data;
+    }
+
+    /**
+     * Decodes the original PNG of a texture as RGBA. If it can't be decoded,
+     * the texture stays the placeholder.
+     *
+     * @param texture the texture
+     */
+    private void decodeBitmap(Texture texture) {
+        Bitmap bitmap = BitmapFactory.decodeResource(res, texture.resId, OPTIONS);
+        if (bitmap == null) {
+            Log.e(LevelActivity.NAME_LOGGING, "Failed to decode texture: " + res.getResourceEntryName(texture.resId));
+            return;
+        }
+        texture.width = bitmap.getWidth();
+        texture.height = bitmap.getHeight();
+        texture.format = GLES20.GL_RGBA;
+        texture.type = GLES20.GL_UNSIGNED_BYTE;
+        ByteBuffer pixels = obtainBuffer(texture.size());
+        // ARGB_8888 pixels are stored as RGBA bytes
+        bitmap.copyPixelsToBuffer(pixels);
+        pixels.position(0);
+        bitmap.recycle();
+        publish(texture, pixels, null);
+    }
+
+    /**
+     * Must be called on the GL thread whenever the context is (re)created.
+     * Every texture that has been decoded is uploaded again from its pixels.
+     */
+    void onContextCreated() {
+        etc1Supported = isEtc1Supported();
+        mTextureMemory = 0;
+        mPlaceholder = generate();
+        mGL.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, 1, 1, 0,
+                GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, PLACEHOLDER);
+        // Rows of RGB565 and alpha textures aren't always a multiple of 4 bytes
+        mGL.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 1);
+        synchronized (mTextures) {
+            for (Texture texture : mTextures) {
+                texture.handle = 0;
+                texture.rowsUploaded = 0;
+            }
+            // Went with the old context
+            mDeleted.clear();
+        }
+    }
+
+    /**
+     * Checks whether the current context supports ETC1 textures.
+     *
+     * @return whether or not ETC1 textures can be used
+     */
+    private boolean isEtc1Supported() {
+        mGL.glGetIntegerv(GLES20.GL_NUM_COMPRESSED_TEXTURE_FORMATS, mScratch, 0);
+        int[] formats = new int[mScratch[0]];
+        if (formats.length > 0) {
+            mGL.glGetIntegerv(GLES20.GL_COMPRESSED_TEXTURE_FORMATS, formats, 0);
+        }
+        for (int format : formats) {
+            if (format == ETC1.ETC1_RGB8_OES) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Deletes released textures, then uploads decoded textures until the time
+     * budget runs out. Always makes some progress if there is anything to
+     * upload. Must be called on the GL thread.
+     *
+     * @param budget time allowed, in nanoseconds
+     */
+    void upload(long budget) {
+        long start = System.nanoTime();
+        synchronized (mTextures) {
+            delete();
+            for (int i = 0; i < mTextures.size(); i++) {
+                Texture texture = mTextures.get(i);
+                ByteBuffer pixels = texture.pixels;
+                if ((pixels == null) || (texture.rowsUploaded == texture.height)) {
+                    continue;
+                }
+                if (texture.type == TYPE_COMPRESSED) {
+                    if (!etc1Supported) {
+                        // Decoded before the context said otherwise
+                        redecode(texture);
+                        continue;
+                    }
+                    // Compressed textures can't be uploaded a few rows at a time
+                    texture.handle = generate();
+                    mGL.glCompressedTexImage2D(GLES20.GL_TEXTURE_2D, 0, texture.format,
+                            texture.width, texture.height, 0, texture.size(), pixels);
+                    texture.rowsUploaded = texture.height;
+                    mTextureMemory += texture.size();
+                    if ((System.nanoTime() - start) > budget) {
+                        return;
+                    }
+                    continue;
+                }
+                if (texture.handle == 0) {
+                    // Allocate storage; rows are filled in below
+                    texture.handle = generate();
+                    mGL.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, texture.format, texture.width, texture.height,
+                            0, texture.format, texture.type, null);
+                    mTextureMemory += texture.size();
+                } else {
+                    mGLState.bindTexture(0, texture.handle);
+                }
+                int rowSize = texture.width * texture.bytesPerPixel();
+                while (texture.rowsUploaded < texture.height) {
+                    int rows = Math.min(ROWS_PER_UPLOAD, texture.height - texture.rowsUploaded);
+                    pixels.position(texture.rowsUploaded * rowSize);
+                    mGL.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, texture.rowsUploaded, texture.width, rows,
+                            texture.format, texture.type, pixels);
+                    texture.rowsUploaded += rows;
+                    if ((System.nanoTime() - start) > budget) {
+                        pixels.position(0);
+                        return;
+                    }
+                }
+                pixels.position(0);
+            }
+        }
+    }
+
+    /**
+     * Deletes the textures that were released from the current context. Must
+     * be called on the GL thread while holding the lock on {@code mTextures}.
+     */
+    private void delete() {
+        for (int i = 0; i < mDeleted.size(); i++) {
+            Texture texture = mDeleted.get(i);
+            if (texture.handle != 0) {
+                mGLState.deleteTexture(texture.handle);
+                // Storage is counted as soon as there is a handle
+                mTextureMemory -= texture.size();
+                texture.handle = 0;
+            }
+        }
+        mDeleted.clear();
+    }
+
+    /**
+     * Throws away the pixels of an ETC1 texture and its alpha channel, and
+     * decodes it again in a format that the context supports. Must be called
+     * while holding the lock on {@code mTextures}.
+     *
+     * @param texture the texture
+     */
+    private void redecode(Texture texture) {
+        Texture alpha = texture.alpha;
+        if (alpha != null) {
+            // Stays in the list, but is never uploaded again
+            texture.alpha = null;
+            recycleBuffer(alpha.pixels);
+            mRetainedMemory -= alpha.size();
+            alpha.pixels = null;
+        }
+        recycleBuffer(texture.pixels);
+        mRetainedMemory -= texture.size();
+        texture.pixels = null;
+        decode(texture);
+    }
+
+    /**
+     * Looks up a texture by id.
+     *
+     * @param id the id from {@link #request}
+     * @return the texture, or {@code null} if it has been released
+     */
+    private Texture get(int id) {
+        synchronized (mTextures) {
+            return (id < mTextures.size()) ? mTextures.get(id) : null;
+        }
+    }
+
+    /**
+     * Checks whether a texture and its alpha channel are completely uploaded.
+     *
+     * @param texture the texture, or {@code null}
+     * @return whether or not the texture can be drawn
+     */
+    private static boolean isUploaded(Texture texture) {
+        if ((texture == null) || (texture.pixels == null) || (texture.rowsUploaded < texture.height)) {
+            return false;
+        }
+        Texture alpha = texture.alpha;
+        return (alpha == null) || ((alpha.pixels != null) && (alpha.rowsUploaded == alpha.height));
+    }
+
+    /**
+     * Returns the handle to bind for a texture: the texture itself if it has
+     * been uploaded, or the placeholder otherwise. Must be called on the GL
+     * thread.
+     *
+     * @param id the id from {@link #request}
+     * @return the texture handle
+     */
+    int getHandle(int id) {
+        Texture texture = get(id);
+        return isUploaded(texture) ? texture.handle : mPlaceholder;
+    }
+
+    /**
+     * Returns the handle to bind for the alpha channel of a texture: its
+     * separate alpha channel if it has one, or the (opaque) placeholder if
+     * it doesn't or hasn't been uploaded. Must be called on the GL thread.
+     *
+     * @param id the id from {@link #request}
+     * @return the texture handle
+     */
+    int getAlphaHandle(int id) {
+        Texture texture = get(id);
+        return (isUploaded(texture) && (texture.alpha != null)) ? texture.alpha.handle : mPlaceholder;
+    }
+
+    /**
+     * Returns the handle of the placeholder, a single white pixel. Must be
+     * called on the GL thread.
+     *
+     * @return the texture handle
+     */
+    int getPlaceholder() {
+        return mPlaceholder;
+    }
+
+    /**
+     * Returns the amount of texture memory used in the current context, not
+     * counting the placeholder.
+     *
+     * @return the number of bytes
+     */
+    int getTextureMemory() {
+        return mTextureMemory;
+    }
+
+    /**
+     * Returns the amount of memory used to keep decoded pixels for uploading.
+     *
+     * @return the number of bytes
+     */
+    int getRetainedMemory() {
+        synchronized (mTextures) {
+            return mRetainedMemory;
+        }
+    }
+
+    /**
+     * Returns the pixel buffers of every decoded texture to the pool, and
+     * deletes the textures on the next {@link #upload}. Buffers are only read
+     * while holding the lock on {@code mTextures}, so this is safe to call
+     * while the GL thread is still running; every texture is the placeholder
+     * afterwards. If nothing is drawn again, the textures go with the
+     * context instead. Textures still decoding return their buffers when
+     * they finish.
+     */
+    void release() {
+        synchronized (mTextures) {
+            mReleased = true;
+            for (Texture texture : mTextures) {
+                if (texture.pixels != null) {
+                    recycleBuffer(texture.pixels);
+                    texture.pixels = null;
+                }
+            }
+            mDeleted.addAll(mTextures);
+            mTextures.clear();
+            mRetainedMemory = 0;
+        }
+    }
+
+    /**
+     * Generates a texture with the filtering used by every texture, and leaves
+     * it bound to unit 0.
+     *
+     * @return the texture handle
+     */
+    private int generate() {
+        mGL.glGenTextures(1, mScratch, 0);
+        mGLState.bindTexture(0, mScratch[0]);
+        mGL.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
+        mGL.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
+        return mScratch[0];
+    }
+
+    /**
+     * A texture and how far along it is.
+     */
+    private static final class Texture {
+
+        /**
+         * Resource id of the original PNG.
+         */
+        final int resId;
+        /**
+         * Decoded pixels, or {@code null} if still decoding. Written once
+         * by the decoder.
+         */
+        volatile ByteBuffer pixels;
+        /**
+         * Separate alpha channel, or {@code null} if there is none. Valid
+         * once {@code pixels} is set.
+         */
+        Texture alpha;
+        /**
+         * Dimensions of the texture, valid once {@code pixels} is set.
+         */
+        int width, height;
+        /**
+         * Pixel format, or compressed format, valid once {@code pixels} is
+         * set.
+         */
+        int format;
+        /**
+         * Pixel type, or {@link #TYPE_COMPRESSED}, valid once {@code pixels}
+         * is set.
+         */
+        int type;
+        /**
+         * Handle in the current context, or 0 if there is none yet. Only
+         * used on the GL thread.
+         */
+        int handle;
+        /**
+         * Number of rows uploaded in the current context. Only used on the GL
+         * thread.
+         */
+        int rowsUploaded;
+
+        /**
+         * Creates a texture that hasn't been decoded yet.
+         *
+         * @param resId resource id of the original PNG
+         */
+        Texture(int resId) {
+            this.resId = resId;
+        }
+
+        /**
+         * Returns the size of one pixel of an uncompressed texture.
+         *
+         * @return the size in bytes
+         */
+        int bytesPerPixel() {
+            if (type != GLES20.GL_UNSIGNED_BYTE) {
+                return 2; // Packed 16-bit formats
+            }
+            return (format == GLES20.GL_RGBA) ? 4 : 1;
+        }
+
+        /**
+         * Returns the size of the pixels of the texture.
+         *
+         * @return the size in bytes
+         */
+        int size() {
+            if (type == TYPE_COMPRESSED) {
+                return ETC1.getEncodedDataSize(width, height);
+            }
+            return width * height * bytesPerPixel();
+        }
+    }
+}